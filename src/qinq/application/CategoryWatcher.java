@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.application;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javafx.application.Platform;
+import qinq.resource.QuestionBank;
+
+/**
+ * Watches the custom questions directory and hands changed categories to the
+ * options pane one file at a time, so that editing a category does not mean
+ * rescanning every other one. Files are read on a thread of their own, only
+ * the update of the check boxes happens on the FX thread.
+ *
+ * Games that are already running keep drawing from the pool they started
+ * with.
+ */
+public class CategoryWatcher {
+  private Path                          dir;
+  private OptionsPane                   options;
+  private WatchService                  watcher;
+  private ScheduledExecutorService      loader;
+  private Map<Path, ScheduledFuture<?>> pending;
+  /**
+   * How long a file has to stay unchanged before it is read(in milliseconds),
+   * editors often write a file in several steps
+   */
+  private static int                    nSettle = 250;
+
+  public CategoryWatcher(Path dir, OptionsPane options) {
+    this.dir = dir;
+    this.options = options;
+    this.pending = new HashMap<Path, ScheduledFuture<?>>();
+  }
+
+  /**
+   * Start watching, does nothing if the directory does not exist
+   */
+  public void start() {
+    if (!Files.isDirectory(this.dir))
+      return;
+    try {
+      this.watcher = this.dir.getFileSystem().newWatchService();
+      this.dir.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return;
+    }
+    this.loader = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "qinq-categories");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Thread thread = new Thread(() -> this.watch(), "qinq-category-watch");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void stop() {
+    try {
+      if (this.watcher != null)
+        this.watcher.close();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    if (this.loader != null)
+      this.loader.shutdownNow();
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = this.watcher.take();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+            this.loader.execute(() -> this.reload());
+          else
+            this.schedule(this.dir.resolve((Path) event.context()));
+        }
+        if (!key.reset())
+          return; // Directory is gone
+      }
+    }
+    catch (InterruptedException | ClosedWatchServiceException e) {
+      return; // Stopped
+    }
+  }
+
+  /**
+   * Read every category again when changes were missed, the files are read on
+   * the loader thread and only shown on the FX thread
+   */
+  private void reload() {
+    OptionsPane.Loaded loaded = OptionsPane.load();
+    Platform.runLater(() -> this.options.show(loaded));
+  }
+
+  /**
+   * Read a file once it has stopped changing
+   *
+   * @param file
+   *          the file that changed
+   */
+  private synchronized void schedule(Path file) {
+    String strName = file.getFileName().toString().toLowerCase();
+    if (!strName.endsWith(".txt")
+        && !strName.endsWith(QuestionBank.EXTENSION))
+      return;
+    ScheduledFuture<?> old = this.pending.get(file);
+    if (old != null)
+      old.cancel(false);
+    this.pending.put(file, this.loader.schedule(() -> this.load(file),
+        CategoryWatcher.nSettle, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Read a changed file and pass it on to the options pane
+   *
+   * @param file
+   *          the file that changed
+   */
+  private void load(Path file) {
+    synchronized (this) {
+      this.pending.remove(file);
+    }
+    String strFile = file.getFileName().toString();
+    try {
+      if (strFile.toLowerCase().endsWith(QuestionBank.EXTENSION)) {
+        QuestionBank bank =
+            Files.isRegularFile(file) ? new QuestionBank(file.toFile()) : null;
+        Platform.runLater(() -> this.options.updateBank(strFile, bank));
+      }
+      else {
+        String strCategory = OptionsPane.categoryName(strFile);
+        Set<String> questions = null;
+        if (Files.isRegularFile(file)) {
+          questions = new HashSet<String>();
+          try (BufferedReader br =
+              new BufferedReader(new FileReader(file.toFile()))) {
+            String question;
+            while ((question = br.readLine()) != null)
+              if (!question.isEmpty())
+                questions.add(question);
+          }
+        }
+        Set<String> loaded = questions;
+        Platform.runLater(
+            () -> this.options.updateCategory(strCategory, loaded));
+      }
+    }
+    catch (IOException e) { // e.g. still being written, wait for next change
+      e.printStackTrace();
+    }
+  }
+
+  public static int getSettle() {
+    return CategoryWatcher.nSettle;
+  }
+
+  public static void setSettle(int nSettle) {
+    CategoryWatcher.nSettle = nSettle;
+  }
+}
@@ -18,29 +18,27 @@
 
 package qinq.application;
 
-import java.util.Map.Entry;
-
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import javafx.application.Platform;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.FlowPane;
 import javafx.scene.layout.HBox;
-import qinq.resource.Answer;
 import qinq.resource.Game;
+import qinq.resource.GameDisplay;
 import qinq.resource.Player;
 import qinq.resource.Question;
 
+/**
+ * Window a game is shown on. What is sent to the players is kept by the game's
+ * {@link GameDisplay}, which shows every change here as well.
+ */
 public class GamePane extends BorderPane {
-  private Game       game;
-  private Label      labelTime;
-  private Label      labelState;
-  private HBox       header;
-  private FlowPane   players;
-  private JSONObject info;
+  private Game     game;
+  private Label    labelTime;
+  private Label    labelState;
+  private HBox     header;
+  private FlowPane players;
 
   public GamePane(Game game) {
     this.game = game;
@@ -48,9 +46,6 @@ public class GamePane extends BorderPane {
     this.labelTime = new Label("");
     this.header = new HBox();
     this.players = new FlowPane();
-    this.info = new JSONObject();
-    this.info.put("action", "info");
-    this.info.put("info", "none");
 
     this.header.getStyleClass().add("header");
     this.players.getStyleClass().add("players");
@@ -82,103 +77,10 @@ public class GamePane extends BorderPane {
         }
       }
     };
-    if (this.labelState.getText().equalsIgnoreCase("Answering")) {
-      info = new JSONObject();
-      info.put("action", "info");
-      info.put("info", "answering");
-      JSONArray jsonPlayers = new JSONArray();
-      for (Player p : this.game.getPlayers()) {
-        if (p.getAnswers().size() > 0) {
-          JSONObject jsonPlayer = new JSONObject();
-          jsonPlayer.put("name", p.getName());
-          jsonPlayer.put("color", p.getColor());
-          jsonPlayers.put(jsonPlayer);
-        }
-      }
-      info.put("players", jsonPlayers);
-    }
-    if (this.game.getRound() != null)
-      info.put("time", this.game.getRound().getTime());
     Platform.runLater(task);
   }
 
-  public synchronized JSONObject getJson() {
-    this.refresh();
-    return info;
-  }
-
   public synchronized void changeState(String state) {
-    if (state.equalsIgnoreCase("Question Results")) {
-      Question question = this.game.getRound().getQuestion();
-      info = new JSONObject();
-      info.put("action", "info");
-      info.put("info", "question");
-      info.put("question", question.getQuestion());
-
-      question.calcResults(GamePane.this.game.getPlayers().size());
-
-      JSONObject jsonPlayer;
-      JSONObject jsonAnswer;
-      JSONArray jsonVotes;
-      JSONArray jsonAnswers = new JSONArray();
-      for (Answer answer : question.getAnswers()) {
-        jsonAnswer = new JSONObject();
-        jsonPlayer = new JSONObject();
-        jsonVotes = new JSONArray();
-
-        jsonPlayer.put("name", answer.getPlayer().getName());
-        jsonPlayer.put("color", answer.getPlayer().getColor());
-
-        jsonAnswer.put("player", jsonPlayer);
-        jsonAnswer.put("answer", answer.getAnswer());
-        jsonAnswer.put("score", answer.getScoreStr());
-
-        int nSpectatorVotes = 0;
-        for (Entry<Player, Integer> vote : answer.getVotes().entrySet()) {
-          if (vote.getKey().getID() >= 0) {
-            jsonPlayer = new JSONObject();
-            jsonPlayer.put("value", String.format("%s - %d",
-                vote.getKey().getName(), vote.getValue()));
-            jsonPlayer.put("color", vote.getKey().getColor());
-            jsonVotes.put(jsonPlayer);
-          }
-          else
-            nSpectatorVotes++;
-        }
-        if (nSpectatorVotes > 0 && game.getSpectators().size() > 0) {
-          Player spectator = game.getSpectators().get(0);
-          jsonPlayer = new JSONObject();
-          jsonPlayer.put("value",
-              String.format("%s - %d", spectator.getName(), nSpectatorVotes));
-          jsonPlayer.put("color", spectator.getColor());
-          jsonVotes.put(jsonPlayer);
-        }
-        jsonAnswer.put("votes", jsonVotes);
-        jsonAnswers.put(jsonAnswer);
-      }
-      info.put("answers", jsonAnswers);
-
-    }
-    else if (state.equalsIgnoreCase("Round Results")) {
-      info = new JSONObject();
-      info.put("action", "info");
-      info.put("info", "round");
-      JSONArray jsonPlayers = new JSONArray();
-      for (Player p : this.game.getPlayers()) {
-        JSONObject player = new JSONObject();
-        player.put("name",
-            String.format("%s - %d", p.getName(), p.getPoints()));
-        player.put("color", p.getColor());
-        jsonPlayers.put(player);
-      }
-      info.put("players", jsonPlayers);
-
-    }
-    else if (state.equalsIgnoreCase("Voting")) {
-      info = new JSONObject();
-      info.put("action", "info");
-      info.put("info", "none");
-    }
     Platform.runLater(new Runnable() {
       @Override
       public void run() {
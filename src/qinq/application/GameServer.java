@@ -27,8 +27,19 @@ import java.net.SocketException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,6 +52,7 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.server.WebSocketHandler;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
@@ -50,10 +62,21 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import qinq.resource.Answer;
+import qinq.resource.ClientSession;
+import qinq.resource.Compression;
+import qinq.resource.EventStream;
 import qinq.resource.Game;
+import qinq.resource.PhaseScheduler;
 import qinq.resource.Player;
 import qinq.resource.QinqWebSocketAddapter;
+import qinq.resource.Question;
+import qinq.resource.QuestionPool;
+import qinq.resource.ResponseWriter;
 import qinq.resource.Round;
+import qinq.resource.Spectator;
+import qinq.resource.StateWatch;
+import qinq.resource.ThresholdDeflateExtension;
+import qinq.resource.WireCodec;
 
 /**
  * Class that is responsible for managing the web interface of the game.
@@ -63,13 +86,47 @@ import qinq.resource.Round;
  *
  */
 public class GameServer {
-  private Server server;
-  private Game   game;
+  /**
+   * Letters used when generating room codes
+   */
+  private static final String    CODE_CHARS  = "ABCDEFGHJKLMNPQRSTUVWXYZ";
+  /**
+   * Length of generated room codes
+   */
+  private static final int       CODE_LENGTH = 4;
+
+  private Server                 server;
+  /**
+   * The game hosted by the local UI, used when no room code is given
+   */
+  private Game                   game;
+  /**
+   * All other rooms hosted by this server: room code -> game
+   */
+  private Map<String, Game>      rooms;
+  /**
+   * Key needed to start or close each room: room code -> key
+   */
+  private Map<String, String>    keys;
+  /**
+   * Where rooms get the questions they are played with, null until set
+   */
+  private Supplier<QuestionPool> questions;
+  /**
+   * How long "get state" polls are held for(in milliseconds)
+   */
+  private static int             nPollTimeout = 25000;
+  /**
+   * How many rooms can be hosted at once, besides the local game
+   */
+  private static int             nMaxRooms    = 64;
 
   /**
    * Create an instance of the game server to use
    */
   public GameServer() {
+    this.rooms = new ConcurrentHashMap<String, Game>();
+    this.keys = new ConcurrentHashMap<String, String>();
     this.server = new Server(8070);
     // this.server.addConnector(new ServerConnector(this.server));
 
@@ -91,7 +148,8 @@ public class GameServer {
     }
 
     HandlerList handlers = new HandlerList();
-    handlers.setHandlers(new Handler[] { new MyHandler(), resource_handler,
+    handlers.setHandlers(new Handler[] { new MyHandler(), new StatusHandler(),
+        new EventHandler(), new RoomHandler(), resource_handler,
         new MySocketHandler() });
     this.server.setHandler(handlers);
 
@@ -182,6 +240,103 @@ public class GameServer {
     this.game = game;
   }
 
+  /**
+   * Set where rooms get the questions they are played with
+   *
+   * @param questions
+   *          gives the pool of questions to start a room's game with
+   */
+  public void setQuestionPool(Supplier<QuestionPool> questions) {
+    this.questions = questions;
+  }
+
+  /**
+   * Create a new room with its own game
+   *
+   * @return the code used to join the new room, or null if there are already
+   *         as many rooms as allowed
+   */
+  public String createRoom() {
+    return this.createRoom(new Game());
+  }
+
+  /**
+   * Host a game in a new room, with a new key for starting and closing it
+   *
+   * @param room
+   *          the game to host, its settings already set
+   * @return the code used to join the new room, see {@link #getRoomKey}, or
+   *         null if there are already as many rooms as allowed
+   */
+  private synchronized String createRoom(Game room) {
+    if (this.rooms.size() >= GameServer.nMaxRooms)
+      return null;
+    String code;
+    do {
+      StringBuilder sb = new StringBuilder(GameServer.CODE_LENGTH);
+      for (int i = 0; i < GameServer.CODE_LENGTH; i++)
+        sb.append(GameServer.CODE_CHARS.charAt(ThreadLocalRandom.current()
+            .nextInt(GameServer.CODE_CHARS.length())));
+      code = sb.toString();
+    } while (this.rooms.putIfAbsent(code, room) != null);
+    room.setRoomCode(code);
+    this.keys.put(code, ClientSession.newToken());
+    return code;
+  }
+
+  /**
+   * Get the key needed to start or close a room, only given to whoever
+   * created the room
+   *
+   * @param code
+   *          the room code
+   * @return the key, or null if there is no such room
+   */
+  public String getRoomKey(String code) {
+    return code == null ? null : this.keys.get(code.toUpperCase());
+  }
+
+  /**
+   * Close a room, stopping the game being played in it and disconnecting
+   * everyone in it
+   *
+   * @param code
+   *          the code of the room to close
+   * @return the game that was hosted in the room, or null if there was none
+   */
+  public Game removeRoom(String code) {
+    if (code == null)
+      return null;
+    Game room = this.rooms.remove(code.toUpperCase());
+    this.keys.remove(code.toUpperCase());
+    if (room != null) {
+      room.stop(); // Nothing is scheduled for the room after this
+      for (EventStream stream : room.getStreams())
+        stream.close();
+      for (Player p : room.getPlayers())
+        if (p.getSocket() != null)
+          p.getSocket().close();
+      room.getSpectators().forEach(s -> {
+        if (s.getSocket() != null)
+          s.getSocket().close();
+      });
+    }
+    return room;
+  }
+
+  /**
+   * Get the game hosted in a room
+   *
+   * @param code
+   *          the room code, if null or empty the local game is returned
+   * @return the game, or null if there is no such room
+   */
+  public Game getRoom(String code) {
+    if (code == null || code.isEmpty())
+      return this.game;
+    return this.rooms.get(code.toUpperCase());
+  }
+
   /**
    * Class that handles what happens when a request is sent.
    *
@@ -194,127 +349,622 @@ public class GameServer {
     public void handle(String target, Request baseRequest,
         HttpServletRequest request, HttpServletResponse response)
         throws IOException, ServletException {
-      Game g = GameServer.this.game;
-      if (g == null || !target.equalsIgnoreCase("/data.json"))
+      if (!target.equalsIgnoreCase("/data.json"))
         return;
 
-      StringBuilder sb = new StringBuilder();
-      String line;
-      while ((line = request.getReader().readLine()) != null) {
-        sb.append(line);
-      }
+      JSONObject json = GameServer.read(request);
+      if (json == null)
+        return;
 
-      JSONObject json;
-      try {
-        json = new JSONObject(sb.toString());
-      }
-      catch (Exception e) {
+      Game g = GameServer.this.getRoom(json.has("room")
+          ? json.getString("room") : request.getParameter("room"));
+      if (g == null)
         return;
-      }
 
       int id;
       int aid;
-      double time;
       Answer a;
       Player p;
-      Round round = GameServer.this.game.getRound();
+      Round round = g.getRound();
+      // Ids are started again for every game, ones given out in a game that
+      // is over could match someone in this one. Read before any id is handed
+      // out, so a client never gets a newer generation than its id.
+      int nGeneration = g.getIds().getGeneration();
+      boolean bStale =
+          json.has("gen") && json.optInt("gen", -1) != nGeneration;
 
       JSONObject jsonOut = new JSONObject();
 
       switch (json.getString("action").toLowerCase()) {
         case "create user":
-          p = g.addPlayer(json.getString("name").toUpperCase(),
-              request.getRemoteAddr());
+          jsonOut.put("gen", nGeneration);
+          p = json.has("token") ? g.getPlayerByToken(json.getString("token"))
+              : null; // Coming back, maybe from another address
+          if (p == null && json.getString("name").isEmpty()) {
+            Spectator s = g.addSpectator(); // No session to come back to
+            jsonOut.put("created", "true");
+            jsonOut.put("color", Spectator.COLOR);
+            jsonOut.put("name", Spectator.NAME.toUpperCase());
+            jsonOut.put("id", s.getID());
+            break;
+          }
+          if (p == null)
+            p = g.addPlayer(json.getString("name").toUpperCase(),
+                request.getRemoteAddr());
           if (p != null) {
             jsonOut.put("created", "true");
             jsonOut.put("color", p.getColor());
             jsonOut.put("name", p.getName().toUpperCase());
             jsonOut.put("id", p.getID());
+            jsonOut.put("token", p.getSession().getToken());
+            p.getSession().setConnected(true); // Polls over HTTP now
           }
           else {
             jsonOut.put("created", "false");
           }
           break;
         case "send answer":
-          id = Integer.valueOf(json.getString("id"));
+          if (!GameServer.isId(json, "id")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            baseRequest.setHandled(true);
+            return;
+          }
+          if (bStale)
+            return;
+          id = Integer.parseInt(json.optString("id"));
           a = g.getAnswerById(id);
-          if (a == null)
+          if (a == null || round == null
+              || round.getPhase() != Round.Phase.ANSWERING)
             return;
           a.setAnswer(json.getString("answer"));
           a.getPlayer().getAnswers().remove(a);
+          round.logAnswer(a);
+          if (a.getPlayer().getAnswers().size() > 0) // Picked up by next poll
+            round.logPrompt(a.getPlayer().getAnswers().get(0));
+          round.getDisplay().invalidate();
+          g.getBroadcaster().requestInfo();
+          round.update();
           break;
         case "vote":
-          id = Integer.valueOf(json.getString("id"));
-          aid = Integer.valueOf(json.getString("aid"));
+          if (!GameServer.isId(json, "id") || !GameServer.isId(json, "aid")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            baseRequest.setHandled(true);
+            return;
+          }
+          if (bStale)
+            return;
+          id = Integer.parseInt(json.optString("id"));
+          aid = Integer.parseInt(json.optString("aid"));
           p = g.getPlayerById(id);
           a = g.getAnswerById(aid);
-          if (a != null && p != null) {
-            jsonOut.put("voted", a.vote(p));
+          Spectator s = p == null ? g.getSpectatorById(id) : null;
+          if (a != null && s != null) {
+            int nVoted = a.vote(s);
+            jsonOut.put("voted", nVoted);
+            jsonOut.put("left", s.getVotes());
+            if (round != null)
+              round.logAudience(a, nVoted);
+          }
+          else if (a != null && p != null) {
+            int nVoted = a.vote(p);
+            jsonOut.put("voted", nVoted);
             jsonOut.put("left", p.getVotes());
+            if (round != null) {
+              round.logVote(p, a, nVoted);
+              round.update();
+            }
           }
           else
             return;
           break;
         case "get state":
-          id = Integer.valueOf(json.getString("id"));
-          p = g.getPlayerById(id);
-          if (p == null) {
+          if (json.has("version") && json.optLong("version", -1) < 0
+              || !GameServer.isId(json, "id")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            baseRequest.setHandled(true);
+            return;
+          }
+          if (bStale) { // The player's game is over
             jsonOut.put("action", "die");
             break;
           }
+          if (json.has("version")
+              && GameServer.park(g, json, request, baseRequest))
+            return;
+          jsonOut = GameServer.getState(g, json);
+          break;
+        default:
+          return;
+      }
 
-          jsonOut.put("score", p.getPoints());
+      GameServer.write(response, jsonOut);
+      baseRequest.setHandled(true);
+    }
+  }
 
-          if (g.getRound() != null)
-            time = g.getRound().getTime();
-          else
-            time = 0;
-          if (json.getString("state").equalsIgnoreCase("waiting")) {
-            if (p.getAnswers().size() > 0 && round != null
-                && round.getQuestion() == null) {
-              a = p.getAnswers().get(0);
-              jsonOut.put("action", "answer");
-              jsonOut.put("time", time);
-              jsonOut.put("aid", a.getID());
-              jsonOut.put("question", a.getQuestion());
-            }
-            else if (round != null && round.getQuestion() != null
-                && p.getVotes() > 0) {
-              jsonOut.put("action", "vote");
-              jsonOut.put("time", time);
-              jsonOut.put("question", g.getRound().getQuestion().getQuestion());
-              jsonOut.put("votes", p.getVotes());
-              JSONArray jSONArray = new JSONArray();
-              for (Answer tmp : g.getRound().getQuestion().getAnswers()) {
-                if (tmp.getPlayer() != p && !tmp.getAnswer().isEmpty())
-                  jSONArray.put(new JSONObject().put("answer", tmp.getAnswer())
-                      .put("aid", tmp.getID()));
-              }
-              jsonOut.put("answers", jSONArray);
-            }
-            else {
-              jsonOut.put("action", "wait");
-              jsonOut.put("time", time);
-            }
-          }
-          else {
-            jsonOut.put("action", "nothing");
-            jsonOut.put("time", time);
-          }
-          if (round != null) {
-            jsonOut.put("info", round.getDisplay().getJson());
-          }
-          else {
-            jsonOut.put("info", "none");
+  /**
+   * Check that a request holds an id that can be read, so that a bad request
+   * is answered with 400 rather than an exception
+   *
+   * @param json
+   *          the request
+   * @param strKey
+   *          the key of the id, e.g. "id" or "aid"
+   * @return true if the value is a whole number that fits in an int
+   */
+  private static boolean isId(JSONObject json, String strKey) {
+    return json.optString(strKey, "").matches("-?\\d{1,9}");
+  }
+
+  /**
+   * Get the state of a game as seen by one player, its id already checked
+   * with {@link #isId}
+   *
+   * @param g
+   *          the game
+   * @param json
+   *          the "get state" request, with the player's id and state
+   * @return what the player should be doing, the display info and the version
+   *         of the state
+   */
+  private static JSONObject getState(Game g, JSONObject json) {
+    JSONObject jsonOut = new JSONObject();
+    // Read the version first, anything that changes after is picked up by the
+    // next poll
+    jsonOut.put("version", g.getWatch().getVersion());
+
+    int id = Integer.parseInt(json.optString("id"));
+    Player p = g.getPlayerById(id);
+    Spectator s = p == null ? g.getSpectatorById(id) : null;
+    Round round = g.getRound();
+    Answer a;
+    double time;
+    if (p == null && s == null) {
+      jsonOut.put("action", "die");
+      return jsonOut;
+    }
+
+    jsonOut.put("score", p != null ? p.getPoints() : 0);
+
+    if (round != null)
+      time = round.getTime();
+    else
+      time = 0;
+    if (json.getString("state").equalsIgnoreCase("waiting") && s != null) {
+      if (round != null && s.canVote(round.getQuestion())) {
+        jsonOut.put("action", "vote");
+        jsonOut.put("time", time);
+        jsonOut.put("question", round.getQuestion().getQuestion());
+        jsonOut.put("votes", 1);
+        jsonOut.put("answers", round.getQuestion().getChoices(null));
+      }
+      else {
+        jsonOut.put("action", "wait");
+        jsonOut.put("time", time);
+      }
+    }
+    else if (json.getString("state").equalsIgnoreCase("waiting")) {
+      if (p.getAnswers().size() > 0 && round != null
+          && round.getQuestion() == null) {
+        a = p.getAnswers().get(0);
+        jsonOut.put("action", "answer");
+        jsonOut.put("time", time);
+        jsonOut.put("aid", a.getID());
+        jsonOut.put("question", a.getQuestion());
+      }
+      else if (round != null && round.getQuestion() != null
+          && p.getVotes() > 0) {
+        jsonOut.put("action", "vote");
+        jsonOut.put("time", time);
+        jsonOut.put("question", round.getQuestion().getQuestion());
+        jsonOut.put("votes", p.getVotes());
+        jsonOut.put("answers", round.getQuestion().getChoices(p));
+      }
+      else {
+        jsonOut.put("action", "wait");
+        jsonOut.put("time", time);
+      }
+    }
+    else {
+      jsonOut.put("action", "nothing");
+      jsonOut.put("time", time);
+    }
+    if (round != null) {
+      jsonOut.put("info", round.getDisplay().getJson());
+    }
+    else {
+      jsonOut.put("info", "none");
+    }
+    return jsonOut;
+  }
+
+  /**
+   * Hold on to a "get state" request until the state moves past the version
+   * the client last saw, or until the poll timeout is up.
+   *
+   * @param g
+   *          the game
+   * @param json
+   *          the request, with the version the client last saw
+   * @param request
+   *          the HTTP request
+   * @param baseRequest
+   *          the Jetty request
+   * @return false if the state has already changed(or the request can not be
+   *         held), and should be answered right away
+   */
+  private static boolean park(Game g, JSONObject json,
+      HttpServletRequest request, Request baseRequest) {
+    StateWatch watch = g.getWatch();
+    long nSeen = json.getLong("version");
+    if (nSeen != watch.getVersion() || !request.isAsyncSupported())
+      return false;
+
+    AsyncContext ctx = request.startAsync();
+    ctx.setTimeout(0); // Timed out by the poll itself
+    Poll poll = new Poll(g, json, ctx);
+    if (watch.await(nSeen, poll))
+      poll.timeout = PhaseScheduler.schedule(poll, GameServer.nPollTimeout,
+          TimeUnit.MILLISECONDS);
+    else
+      poll.run();
+    baseRequest.setHandled(true);
+    return true;
+  }
+
+  /**
+   * A "get state" request waiting for the state to change
+   */
+  private static class Poll implements Runnable {
+    /**
+     * The game whose state is waited on
+     */
+    private Game               game;
+    /**
+     * The request
+     */
+    private JSONObject         json;
+    /**
+     * The parked HTTP request
+     */
+    private AsyncContext       ctx;
+    /**
+     * Whether or not the request has been answered
+     */
+    private AtomicBoolean      done;
+    /**
+     * Answers the request if the state does not change in time
+     */
+    private volatile Future<?> timeout;
+
+    private Poll(Game game, JSONObject json, AsyncContext ctx) {
+      this.game = game;
+      this.json = json;
+      this.ctx = ctx;
+      this.done = new AtomicBoolean(false);
+    }
+
+    /**
+     * Answer the request with the current state, only the first call counts
+     */
+    @Override
+    public void run() {
+      if (!this.done.compareAndSet(false, true))
+        return;
+      this.game.getWatch().cancel(this);
+      Future<?> timeout = this.timeout;
+      if (timeout != null)
+        timeout.cancel(false);
+      // Don't build the state on the thread that changed it, nor on the
+      // phase threads, every parked player is answered at once
+      ResponseWriter.execute(() -> {
+        try {
+          HttpServletResponse response =
+              (HttpServletResponse) this.ctx.getResponse();
+          ResponseWriter.send(this.ctx, GameServer.prepare(response,
+              GameServer.getState(this.game, this.json)));
+        }
+        catch (IOException | IllegalStateException e) { // Client went away
+          e.printStackTrace();
+          this.ctx.complete();
+        }
+      });
+    }
+  }
+
+  /**
+   * Read the JSON body of a request
+   *
+   * @param request
+   *          the request
+   * @return the body, or null if it is not JSON
+   * @throws IOException
+   *           if it could not be read
+   */
+  private static JSONObject read(HttpServletRequest request)
+      throws IOException {
+    StringBuilder sb = new StringBuilder();
+    char[] buffer = new char[1024];
+    int n;
+    while ((n = request.getReader().read(buffer)) > 0) {
+      sb.append(buffer, 0, n);
+    }
+
+    try {
+      return new JSONObject(sb.toString());
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Send a JSON response
+   *
+   * @param response
+   *          where to send it
+   * @param jsonOut
+   *          what to send
+   * @throws IOException
+   *           if it could not be sent
+   */
+  private static void write(HttpServletResponse response, JSONObject jsonOut)
+      throws IOException {
+    response.getOutputStream().write(GameServer.prepare(response, jsonOut));
+    response.flushBuffer();
+  }
+
+  /**
+   * Set the headers of a JSON response
+   *
+   * @param response
+   *          the response
+   * @param jsonOut
+   *          what will be sent
+   * @return the body to send
+   */
+  private static byte[] prepare(HttpServletResponse response,
+      JSONObject jsonOut) {
+    byte[] body = jsonOut.toString().getBytes(StandardCharsets.UTF_8);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    response.setContentLength(body.length);
+    response.setStatus(HttpServletResponse.SC_OK);
+    return body;
+  }
+
+  /**
+   * Get how long "get state" polls are held for
+   *
+   * @return the poll timeout(in milliseconds)
+   */
+  public static int getPollTimeout() {
+    return GameServer.nPollTimeout;
+  }
+
+  /**
+   * Set how long "get state" polls are held for when the state does not change
+   *
+   * @param nPollTimeout
+   *          the poll timeout(in milliseconds)
+   */
+  public static void setPollTimeout(int nPollTimeout) {
+    GameServer.nPollTimeout = nPollTimeout;
+  }
+
+  /**
+   * Get how many rooms can be hosted at once
+   *
+   * @return the most rooms, not counting the local game
+   */
+  public static int getMaxRooms() {
+    return GameServer.nMaxRooms;
+  }
+
+  /**
+   * Set how many rooms can be hosted at once, rooms already hosted are kept
+   * when it is lowered
+   *
+   * @param nMaxRooms
+   *          the most rooms, not counting the local game
+   */
+  public static void setMaxRooms(int nMaxRooms) {
+    GameServer.nMaxRooms = nMaxRooms;
+  }
+
+  /**
+   * Class that streams a game's display to spectators using Server-Sent Events
+   * (GET /events?room=code&amp;id=spectator id). Votes are sent with a normal
+   * "vote" post to /data.json.
+   *
+   */
+  class EventHandler extends AbstractHandler {
+    @Override
+    public void handle(String target, Request baseRequest,
+        HttpServletRequest request, HttpServletResponse response)
+        throws IOException, ServletException {
+      if (!target.equalsIgnoreCase("/events"))
+        return;
+
+      Game g = GameServer.this.getRoom(request.getParameter("room"));
+      if (g == null || !request.isAsyncSupported())
+        return;
+      Spectator s = null;
+      long nLast = -1;
+      try {
+        // A spectator from a game that is over only watches
+        if (request.getParameter("id") != null
+            && (request.getParameter("gen") == null
+                || g.getIds().isCurrent(
+                    Integer.valueOf(request.getParameter("gen")))))
+          s = g.getSpectatorById(Integer.valueOf(request.getParameter("id")));
+        if (request.getHeader("Last-Event-ID") != null)
+          nLast = Long.valueOf(request.getHeader("Last-Event-ID"));
+      }
+      catch (NumberFormatException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        baseRequest.setHandled(true);
+        return;
+      }
+
+      response.setContentType("text/event-stream");
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Cache-Control", "no-cache");
+      response.setStatus(HttpServletResponse.SC_OK);
+      AsyncContext ctx = request.startAsync();
+      ctx.setTimeout(0); // Closed by the keep-alive once the viewer is gone
+      EventStream stream = new EventStream(ctx, s);
+      g.addStream(stream);
+
+      // Info frames hold the whole display, so catching up only needs the
+      // newest one
+      long nVersion = g.getWatch().getVersion();
+      Round round = g.getRound();
+      if (round != null && nLast != nVersion) {
+        stream.send(round.getDisplay().getFrame(), nVersion);
+        Question question = round.getQuestion();
+        if (s != null && s.canVote(question))
+          stream.send(question.getBallot(null, 1, round.getTime()), nVersion);
+      }
+      baseRequest.setHandled(true);
+    }
+  }
+
+  /**
+   * Class that creates, starts and closes rooms (POST /room). Creating a room
+   * ({"action":"create"}, optionally with "min_players", "max_players",
+   * "answers" and "wait_absent") gives back its code and key, or 503 if there
+   * are already {@link GameServer#getMaxRooms()} rooms. Starting
+   * ({"action":"start"}) and closing ({"action":"destroy"}) a room need both.
+   * Games in rooms are played without a window, everything is shown to the
+   * players and spectators.
+   *
+   */
+  class RoomHandler extends AbstractHandler {
+    @Override
+    public void handle(String target, Request baseRequest,
+        HttpServletRequest request, HttpServletResponse response)
+        throws IOException, ServletException {
+      if (!target.equalsIgnoreCase("/room"))
+        return;
+
+      JSONObject json = GameServer.read(request);
+      if (json == null) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        baseRequest.setHandled(true);
+        return;
+      }
+
+      JSONObject jsonOut = new JSONObject();
+      String action = json.optString("action").toLowerCase();
+      if (action.equals("create")) {
+        Game room = GameServer.newRoom(json);
+        if (room == null) {
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+          baseRequest.setHandled(true);
+          return;
+        }
+        String code = GameServer.this.createRoom(room);
+        if (code == null) { // Too many rooms
+          response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+          baseRequest.setHandled(true);
+          return;
+        }
+        jsonOut.put("room", code);
+        jsonOut.put("key", GameServer.this.getRoomKey(code));
+        GameServer.write(response, jsonOut);
+        baseRequest.setHandled(true);
+        return;
+      }
+
+      String code = json.optString("room");
+      Game room = code.isEmpty() ? null : GameServer.this.getRoom(code);
+      String key = GameServer.this.getRoomKey(code);
+      if (room == null || key == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        baseRequest.setHandled(true);
+        return;
+      }
+      if (!key.equals(json.optString("key"))) {
+        response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        baseRequest.setHandled(true);
+        return;
+      }
+
+      switch (action) {
+        case "start":
+          Supplier<QuestionPool> questions = GameServer.this.questions;
+          if (questions == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            baseRequest.setHandled(true);
+            return;
           }
+          // 0 started, 1 already started, 2 too few players, 3 too few
+          // questions, see Game.start
+          int nStarted = room.start(questions.get(), null, null);
+          jsonOut.put("started", nStarted == 0);
+          jsonOut.put("error", nStarted);
+          break;
+        case "destroy":
+          GameServer.this.removeRoom(code);
+          jsonOut.put("destroyed", true);
           break;
         default:
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+          baseRequest.setHandled(true);
           return;
       }
+      GameServer.write(response, jsonOut);
+      baseRequest.setHandled(true);
+    }
+  }
+
+  /**
+   * Make the game for a new room, with the settings asked for
+   *
+   * @param json
+   *          the "create" request
+   * @return the game, or null if the settings do not make sense
+   */
+  private static Game newRoom(JSONObject json) {
+    Game room = new Game();
+    int nMin = json.optInt("min_players", room.getMinPlayers());
+    int nMax = json.optInt("max_players", room.getMaxPlayers());
+    int nAnswers = json.optInt("answers", room.getNumAnswers());
+    // Every player needs someone else's answers to vote on
+    if (nMin < 3 || nMax < nMin || nAnswers < 2 || nAnswers >= nMin)
+      return null;
+    room.setMinPlayers(nMin);
+    room.setMaxPlayers(nMax);
+    room.setNumAnswers(nAnswers);
+    room.setWaitAbsent(json.optBoolean("wait_absent", room.isWaitAbsent()));
+    return room;
+  }
+
+  /**
+   * Class that reports the outbound queue of every connected client, used to
+   * find slow clients.
+   *
+   */
+  class StatusHandler extends AbstractHandler {
+    @Override
+    public void handle(String target, Request baseRequest,
+        HttpServletRequest request, HttpServletResponse response)
+        throws IOException, ServletException {
+      if (!target.equalsIgnoreCase("/status.json"))
+        return;
+
+      JSONArray jsonRooms = new JSONArray();
+      if (GameServer.this.game != null)
+        jsonRooms.put(GameServer.status("", GameServer.this.game));
+      for (Map.Entry<String, Game> room : GameServer.this.rooms.entrySet())
+        jsonRooms.put(GameServer.status(room.getKey(), room.getValue()));
+      JSONObject jsonOut = new JSONObject().put("rooms", jsonRooms)
+          .put("compression", Compression.getJson());
 
       response.setContentType("application/json");
       response.setHeader("Cache-Control", "no-cache");
-      response.setContentLength(jsonOut.toString().length());
       response.setStatus(HttpServletResponse.SC_OK);
       response.getWriter().println(jsonOut.toString());
       response.flushBuffer();
@@ -322,10 +972,63 @@ public class GameServer {
     }
   }
 
+  /**
+   * Get the status of everyone connected to a game
+   *
+   * @param code
+   *          the room code of the game
+   * @param game
+   *          the game
+   * @return the status of the game's clients
+   */
+  private static JSONObject status(String code, Game game) {
+    JSONArray jsonClients = new JSONArray();
+    synchronized (game) {
+      for (Player p : game.getPlayers())
+        jsonClients.put(GameServer.status(p));
+    }
+    // Too many spectators to list one by one, only report the totals
+    long[] totals = new long[3]; // spectators, queued, dropped
+    game.getSpectators().forEach(s -> {
+      totals[0]++;
+      if (s.getSocket() != null) {
+        totals[1] += s.getSocket().getQueueDepth();
+        totals[2] += s.getSocket().getDropped();
+      }
+    });
+    JSONObject jsonSpectators = new JSONObject().put("count", totals[0])
+        .put("queue", totals[1]).put("dropped", totals[2]);
+    return new JSONObject().put("room", code).put("clients", jsonClients)
+        .put("spectators", jsonSpectators)
+        .put("streams", game.getStreams().size());
+  }
+
+  /**
+   * Get the status of a player's connection
+   *
+   * @param p
+   *          the player
+   * @return the player's id, name and outbound queue depth
+   */
+  private static JSONObject status(Player p) {
+    JSONObject jsonClient = new JSONObject();
+    jsonClient.put("id", p.getID());
+    jsonClient.put("name", p.getName());
+    if (p.getSocket() != null) {
+      jsonClient.put("queue", p.getSocket().getQueueDepth());
+      jsonClient.put("dropped", p.getSocket().getDropped());
+    }
+    return jsonClient;
+  }
+
   class MySocketHandler extends WebSocketHandler {
 
     @Override
+    // Jetty 9.4 has no other way to swap in an extension's implementation
+    @SuppressWarnings("deprecation")
     public void configure(WebSocketServletFactory factory) {
+      factory.getExtensionFactory().register(Compression.EXTENSION,
+          ThresholdDeflateExtension.class);
       factory.setCreator(new QinqWebSocketCreator());
     }
 
@@ -333,7 +1036,25 @@ public class GameServer {
       @Override
       public Object createWebSocket(ServletUpgradeRequest request,
           ServletUpgradeResponse response) {
-        return new QinqWebSocketAddapter(GameServer.this.game);
+        List<String> room = request.getParameterMap().get("room");
+        Game g = GameServer.this
+            .getRoom(room == null || room.isEmpty() ? null : room.get(0));
+        if (g == null)
+          return null;
+        // Prefer the binary encoding, otherwise fall back to JSON
+        List<String> protocols = request.getSubProtocols();
+        if (protocols.contains(WireCodec.PROTOCOL_BINARY))
+          response.setAcceptedSubProtocol(WireCodec.PROTOCOL_BINARY);
+        else if (protocols.contains(WireCodec.PROTOCOL_JSON))
+          response.setAcceptedSubProtocol(WireCodec.PROTOCOL_JSON);
+        // Only offer compression when it is turned on
+        List<ExtensionConfig> extensions = new ArrayList<ExtensionConfig>();
+        for (ExtensionConfig ext : request.getExtensions())
+          if (Compression.isEnabled()
+              || !ext.getName().equals(Compression.EXTENSION))
+            extensions.add(ext);
+        response.setExtensions(extensions);
+        return new QinqWebSocketAddapter(g);
       }
     }
 
@@ -18,14 +18,13 @@
 
 package qinq.application;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import javafx.application.Platform;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ScrollPane;
 import qinq.resource.Game;
+import qinq.resource.GameJournal;
 import qinq.resource.Player;
+import qinq.resource.QuestionPool;
 
 public class GameUI extends ScrollPane {
   private GameServer  server;
@@ -44,6 +43,10 @@ public class GameUI extends ScrollPane {
     this.goToSetup();
     this.setFitToWidth(true);
     this.setFitToHeight(true);
+
+    GameJournal.Recovery recovery = GameJournal.load(game.getRoomCode());
+    if (recovery != null)
+      Platform.runLater(() -> this.resumeGame(recovery));
   }
 
   public void goToSetup() {
@@ -73,9 +76,12 @@ public class GameUI extends ScrollPane {
       @Override
       public void run() {
         for (Player p : GameUI.this.game.getPlayers())
-          p.getSocket().close();
-        for (Player p : GameUI.this.game.getSpectators())
-          p.getSocket().close();
+          if (p.getSocket() != null)
+            p.getSocket().close();
+        GameUI.this.game.getSpectators().forEach(s -> {
+          if (s.getSocket() != null)
+            s.getSocket().close();
+        });
       }
     }).start();
     this.server.stop();
@@ -88,11 +94,7 @@ public class GameUI extends ScrollPane {
   }
 
   public void startGame() {
-
-    // This stuff probably should not be here, or maybe it should?
-    List<String> questions = new ArrayList<String>();
-    for (String question : this.options.getQuestions())
-      questions.add(question);
+    QuestionPool questions = this.options.getQuestionPool();
 
     GamePane display = new GamePane(game);
     Platform.runLater(new Runnable() {
@@ -118,6 +120,18 @@ public class GameUI extends ScrollPane {
     }
   }
 
+  /**
+   * Carry on the game that was being played when the program last stopped
+   */
+  public void resumeGame(GameJournal.Recovery recovery) {
+    GamePane display = new GamePane(this.game);
+    if (this.game.resume(recovery, this.options.getQuestionPool(), display,
+        this))
+      this.setContent(display);
+    else
+      GameJournal.discard(this.game.getRoomCode());
+  }
+
   public void setRemoteUrl(String url) {
     this.setup.resetAddresses();
     this.setup.addAddress(url);
@@ -25,9 +25,13 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import javafx.geometry.Orientation;
@@ -46,21 +50,42 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.FlowPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import qinq.resource.Broadcaster;
+import qinq.resource.Compression;
+import qinq.resource.EventLog;
 import qinq.resource.Game;
-import qinq.resource.Question;
-import qinq.resource.Round;
+import qinq.resource.GameJournal;
+import qinq.resource.GameLog;
+import qinq.resource.QinqWebSocketAddapter;
+import qinq.resource.QuestionBank;
+import qinq.resource.QuestionPool;
+import qinq.resource.QuestionStats;
 
 public class OptionsPane extends BorderPane {
-  private TextArea                   questions;
-  private Map<CheckBox, Set<String>> categories;
-  private FlowPane                   categoryPane;
-  private VBox                       options;
-  private Button                     remote_button;
-  private TextField                  remoteurl_tb;
-  private QinqConnector              remote;
-  private GameServer                 server;
-  private Game                       game;
-  private GameUI                     root;
+  private TextArea                             questions;
+  private Map<CheckBox, Set<String>>           categories;
+  private Map<CheckBox, QuestionBank.Category> bankCategories;
+  private FlowPane                             categoryPane;
+  private VBox                                 options;
+  private Button                               remote_button;
+  private TextField                            remoteurl_tb;
+  private QinqConnector                        remote;
+  private GameServer                           server;
+  private Game                                 game;
+  private GameUI                               root;
+  private QuestionPool                         pool;
+  /**
+   * The selection the pool was built from
+   */
+  private Selection                            poolSelection;
+  /**
+   * The questions selected, replaced on the FX thread every time the selection
+   * changes so that games in rooms can build their pool from other threads
+   */
+  private volatile Selection                   selection;
+  private Map<String, Set<String>>             builtIn;
+  private Map<String, List<CheckBox>>          bankBoxes;
+  private CategoryWatcher                      watcher;
 
   public OptionsPane(GameUI root, Game game, GameServer server) {
     this.server = server;
@@ -96,48 +121,120 @@ public class OptionsPane extends BorderPane {
         new Spinner<Integer>(3, Integer.MAX_VALUE, 10);
     Spinner<Integer> min_players = new Spinner<Integer>(3, 10, 3);
     Spinner<Integer> wait_time = new Spinner<Integer>(400, 4000, 1800);
-
-    Question.setNumAnswers(2);
+    Spinner<Integer> broadcast_window = new Spinner<Integer>(0, 1000, 100);
+    Spinner<Integer> compress_threshold =
+        new Spinner<Integer>(0, 65536, 256, 64);
+    Spinner<Integer> heartbeat = new Spinner<Integer>(0, 60000, 10000, 1000);
+    Spinner<Integer> idle_timeout =
+        new Spinner<Integer>(0, 300000, 30000, 1000);
+
+    game.setNumAnswers(2);
     num_answers.valueProperty().addListener(
-        (obs, oldValue, newValue) -> Question.setNumAnswers(newValue));
+        (obs, oldValue, newValue) -> game.setNumAnswers(newValue));
 
-    Game.setMaxPlayers(10);
+    game.setMaxPlayers(10);
     max_players.valueProperty().addListener((obs, oldValue, newValue) -> {
-      Game.setMaxPlayers(newValue);
+      game.setMaxPlayers(newValue);
       ((IntegerSpinnerValueFactory) num_answers.getValueFactory())
           .setMax(newValue - 1);
       ((IntegerSpinnerValueFactory) min_players.getValueFactory())
           .setMax(newValue);
     });
-    Game.setMinPlayers(3);
+    game.setMinPlayers(3);
     min_players.valueProperty().addListener((obs, oldValue, newValue) -> {
-      Game.setMinPlayers(newValue);
+      game.setMinPlayers(newValue);
       ((IntegerSpinnerValueFactory) num_answers.getValueFactory())
           .setMin(newValue - 1);
       ((IntegerSpinnerValueFactory) max_players.getValueFactory())
           .setMin(newValue);
     });
 
-    Round.setExtraWaitTime(1800);
+    game.setExtraWaitTime(1800);
     wait_time.valueProperty().addListener((obs, oldValue, newValue) -> {
-      Round.setExtraWaitTime(newValue);
+      game.setExtraWaitTime(newValue);
+    });
+
+    Broadcaster.setWindow(100);
+    broadcast_window.valueProperty().addListener((obs, oldValue, newValue) -> {
+      Broadcaster.setWindow(newValue);
+    });
+
+    Compression.setThreshold(256);
+    compress_threshold.valueProperty()
+        .addListener((obs, oldValue, newValue) -> {
+          Compression.setThreshold(newValue);
+        });
+
+    QinqWebSocketAddapter.setHeartbeat(10000);
+    heartbeat.valueProperty().addListener((obs, oldValue, newValue) -> {
+      QinqWebSocketAddapter.setHeartbeat(newValue);
+    });
+
+    QinqWebSocketAddapter.setIdleTimeout(30000);
+    idle_timeout.valueProperty().addListener((obs, oldValue, newValue) -> {
+      QinqWebSocketAddapter.setIdleTimeout(newValue);
     });
 
     this.categories = new HashMap<CheckBox, Set<String>>();
+    this.bankCategories = new HashMap<CheckBox, QuestionBank.Category>();
     this.questions = new TextArea();
     this.categoryPane = new FlowPane();
     this.options = new VBox();
     this.options.setId("options");
     this.refresh();
+    server.setQuestionPool(this::getQuestionPool); // For games in rooms
 
     CheckBox logs_cb = new CheckBox("Save Logs");
     TextField logs_tb = new TextField(Game.getLogsDir());
+    CheckBox compress_cb = new CheckBox("Compress Messages");
+    CheckBox gzip_cb = new CheckBox("Gzip");
+    CheckBox events_cb = new CheckBox("Event Log");
+    CheckBox journal_cb = new CheckBox("Journal");
+    CheckBox weighted_cb = new CheckBox("Weighted Questions");
+    CheckBox absent_cb = new CheckBox("Wait for Disconnected Players");
 
     logs_cb.setSelected(true);
     logs_cb.setOnAction((event) -> {
       Game.setStoreLogs(logs_cb.isSelected());
     });
 
+    gzip_cb.setSelected(GameLog.isGzip());
+    gzip_cb.setOnAction((event) -> {
+      GameLog.setGzip(gzip_cb.isSelected());
+    });
+
+    events_cb.setSelected(EventLog.isEnabled());
+    events_cb.setOnAction((event) -> {
+      EventLog.setEnabled(events_cb.isSelected());
+    });
+
+    journal_cb.setSelected(GameJournal.isEnabled());
+    journal_cb.setTooltip(new Tooltip("Resume unfinished games on restart"));
+    journal_cb.setOnAction((event) -> {
+      GameJournal.setEnabled(journal_cb.isSelected());
+    });
+
+    weighted_cb.setSelected(QuestionStats.isEnabled());
+    weighted_cb.setTooltip(
+        new Tooltip("Draw questions that often go unanswered less often"));
+    weighted_cb.setOnAction((event) -> {
+      QuestionStats.setEnabled(weighted_cb.isSelected());
+    });
+
+    absent_cb.setSelected(game.isWaitAbsent());
+    absent_cb.setTooltip(
+        new Tooltip("Run phases to full time when a player has lost their "
+            + "connection"));
+    absent_cb.setOnAction((event) -> {
+      game.setWaitAbsent(absent_cb.isSelected());
+    });
+
+    compress_cb.setSelected(true);
+    Compression.setEnabled(true);
+    compress_cb.setOnAction((event) -> {
+      Compression.setEnabled(compress_cb.isSelected());
+    });
+
     logs_tb.textProperty().addListener((observable, oldValue, newValue) -> {
       Game.setLogsDir(newValue);
     });
@@ -149,6 +246,9 @@ public class OptionsPane extends BorderPane {
     this.remote = null;
 
     this.questions.setTooltip(new Tooltip("One Question per Line"));
+    this.questions.textProperty().addListener((obs, oldValue, newValue) -> {
+      this.select();
+    });
     this.categoryPane.setId("categories");
 
     this.options.getChildren().addAll(new Separator(Orientation.HORIZONTAL),
@@ -159,10 +259,15 @@ public class OptionsPane extends BorderPane {
 
     this.options.getChildren().addAll(new Separator(Orientation.HORIZONTAL),
         new HBox(10, new Label("Number of Answers per question:"), num_answers),
+        new HBox(20, weighted_cb),
         new HBox(20, new Label("Min Players:"), min_players),
         new HBox(20, new Label("Max Players:"), max_players),
-        new HBox(20, new Label("Extra Wait Time:"), wait_time),
-        new HBox(20, logs_cb, logs_tb),
+        new HBox(20, new Label("Extra Wait Time:"), wait_time, absent_cb),
+        new HBox(20, new Label("Broadcast Window:"), broadcast_window),
+        new HBox(20, compress_cb, new Label("Threshold:"), compress_threshold),
+        new HBox(20, new Label("Heartbeat:"), heartbeat,
+            new Label("Idle Timeout:"), idle_timeout),
+        new HBox(20, logs_cb, logs_tb, gzip_cb, events_cb, journal_cb),
         new HBox(20, new Label("Remote Server Connector:"), this.remoteurl_tb,
             this.remote_button));
 
@@ -170,6 +275,9 @@ public class OptionsPane extends BorderPane {
     this.setCenter(this.options);
     this.setBottom(bottom);
     this.refresh();
+
+    this.watcher = new CategoryWatcher(Paths.get("questions"), this);
+    this.watcher.start();
   }
 
   public void startRemoteConn() {
@@ -212,33 +320,104 @@ public class OptionsPane extends BorderPane {
     return lstrQuestions;
   }
 
+  /**
+   * Get the pool of selected questions, only rebuilt when the selection or the
+   * custom questions change. Reads nothing but the last selection published on
+   * the FX thread, so it can be called on any thread.
+   *
+   * @return the pool of questions to play with
+   */
+  public synchronized QuestionPool getQuestionPool() {
+    Selection selection = this.selection;
+    if (this.pool == null || this.poolSelection != selection) {
+      Set<String> lstrQuestions = new HashSet<String>();
+      for (String question : selection.strCustom.split("\\s*\\n\\s*"))
+        if (!question.isEmpty())
+          lstrQuestions.add(question);
+      for (Set<String> category : selection.categories)
+        lstrQuestions.addAll(category);
+      this.pool = new QuestionPool(lstrQuestions, selection.banked);
+      this.poolSelection = selection;
+    }
+    return this.pool;
+  }
+
+  /**
+   * Publish the questions currently selected, the next game builds a new pool
+   * from them and running games keep theirs. Must be called on the FX thread.
+   */
+  private void select() {
+    List<Set<String>> categories = new ArrayList<Set<String>>();
+    for (Entry<CheckBox, Set<String>> category : this.categories.entrySet())
+      if (category.getKey().isSelected())
+        categories.add(category.getValue());
+    List<QuestionBank.Category> banked = new ArrayList<QuestionBank.Category>();
+    for (Entry<CheckBox, QuestionBank.Category> category : this.bankCategories
+        .entrySet())
+      if (category.getKey().isSelected())
+        banked.add(category.getValue());
+    this.selection =
+        new Selection(this.questions.getText(), categories, banked);
+  }
+
+  /**
+   * Publish the selection again every time a box is checked or unchecked
+   *
+   * @param cb
+   *          a new category box
+   */
+  private void watch(CheckBox cb) {
+    cb.selectedProperty().addListener((obs, oldValue, newValue) -> {
+      this.select();
+    });
+  }
+
+  /**
+   * Read the categories again and show them, keeping the boxes that were
+   * unchecked unchecked. Must be called on the FX thread, use {@link #load()}
+   * and {@link #show(Loaded)} to read the files on another thread.
+   */
   public void refresh() {
+    this.show(OptionsPane.load());
+  }
+
+  /**
+   * Read every built in and custom category and every question bank. Does
+   * not touch the pane, so it can be called on any thread.
+   *
+   * @return the categories read
+   */
+  static Loaded load() {
     // Create a temporary container for categories: map check-box -> questions
     Map<CheckBox, Set<String>> tmp_categories =
         new HashMap<CheckBox, Set<String>>();
 
     // Add categories from jar
-    InputStream in = this.getClass()
+    InputStream in = OptionsPane.class
         .getResourceAsStream("/qinq/resource/questions/categories.txt");
     BufferedReader br = new BufferedReader(new InputStreamReader(in));
     String category;
     try {
       // for each category specified in the categories.txt file
       while ((category = br.readLine()) != null) {
-        if (this.getClass().getResourceAsStream(
+        if (OptionsPane.class.getResourceAsStream(
             "/qinq/resource/questions/" + category) != null) {// check if it
                                                               // exists
           populateCategories( // Then associate questions in that file with
               new BufferedReader( // a check box
-                  new InputStreamReader(this.getClass().getResourceAsStream(
+                  new InputStreamReader(OptionsPane.class.getResourceAsStream(
                       "/qinq/resource/questions/" + category))),
-              tmp_categories, category.replaceAll("\\.txt$", ""));
+              tmp_categories, category);
         }
       }
     }
     catch (IOException e) {
       e.printStackTrace();
     }
+    Map<String, Set<String>> tmp_builtIn = new HashMap<String, Set<String>>();
+    for (CheckBox cb : tmp_categories.keySet())
+      tmp_builtIn.put(cb.getText().toLowerCase(),
+          new HashSet<String>(tmp_categories.get(cb)));
 
     // Add custom categories
     File questions_dir = new File("questions");
@@ -249,7 +428,6 @@ public class OptionsPane extends BorderPane {
         try {
           populateCategories(new BufferedReader(new FileReader(category_file)),
               tmp_categories, category_file.getName());
-          ;
         }
         catch (FileNotFoundException e) {
           e.printStackTrace();
@@ -257,10 +435,54 @@ public class OptionsPane extends BorderPane {
       }
     }
 
+    // Add compiled question banks, their questions are read when drawn
+    Map<CheckBox, QuestionBank.Category> tmp_banks =
+        new HashMap<CheckBox, QuestionBank.Category>();
+    Map<String, List<CheckBox>> tmp_bankBoxes =
+        new HashMap<String, List<CheckBox>>();
+    if (questions_dir.exists() && questions_dir.isDirectory()) {
+      for (File bank_file : questions_dir.listFiles((dir, name) -> {
+        return name.toLowerCase().endsWith(QuestionBank.EXTENSION);
+      })) {
+        try {
+          List<CheckBox> boxes = new ArrayList<CheckBox>();
+          for (QuestionBank.Category bank_category : new QuestionBank(bank_file)
+              .getCategories()) {
+            CheckBox cb = new CheckBox(bank_category.getName());
+            cb.getStyleClass().add("category-box");
+            tmp_banks.put(cb, bank_category);
+            boxes.add(cb);
+          }
+          tmp_bankBoxes.put(bank_file.getName(), boxes);
+        }
+        catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+
+    return new Loaded(tmp_categories, tmp_builtIn, tmp_banks, tmp_bankBoxes);
+  }
+
+  /**
+   * Show categories read by {@link #load()} in place of the current ones. Must
+   * be called on the FX thread.
+   *
+   * @param loaded
+   *          the categories read
+   */
+  void show(Loaded loaded) {
+    Map<CheckBox, Set<String>> tmp_categories = loaded.categories;
+    Map<CheckBox, QuestionBank.Category> tmp_banks = loaded.banks;
+
     // Uncheck previously uncheced categories
-    for (CheckBox cbNew : tmp_categories.keySet()) {
+    List<CheckBox> oldBoxes = new ArrayList<CheckBox>(this.categories.keySet());
+    oldBoxes.addAll(this.bankCategories.keySet());
+    List<CheckBox> newBoxes = new ArrayList<CheckBox>(tmp_categories.keySet());
+    newBoxes.addAll(tmp_banks.keySet());
+    for (CheckBox cbNew : newBoxes) {
       cbNew.setSelected(true);
-      for (CheckBox cbOld : this.categories.keySet()) {
+      for (CheckBox cbOld : oldBoxes) {
         if (cbNew.getText().equalsIgnoreCase(cbOld.getText())) {
           cbNew.setSelected(cbOld.isSelected());
           break;
@@ -270,12 +492,92 @@ public class OptionsPane extends BorderPane {
 
     // Update
     this.categories = tmp_categories;
+    this.bankCategories = tmp_banks;
+    this.builtIn = loaded.builtIn;
+    this.bankBoxes = loaded.bankBoxes;
     this.categoryPane.getChildren().clear();
-    for (CheckBox cb : this.categories.keySet()) {
+    for (CheckBox cb : newBoxes) {
       if (cb.getText().equalsIgnoreCase("debug"))
         cb.setSelected(false);
+      this.watch(cb);
+      this.categoryPane.getChildren().add(cb);
+    }
+    this.select();
+  }
+
+  /**
+   * Replace the questions of one custom category, merged with the built in
+   * category of the same name(if any). Must be called on the FX thread.
+   *
+   * @param strCategory
+   *          name of the category
+   * @param questions
+   *          the questions in the category's file, null if it was deleted
+   */
+  public void updateCategory(String strCategory, Set<String> questions) {
+    Set<String> merged = new HashSet<String>();
+    Set<String> builtIn = this.builtIn.get(strCategory.toLowerCase());
+    if (builtIn != null)
+      merged.addAll(builtIn);
+    if (questions != null)
+      merged.addAll(questions);
+
+    CheckBox existing = null;
+    for (CheckBox cb : this.categories.keySet())
+      if (cb.getText().equalsIgnoreCase(strCategory))
+        existing = cb;
+    if (existing != null && merged.isEmpty()) {
+      this.categories.remove(existing);
+      this.categoryPane.getChildren().remove(existing);
+    }
+    else if (existing != null) {
+      this.categories.put(existing, merged);
+    }
+    else if (!merged.isEmpty()) {
+      CheckBox cb = new CheckBox(strCategory);
+      cb.getStyleClass().add("category-box");
+      cb.setSelected(!strCategory.equalsIgnoreCase("debug"));
+      this.watch(cb);
+      this.categories.put(cb, merged);
       this.categoryPane.getChildren().add(cb);
     }
+    this.select();
+  }
+
+  /**
+   * Replace the categories of one question bank. Must be called on the FX
+   * thread.
+   *
+   * @param strFile
+   *          name of the bank's file
+   * @param bank
+   *          the bank, null if it was deleted
+   */
+  public void updateBank(String strFile, QuestionBank bank) {
+    Map<String, Boolean> selected = new HashMap<String, Boolean>();
+    List<CheckBox> old = this.bankBoxes.remove(strFile);
+    if (old != null) {
+      for (CheckBox cb : old) {
+        selected.put(cb.getText().toLowerCase(), cb.isSelected());
+        this.bankCategories.remove(cb);
+      }
+      this.categoryPane.getChildren().removeAll(old);
+    }
+    if (bank != null) {
+      List<CheckBox> boxes = new ArrayList<CheckBox>();
+      for (QuestionBank.Category category : bank.getCategories()) {
+        CheckBox cb = new CheckBox(category.getName());
+        cb.getStyleClass().add("category-box");
+        Boolean wasSelected = selected.get(cb.getText().toLowerCase());
+        cb.setSelected(wasSelected == null || wasSelected);
+        this.watch(cb);
+        this.bankCategories.put(cb, category);
+        boxes.add(cb);
+      }
+      this.bankBoxes.put(strFile, boxes);
+      this.categoryPane.getChildren().addAll(boxes);
+    }
+    this.select();
   }
 
   private static void populateCategories(BufferedReader br,
@@ -283,8 +585,7 @@ public class OptionsPane extends BorderPane {
     // Create a collections for storing questions
     Set<String> questions = new HashSet<String>();
 
-    if (category.matches("(?i)\\.txt$"))
-      category = category.replaceAll("(?i)\\.txt$", "");
+    category = OptionsPane.categoryName(category);
 
     try {
       String question; // String temporarily stores questions
@@ -313,4 +614,54 @@ public class OptionsPane extends BorderPane {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Get the name of the category in a file, the same for the files read at
+   * startup and the ones the watcher reads
+   *
+   * @param strFile
+   *          name of the file
+   * @return the file name without its .txt extension
+   */
+  static String categoryName(String strFile) {
+    return strFile.replaceAll("(?i)\\.txt$", "");
+  }
+
+  /**
+   * Categories read by {@link OptionsPane#load()}, their boxes are not shown
+   * until they are passed to {@link OptionsPane#show(Loaded)}
+   */
+  static class Loaded {
+    private Map<CheckBox, Set<String>>           categories;
+    private Map<String, Set<String>>             builtIn;
+    private Map<CheckBox, QuestionBank.Category> banks;
+    private Map<String, List<CheckBox>>          bankBoxes;
+
+    private Loaded(Map<CheckBox, Set<String>> categories,
+        Map<String, Set<String>> builtIn,
+        Map<CheckBox, QuestionBank.Category> banks,
+        Map<String, List<CheckBox>> bankBoxes) {
+      this.categories = categories;
+      this.builtIn = builtIn;
+      this.banks = banks;
+      this.bankBoxes = bankBoxes;
+    }
+  }
+
+  /**
+   * The questions selected when it was published, read by other threads
+   * instead of the boxes
+   */
+  private static class Selection {
+    private String                      strCustom;
+    private List<Set<String>>           categories;
+    private List<QuestionBank.Category> banked;
+
+    private Selection(String strCustom, List<Set<String>> categories,
+        List<QuestionBank.Category> banked) {
+      this.strCustom = strCustom;
+      this.categories = categories;
+      this.banked = banked;
+    }
+  }
 }
@@ -20,6 +20,7 @@ import org.json.JSONObject;
 import qinq.resource.Game;
 import qinq.resource.Player;
 import qinq.resource.QinqWebSocketAddapter;
+import qinq.resource.Spectator;
 
 public class QinqConnector {
   public static final String REMOTE_SERVER_DEFAULT = "az.heliohost.org/qinq";
@@ -161,9 +162,14 @@ public class QinqConnector {
       if (json.has("uid")) {
         int id = json.getInt("uid");
         Player p;
+        Spectator s;
         if ((p = QinqConnector.this.game.getPlayerById(id)) != null) {
           p.getSocket().onMessage(json);
         }
+        else if ((s = QinqConnector.this.game.getSpectatorById(id)) != null
+            && s.getSocket() != null) {
+          s.getSocket().onMessage(json);
+        }
       }
       else if (json.has("action")
           && json.getString("action").equalsIgnoreCase("create user")) {
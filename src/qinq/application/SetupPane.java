@@ -18,8 +18,6 @@
 
 package qinq.application;
 
-import org.json.JSONObject;
-
 import javafx.application.Platform;
 import javafx.scene.Node;
 import javafx.scene.control.Alert;
@@ -33,6 +31,7 @@ import javafx.scene.layout.FlowPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
+import qinq.resource.Frame;
 import qinq.resource.Game;
 import qinq.resource.Player;
 
@@ -114,9 +113,10 @@ public class SetupPane extends BorderPane {
           alert.setHeaderText("Player will be Kicked");
           alert.setContentText("Are you sure you wish to kick this player?");
           if (alert.showAndWait().get() == ButtonType.OK) { // ... user chose OK
-            p.getSocket().sendText(new JSONObject().put("action", "kick"));
+            if (p.getSocket() != null)
+              p.getSocket().send(Frame.KICK);
             SetupPane.this.players.getChildren().remove(player);
-            SetupPane.this.game.getPlayers().remove(p);
+            SetupPane.this.game.removePlayer(p);
           }
         });
 
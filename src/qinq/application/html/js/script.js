@@ -21,239 +21,306 @@ var player_name = '';
 var timer       = 0;
 var state       = 'waiting';
 var timer_pid   = -1;
+var ws          = null;
+var events      = null;
+var closing     = false;
+var retry_delay = 1000;
+var token       = null; //session token, to come back after losing the socket
+var seq         = -1;   //number of messages counted in the session so far
+var gen         = 0;    //generation of the game the ids are from
 
 function createSocket(dataOnLoad) {
-  ws = new WebSocket("ws://" + location.host + '/websocket');
+  var room = getUrlVar('room');
+  closing = false;
+  //binary encoding needs TextEncoder/TextDecoder, otherwise stick to JSON
+  var protocols = window.TextDecoder && window.TextEncoder
+                ? ['qinq.bin', 'qinq.json'] : ['qinq.json'];
+  ws = new WebSocket("ws://" + location.host + '/websocket'
+                     + (room ? '?room=' + encodeURIComponent(room) : ''),
+                     protocols);
+  ws.binaryType = 'arraybuffer';
   
   ws.onopen = function() {
-    sendData(dataOnLoad)
+    retry_delay = 1000;
+    if(token) {
+      sendData({'action':'resume', 'token':token, 'seq':seq});
+    }
+    else {
+      sendData(dataOnLoad);
+    }
   };
   
   ws.onmessage = function (evt) {
-    console.log('GET: '+evt.data);
-    
     try {
-      json = JSON.parse(evt.data);
+      if(evt.data instanceof ArrayBuffer) {
+        json = decodeFrame(evt.data);
+      }
+      else {
+        json = JSON.parse(evt.data);
+      }
     }
     catch(err) {
       return;
     }
-    
-    if('time' in json) {
-      timer = +json['time']+1; //black magic
-      document.getElementById("timer").style.display = 'block';
-      document.getElementById("timer").innerHTML     = timer;
-      setTimer();
+    if(json['action'] == 'resumed' && json['resumed'] != 'true') {
+      //session is gone(e.g. the game ended), start over
+      token = null;
+      sessionStorage.removeItem('qinq-token');
+      if(dataOnLoad) {
+        sendData(dataOnLoad);
+      }
+      else {
+        closeConnection();
+      }
+      return;
+    }
+    if(json['action'] != 'creating' && json['action'] != 'resumed') {
+      seq++;
+    }
+    handleMessage(json);
+  };
+  
+  ws.onclose = function() {
+    if(closing) {
+      return;
     }
-    
-    switch(json['action']) {
-      case 'creating':
-        if(json['created'] == 'true') {
-          player_id   = json['id'];
-          player_name = json['name'];
-          var name_element = document.getElementById("name");
-          var welcome_element = document.getElementById("welcome");
-          var header_element = document.getElementById("header");
-          name_element.innerHTML               = esc(player_name);
-          welcome_element.style.display        = 'none';
-          header_element.style.backgroundColor = json['color'];
+    //lost the socket(e.g. changed network or the server restarted), come
+    //back with our token and get what we missed
+    setTimeout(function() { createSocket(dataOnLoad); }, retry_delay);
+    retry_delay = Math.min(retry_delay * 2, 10000);
+  };
+  
+  ws.onerror = function(err) {
+    ws.close();
+  };
+}
+
+function handleMessage(json) {
+  console.log('GET: '+JSON.stringify(json));
+  
+  if('time' in json) {
+    timer = +json['time']+1; //black magic
+    document.getElementById("timer").style.display = 'block';
+    document.getElementById("timer").innerHTML     = timer;
+    setTimer();
+  }
+  
+  switch(json['action']) {
+    case 'resumed':
+      json['created'] = json['resumed'];
+      //fall through
+    case 'creating':
+      if(json['created'] == 'true') {
+        if('token' in json) {
+          token = json['token'];
+          sessionStorage.setItem('qinq-token', token);
         }
-        else {
-          document.getElementById("welcome").style.display    = 'block';
-          document.getElementById("name-error").style.display = 'block';
+        if('seq' in json) {
+          seq = +json['seq'];
         }
-        break;
-      case 'answer':
-        document.getElementById("answer-question").innerHTML  =
-          esc(json['question']);
-        document.getElementById('answer-field').dataset.id    = json['aid'];
-        document.getElementById("question-box").style.display = 'block';
-        document.getElementById("vote-box").style.display     = 'none';
-        document.getElementById("welcome").style.display      = 'none';
-        document.getElementById("results-box").style.display  = 'none';
-        document.getElementById('answer-field').focus();
-        state = 'answering';
-        setTimer();
-        break;
-      case 'vote':
-        document.getElementById("timer").style.display        = 'block';
-        document.getElementById("vote-box").style.display     = 'block';
-        document.getElementById("question-box").style.display = 'none';
-        document.getElementById("welcome").style.display      = 'none';
-        document.getElementById("results-box").style.display  = 'none';
-        document.getElementById("answers").innerHTML          = '';
-        document.getElementById("vote-question").innerHTML    =
-                                                          esc(json['question']);
-        document.getElementById("votes-left-span").innerHTML  = json['votes'];
-        if(json['votes'] > 1)
-          document.getElementById("votes-left-div").style.display = 'block';
-        else
-          document.getElementById("votes-left-div").style.display = 'none';
-        var element = document.getElementById("answers");
-        if('answers' in json) {
-          json['answers'].forEach(function(answer) {
+        if('gen' in json) {
+          gen = +json['gen'];
+        }
+        player_id   = json['id'];
+        player_name = json['name'];
+        var name_element = document.getElementById("name");
+        var welcome_element = document.getElementById("welcome");
+        var header_element = document.getElementById("header");
+        name_element.innerHTML               = esc(player_name);
+        welcome_element.style.display        = 'none';
+        header_element.style.backgroundColor = json['color'];
+      }
+      else {
+        document.getElementById("welcome").style.display    = 'block';
+        document.getElementById("name-error").style.display = 'block';
+      }
+      break;
+    case 'answer':
+      document.getElementById("answer-question").innerHTML  =
+        esc(json['question']);
+      document.getElementById('answer-field').dataset.id    = json['aid'];
+      document.getElementById("question-box").style.display = 'block';
+      document.getElementById("vote-box").style.display     = 'none';
+      document.getElementById("welcome").style.display      = 'none';
+      document.getElementById("results-box").style.display  = 'none';
+      document.getElementById('answer-field').focus();
+      state = 'answering';
+      setTimer();
+      break;
+    case 'vote':
+      document.getElementById("timer").style.display        = 'block';
+      document.getElementById("vote-box").style.display     = 'block';
+      document.getElementById("question-box").style.display = 'none';
+      document.getElementById("welcome").style.display      = 'none';
+      document.getElementById("results-box").style.display  = 'none';
+      document.getElementById("answers").innerHTML          = '';
+      document.getElementById("vote-question").innerHTML    =
+                                                        esc(json['question']);
+      document.getElementById("votes-left-span").innerHTML  = json['votes'];
+      if(json['votes'] > 1)
+        document.getElementById("votes-left-div").style.display = 'block';
+      else
+        document.getElementById("votes-left-div").style.display = 'none';
+      var element = document.getElementById("answers");
+      if('answers' in json) {
+        json['answers'].forEach(function(answer) {
+          var div = document.createElement("div");
+          var span = document.createElement("span");
+          var node = document.createTextNode(answer['answer']);
+          div.dataset.id = answer['aid'];
+          span.id = 'vts-'+answer['aid'];
+          div.className = 'vote-option';
+          div.setAttribute("onclick", "submitVote(" + answer['aid'] + ")");
+          div.appendChild(node);
+          div.appendChild(span);
+          element.appendChild(div);
+        });
+      }
+      if(json['votes'] > 0){
+        state = 'voting';
+      }
+      break;
+    case 'info':
+      if(state == 'waiting') {
+        document.getElementById("results-box").innerHTML = '';
+        var element = document.getElementById("results-box");
+        
+        if(json['info'] != 'none') {
+          if(json['info'] == 'answering') {
+  
+            var node = document.createTextNode('WAITING FOR PLAYERS:');
+            var info_div = document.createElement("div");
+            info_div.className = 'message';
+            info_div.appendChild(node);
+  
+            element.appendChild(info_div);
+            
+          }
+          if(json['info'] == 'answering'
+           || json['info'] == 'round') {
             var div = document.createElement("div");
-            var span = document.createElement("span");
-            var node = document.createTextNode(answer['answer']);
-            div.dataset.id = answer['aid'];
-            span.id = 'vts-'+answer['aid'];
-            div.className = 'vote-option';
-            div.setAttribute("onclick", "submitVote(" + answer['aid'] + ")");
-            div.appendChild(node);
-            div.appendChild(span);
+            div.id  = 'info';
+            json['players'].forEach(function(player) {
+              if(player['name'] != player_name) {
+                var player_div = document.createElement("div");
+                var node = document.createTextNode(player['name']);
+                player_div.className = 'player';
+                player_div.style.backgroundColor = player['color'];
+                player_div.appendChild(node);
+                div.appendChild(player_div);
+              }
+            });
             element.appendChild(div);
-          });
-        }
-        if(json['votes'] > 0){
-          state = 'voting';
-        }
-        break;
-      case 'info':
-        if(state == 'waiting') {
-          document.getElementById("results-box").innerHTML = '';
-          var element = document.getElementById("results-box");
-          
-          if(json['info'] != 'none') {
-            if(json['info'] == 'answering') {
-    
-              var node = document.createTextNode('WAITING FOR PLAYERS:');
-              var info_div = document.createElement("div");
-              info_div.className = 'message';
-              info_div.appendChild(node);
-    
-              element.appendChild(info_div);
+          } 
+          else if(json['info'] == 'question') {
+  
+            var div = document.createElement("div");
+            div.id = 'answers';
+            
+            json['answers'].forEach(function(answer) {
+              var answer_div_wrap = document.createElement("div");
+              answer_div_wrap.className = 'result-answer-wrapper';
               
-            }
-            if(json['info'] == 'answering'
-             || json['info'] == 'round') {
-              var div = document.createElement("div");
-              div.id  = 'info';
-              json['players'].forEach(function(player) {
-                if(player['name'] != player_name) {
-                  var player_div = document.createElement("div");
-                  var node = document.createTextNode(player['name']);
-                  player_div.className = 'player';
-                  player_div.style.backgroundColor = player['color'];
-                  player_div.appendChild(node);
-                  div.appendChild(player_div);
-                }
-              });
-              element.appendChild(div);
-            } 
-            else if(json['info'] == 'question') {
-    
-              var div = document.createElement("div");
-              div.id = 'answers';
+              var answer_div = document.createElement("div");
+              answer_div.className = 'result-answer';
+  
+              var player_div = document.createElement("div");
+              var node = document.createTextNode(answer['player']['name']);
+              player_div.className = 'player submitter';
+              player_div.style.backgroundColor = answer['player']['color'];
+              player_div.appendChild(node);
+              answer_div.appendChild(player_div);
+  
+              var node = document.createTextNode(answer['score']);
+              var score_div = document.createElement("div");
+              score_div.className = 'score';
+              score_div.appendChild(node);
+              answer_div.appendChild(score_div);
+
+              var answerVal_div = document.createElement("div");
+              if(answer['answer'] && answer['answer'].length > 0 ) {
+                var node = document.createTextNode(answer['answer']);
+              }
+              else {
+                var node = document.createTextNode("(Did not Answer)");
+                answerVal_div.style.color = "#ff0000";
+              }
+              answerVal_div.className = 'answer';
+              answerVal_div.appendChild(node);
+              answer_div.appendChild(answerVal_div);
+  
+              var votes_div = document.createElement("div");
+              votes_div.className = 'votes';
               
-              json['answers'].forEach(function(answer) {
-                var answer_div_wrap = document.createElement("div");
-                answer_div_wrap.className = 'result-answer-wrapper';
+              answer['votes'].forEach(function(vote) {
+                var node = document.createTextNode(vote['value']);
+                var vote_div = document.createElement("div");
+                vote_div.style.backgroundColor = vote['color'];
+                vote_div.className = 'vote player';
+                vote_div.appendChild(node);
                 
-                var answer_div = document.createElement("div");
-                answer_div.className = 'result-answer';
-    
-                var player_div = document.createElement("div");
-                var node = document.createTextNode(answer['player']['name']);
-                player_div.className = 'player submitter';
-                player_div.style.backgroundColor = answer['player']['color'];
-                player_div.appendChild(node);
-                answer_div.appendChild(player_div);
-    
-                var node = document.createTextNode(answer['score']);
-                var score_div = document.createElement("div");
-                score_div.className = 'score';
-                score_div.appendChild(node);
-                answer_div.appendChild(score_div);
-  
-                var answerVal_div = document.createElement("div");
-                if(answer['answer'] && answer['answer'].length > 0 ) {
-                  var node = document.createTextNode(answer['answer']);
-                }
-                else {
-                  var node = document.createTextNode("(Did not Answer)");
-                  answerVal_div.style.color = "#ff0000";
-                }
-                answerVal_div.className = 'answer';
-                answerVal_div.appendChild(node);
-                answer_div.appendChild(answerVal_div);
-    
-                var votes_div = document.createElement("div");
-                votes_div.className = 'votes';
                 
-                answer['votes'].forEach(function(vote) {
-                  var node = document.createTextNode(vote['value']);
-                  var vote_div = document.createElement("div");
-                  vote_div.style.backgroundColor = vote['color'];
-                  vote_div.className = 'vote player';
-                  vote_div.appendChild(node);
-                  
-                  
-                  votes_div.appendChild(vote_div);
-                });
-                answer_div.appendChild(votes_div);
-                answer_div_wrap.appendChild(answer_div);
-                div.appendChild(answer_div_wrap);
+                votes_div.appendChild(vote_div);
               });
-    
-              var node = document.createTextNode(json['question']);
-              var question_div = document.createElement("div");
-              question_div.className = 'question';
-              question_div.appendChild(node);
-    
-              element.appendChild(question_div);
-              element.appendChild(div);
-            } 
-            document.getElementById("results-box").style.display = 'block';
-          }
-        }
-        break;
-      case 'time':
-        timer = 0;
-        document.getElementById("welcome").style.display      = 'none';
-        document.getElementById("timer").style.display        = 'none';
-        document.getElementById("question-box").style.display = 'none';
-        document.getElementById("vote-box").style.display     = 'none';
-        document.getElementById("name-error").style.display   = 'none';
-        document.getElementById("timer").innerHTML            = timer;
-        state = 'waiting';
-        break;
-      case 'voting':
-        if(json['left'] == 0 || json['left'] == '0') {
-          removeElementsByClass('vote-option');
-          state = 'waiting';
-        }
-        else {
-          var aid = +json['aid'];
-          var element_votes = document.getElementById("vts-"+aid);
-          element_votes.innerHTML='&nbsp;('+json['voted']+')';
-        }
-        break;
-      case 'kick':
-        ws.close();
-        alert('You have been kicked');
-        break;
-      case 'end':
-        ws.close();
-        alert('Game has ended');
-        break;
-      default:
-        break;
-    }
-  };
+              answer_div.appendChild(votes_div);
+              answer_div_wrap.appendChild(answer_div);
+              div.appendChild(answer_div_wrap);
+            });
   
-  ws.onclose = function() {
-    //alert("Game ended or something");
-  };
+            var node = document.createTextNode(json['question']);
+            var question_div = document.createElement("div");
+            question_div.className = 'question';
+            question_div.appendChild(node);
   
-  ws.onerror = function(err) {
+            element.appendChild(question_div);
+            element.appendChild(div);
+          } 
+          document.getElementById("results-box").style.display = 'block';
+        }
+      }
+      break;
+    case 'time':
+      timer = 0;
+      document.getElementById("welcome").style.display      = 'none';
+      document.getElementById("timer").style.display        = 'none';
+      document.getElementById("question-box").style.display = 'none';
+      document.getElementById("vote-box").style.display     = 'none';
+      document.getElementById("name-error").style.display   = 'none';
+      document.getElementById("timer").innerHTML            = timer;
+      state = 'waiting';
+      break;
+    case 'voting':
+      if(json['left'] == 0 || json['left'] == '0') {
+        removeElementsByClass('vote-option');
+        state = 'waiting';
+      }
+      else {
+        var aid = +json['aid'];
+        var element_votes = document.getElementById("vts-"+aid);
+        element_votes.innerHTML='&nbsp;('+json['voted']+')';
+      }
+      break;
+    case 'kick':
+      closeConnection();
+      alert('You have been kicked');
+      break;
+    case 'end':
+      closeConnection();
+      alert('Game has ended');
+      break;
+    default:
+      break;
+  }
+}
+
+function closeConnection() {
+  closing = true;
+  if(ws) {
     ws.close();
-    if(player_id < 0) {
-      spectate();
-    }
-    else if(player_id > 0) {
-      createPlayer();
-    }
-  };
+  }
+  if(events) {
+    events.close();
+  }
 }
 
 function onLoad() {
@@ -280,6 +347,12 @@ function onLoad() {
   document.getElementById('name-field').value = name;
   document.getElementById('name-field').focus();
 
+  //page was reloaded, take the player back(everything is sent again)
+  token = sessionStorage.getItem('qinq-token');
+  if(token && window.WebSocket) {
+    createSocket(null);
+  }
+
   document.getElementById("name-field").addEventListener("keypress",
       function(event) {
     if (event.keyCode == 13) {
@@ -306,10 +379,41 @@ function onLoad() {
 }
 
 function spectate() {
-  createSocket({'action':'create user', 'name':''});
+  token = null;
+  //server-sent events when WebSockets are not available(or asked for)
+  if(!window.WebSocket || getUrlVar('stream') == 'sse') {
+    spectateEvents();
+  }
+  else {
+    createSocket({'action':'create user', 'name':''});
+  }
+}
+
+function spectateEvents() {
+  var room = getUrlVar('room');
+  postData({'action':'create user', 'name':'', 'room':room}, function(json) {
+    json['action'] = 'creating';
+    handleMessage(json);
+    if(json['created'] != 'true') {
+      return;
+    }
+    //the browser reconnects on its own, resuming from the last event id
+    events = new EventSource('/events?room=' + encodeURIComponent(room)
+                             + '&id=' + player_id + '&gen=' + gen);
+    events.onmessage = function(evt) {
+      try {
+        json = JSON.parse(evt.data);
+      }
+      catch(err) {
+        return;
+      }
+      handleMessage(json);
+    };
+  });
 }
 
 function createPlayer() {
+  token = null;
   var name = document.getElementById('name-field').value;
   createSocket({'action':'create user', 'name':name.trim()});
 }
@@ -338,7 +442,225 @@ function submitVote(aid) {
 
 function sendData(data) {
   console.log('SEND: '+JSON.stringify(data));
-  ws.send(JSON.stringify(data));
+  if(events) {
+    data['room'] = getUrlVar('room');
+    data['gen']  = gen;
+    postData(data, function(json) {
+      if(data['action'] == 'vote') {
+        json['action'] = 'voting';
+        json['aid']    = data['aid'];
+        handleMessage(json);
+      }
+    });
+  }
+  else if(ws.protocol == 'qinq.bin') {
+    ws.send(encodeFrame(data));
+  }
+  else {
+    ws.send(JSON.stringify(data));
+  }
+}
+
+/*
+ * Binary encoding, must be kept in sync with qinq.resource.WireCodec.
+ * Every message starts with a one byte type, numbers are varints(zig-zag for
+ * ids that can be negative), strings are a varint length followed by UTF-8
+ * and colours are three bytes. Type 0 is followed by JSON text.
+ */
+var INFO_TYPES = ['none', 'answering', 'round', 'question'];
+
+function FrameReader(buffer) {
+  this.bytes = new Uint8Array(buffer);
+  this.pos   = 0;
+}
+
+FrameReader.prototype.byte = function() {
+  if(this.pos >= this.bytes.length) {
+    throw 'truncated message';
+  }
+  return this.bytes[this.pos++];
+};
+
+FrameReader.prototype.varint = function() {
+  var value = 0;
+  for(var shift = 0; shift < 35; shift += 7) {
+    var b = this.byte();
+    value += (b & 0x7f) * Math.pow(2, shift);
+    if(!(b & 0x80)) {
+      return value;
+    }
+  }
+  throw 'varint too long';
+};
+
+FrameReader.prototype.signed = function() {
+  var value = this.varint();
+  return value % 2 ? -(value + 1) / 2 : value / 2;
+};
+
+FrameReader.prototype.string = function() {
+  var len = this.varint();
+  if(this.pos + len > this.bytes.length) {
+    throw 'truncated message';
+  }
+  var value = new TextDecoder('utf-8')
+                .decode(this.bytes.subarray(this.pos, this.pos + len));
+  this.pos += len;
+  return value;
+};
+
+FrameReader.prototype.color = function() {
+  var color = '#';
+  for(var i = 0; i < 3; i++) {
+    color += ('0' + this.byte().toString(16)).slice(-2);
+  }
+  return color;
+};
+
+function decodeFrame(buffer) {
+  var reader = new FrameReader(buffer);
+  var json   = {};
+  var i, n;
+  switch(reader.byte()) {
+    case 0:
+      return JSON.parse(new TextDecoder('utf-8')
+                          .decode(reader.bytes.subarray(1)));
+    case 1:
+      json['action'] = 'creating';
+      json['created'] = reader.byte() ? 'true' : 'false';
+      if(json['created'] == 'true') {
+        json['id']    = reader.signed();
+        json['name']  = reader.string();
+        json['color'] = reader.color();
+        json['token'] = reader.string();
+        json['seq']   = reader.varint();
+      }
+      break;
+    case 2:
+      json['action']   = 'answer';
+      json['time']     = reader.varint();
+      json['aid']      = reader.varint();
+      json['question'] = reader.string();
+      break;
+    case 3:
+      json['action']   = 'vote';
+      json['time']     = reader.varint();
+      json['question'] = reader.string();
+      json['votes']    = reader.varint();
+      n = reader.varint();
+      if(n > 0) {
+        json['answers'] = [];
+        for(i = 1; i < n; i++) {
+          json['answers'].push({'aid':reader.varint(),
+                                'answer':reader.string()});
+        }
+      }
+      break;
+    case 4:
+      json['action'] = 'voting';
+      json['aid']    = reader.varint();
+      json['voted']  = reader.varint();
+      json['left']   = reader.varint();
+      break;
+    case 5:
+      json['action'] = 'info';
+      json['info']   = INFO_TYPES[reader.byte()];
+      var time = reader.varint();
+      if(time > 0) {
+        json['time'] = time - 1;
+      }
+      if(json['info'] == 'answering' || json['info'] == 'round') {
+        json['players'] = [];
+        for(i = 0, n = reader.varint(); i < n; i++) {
+          json['players'].push({'name':reader.string(),
+                                'color':reader.color()});
+        }
+      }
+      else if(json['info'] == 'question') {
+        json['question'] = reader.string();
+        json['answers']  = [];
+        for(i = 0, n = reader.varint(); i < n; i++) {
+          var answer = {'player':{'name':reader.string(),
+                                  'color':reader.color()}};
+          answer['answer'] = reader.string();
+          answer['score']  = reader.string();
+          answer['votes']  = [];
+          for(var j = 0, m = reader.varint(); j < m; j++) {
+            answer['votes'].push({'value':reader.string(),
+                                  'color':reader.color()});
+          }
+          json['answers'].push(answer);
+        }
+      }
+      break;
+    case 6:
+      json['action'] = 'time';
+      break;
+    case 7:
+      json['action'] = 'end';
+      break;
+    case 8:
+      json['action'] = 'kick';
+      break;
+    default:
+      throw 'unknown message type';
+  }
+  return json;
+}
+
+function encodeFrame(data) {
+  var bytes = [];
+  var varint = function(value) {
+    value = +value;
+    while(value > 0x7f) {
+      bytes.push((value % 0x80) | 0x80);
+      value = Math.floor(value / 0x80);
+    }
+    bytes.push(value);
+  };
+  var raw = function(value) {
+    var utf8 = new TextEncoder().encode(value);
+    for(var i = 0; i < utf8.length; i++) {
+      bytes.push(utf8[i]);
+    }
+  };
+  var string = function(value) {
+    varint(new TextEncoder().encode(value).length);
+    raw(value);
+  };
+  switch(data['action']) {
+    case 'create user':
+      bytes.push(16);
+      string(data['name']);
+      break;
+    case 'send answer':
+      bytes.push(17);
+      varint(data['id']);
+      string(data['answer']);
+      break;
+    case 'vote':
+      bytes.push(18);
+      varint(+data['id'] < 0 ? -2 * data['id'] - 1 : 2 * data['id']);
+      varint(data['aid']);
+      break;
+    default:
+      bytes.push(0);
+      raw(JSON.stringify(data));
+      break;
+  }
+  return new Uint8Array(bytes).buffer;
+}
+
+function postData(data, onResponse) {
+  var request = new XMLHttpRequest();
+  request.open('POST', '/data.json');
+  request.setRequestHeader('Content-Type', 'application/json');
+  request.onload = function() {
+    if(request.status == 200) {
+      onResponse(JSON.parse(request.responseText));
+    }
+  };
+  request.send(JSON.stringify(data));
 }
 
 function removeElementsByClass(className){
@@ -18,8 +18,9 @@
 
 package qinq.resource;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONObject;
 
@@ -54,32 +55,40 @@ public class Answer extends GameObject {
    */
   private int                  nScore;
   /**
-   * List of people that vote for this question
+   * Players that voted for this answer, spectators are only counted
    */
   private Map<Player, Integer> votes;
   /**
-   * Score as a string for displayment purposes
+   * Total number of votes this answer received
    */
-  private String               strScore;
+  private AtomicInteger        nVotes;
   /**
-   * Total number of answers, use for generating answer IDs.
+   * Number of spectators that voted for this answer
+   */
+  private AtomicInteger        nAudienceVotes;
+  /**
+   * Score as a string for displayment purposes
    */
-  private static int           nAnswers = 0;
+  private String               strScore;
 
   /**
+   * @param nId
+   *          id of the answer
    * @param p
    *          player answering the question
    * @param q
    *          question linked to this answer
    */
-  public Answer(Player p, Question q) {
-    super(Answer.nAnswers++);
+  public Answer(int nId, Player p, Question q) {
+    super(nId);
     this.strAnswer = "";
     this.strScore = "";
     this.p = p;
     this.q = q;
     this.setScore(0);
-    this.votes = new HashMap<Player, Integer>();
+    this.votes = new ConcurrentHashMap<Player, Integer>();
+    this.nVotes = new AtomicInteger();
+    this.nAudienceVotes = new AtomicInteger();
     this.p.getAnswers().add(this);
   }
 
@@ -144,29 +153,76 @@ public class Answer extends GameObject {
    * @return the number votes
    */
   public int getNumVotes() {
-    int nVotes = 0;
-    for (Player p : this.votes.keySet()) {
-      nVotes += this.votes.get(p);
-    }
-    return nVotes;
+    return this.nVotes.get();
   }
 
   /**
-   * Get the players that voted for this question
+   * Get the number of spectators that voted for this answer
    *
-   * @return the votes
+   * @return the number of spectator votes
+   */
+  public int getAudienceVotes() {
+    return this.nAudienceVotes.get();
+  }
+
+  /**
+   * Vote for this answer, using up one of the player's votes.
+   *
+   * Safe to call from several threads at once.
+   *
+   * @param p
+   *          the player voting
+   * @return the number of times the player has voted for this answer, or 0 if
+   *         the player had no votes left
    */
   public int vote(Player p) {
-    if (p.getVotes() > 0) {
-      if (this.votes.keySet().contains(p))
-        this.votes.replace(p, this.votes.get(p) + 1);
-      else
-        this.votes.put(p, 1);
-      p.useVote();
-    }
-    else
+    if (!p.useVote())
+      return 0;
+    this.nVotes.incrementAndGet();
+    return this.votes.merge(p, 1, Integer::sum);
+  }
+
+  /**
+   * Vote for this answer as a spectator, which only adds to the audience
+   * count, once per question.
+   *
+   * Safe to call from several threads at once.
+   *
+   * @param s
+   *          the spectator voting
+   * @return 1 if the vote was counted, 0 if the spectator can not vote on this
+   *         question(any more)
+   */
+  public int vote(Spectator s) {
+    if (!s.canVote(this.q) || !this.q.addAudience(s.getIndex()))
       return 0;
-    return this.votes.get(p);
+    this.nAudienceVotes.incrementAndGet();
+    this.nVotes.incrementAndGet();
+    return 1;
+  }
+
+  /**
+   * Set how many times a player voted for this answer, e.g. when restoring a
+   * game
+   *
+   * @param p
+   *          the player that voted
+   * @param nTimes
+   *          the number of times the player voted for this answer
+   */
+  public void restoreVotes(Player p, int nTimes) {
+    Integer nOld = this.votes.put(p, nTimes);
+    this.nVotes.addAndGet(nTimes - (nOld == null ? 0 : nOld));
+  }
+
+  /**
+   * Set how many spectators voted for this answer, e.g. when restoring a game
+   *
+   * @param nAudience
+   *          the number of spectator votes
+   */
+  public void restoreAudience(int nAudience) {
+    this.nVotes.addAndGet(nAudience - this.nAudienceVotes.getAndSet(nAudience));
   }
 
   public Node getAnonAnswer() {
@@ -208,21 +264,15 @@ public class Answer extends GameObject {
     FlowPane voters = new FlowPane();
     voters.getStyleClass().add("voters");
 
-    int nSpectatorVotes = 0;
-    Player spectator = null;
     for (Player p : this.votes.keySet()) {
-      if (p.getID() >= 0) {
-        Node vote = p.getNameLabel(String.valueOf(this.votes.get(p)));
-        vote.getStyleClass().add("vote");
-        voters.getChildren().add(vote);
-      }
-      else {
-        nSpectatorVotes++;
-        spectator = p;
-      }
+      Node vote = p.getNameLabel(String.valueOf(this.votes.get(p)));
+      vote.getStyleClass().add("vote");
+      voters.getChildren().add(vote);
     }
-    if (nSpectatorVotes >= 0 && spectator != null) {
-      Node vote = spectator.getNameLabel(String.valueOf(nSpectatorVotes));
+    if (this.getAudienceVotes() > 0) {
+      Node vote = Player.getNameLabel(Spectator.NAME, Spectator.COLOR,
+          String.format("%d (%d%%)", this.getAudienceVotes(),
+              this.q.getAudienceShare(this)));
       vote.getStyleClass().add("vote");
       voters.getChildren().add(vote);
     }
@@ -276,6 +326,7 @@ public class Answer extends GameObject {
     jsonOut.put("time", timer);
     jsonOut.put("aid", this.getID());
     jsonOut.put("question", this.getQuestion());
-    this.p.getSocket().sendText(jsonOut);
+    if (this.p.getSocket() != null) // Players over HTTP poll for it instead
+      this.p.getSocket().sendText(jsonOut);
   }
 }
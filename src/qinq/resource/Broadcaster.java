@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Broadcaster
+ *
+ * Sends the same frame to everyone in a game. Display updates can be
+ * requested as often as needed, they are sent at most once per window. Every
+ * broadcast advances the game's {@link StateWatch}, and is also sent to the
+ * game's event streams with the new version as the event id.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class Broadcaster {
+  /**
+   * The game whose players and spectators are sent to
+   */
+  private Game        game;
+  /**
+   * The display whose info is broadcast
+   */
+  private GameDisplay display;
+  /**
+   * Whether or not an info broadcast has been requested but not yet sent
+   */
+  private boolean     pending;
+  /**
+   * How long to collect info requests before broadcasting(in milliseconds)
+   */
+  private static int  nWindow = 100;
+
+  /**
+   * Create a broadcaster for a game
+   *
+   * @param game
+   *          the game whose players and spectators are sent to
+   * @param display
+   *          the display whose info is broadcast
+   */
+  public Broadcaster(Game game, GameDisplay display) {
+    this.game = game;
+    this.display = display;
+    this.pending = false;
+  }
+
+  /**
+   * Send a frame to every player and spectator
+   *
+   * @param frame
+   *          the frame to send
+   */
+  public void sendAll(Frame frame) {
+    List<Player> players;
+    SpectatorTier spectators;
+    synchronized (this.game) {
+      players = new ArrayList<Player>(this.game.getPlayers());
+      spectators = this.game.getSpectators();
+    }
+    Broadcaster.send(players, frame);
+    spectators.send(frame);
+    this.sendStreams(frame, this.changed());
+  }
+
+  /**
+   * Send a frame to every spectator
+   *
+   * @param frame
+   *          the frame to send
+   */
+  public void sendSpectators(Frame frame) {
+    this.game.getSpectators().send(frame);
+    this.sendStreams(frame, this.changed());
+  }
+
+  /**
+   * Send each event stream's spectator their ballot, if they have votes left.
+   * Also lets clients that poll know the ballots were sent.
+   *
+   * @param question
+   *          the question being voted on
+   * @param time
+   *          time left to vote
+   */
+  public void sendBallots(Question question, int time) {
+    long nVersion = this.changed();
+    for (EventStream stream : this.game.getStreams()) {
+      Spectator s = stream.getSpectator();
+      if (s != null && s.canVote(question)
+          && !stream.send(question.getBallot(null, 1, time), nVersion))
+        this.game.removeStream(stream);
+    }
+  }
+
+  /**
+   * Let clients that poll know something was sent
+   *
+   * @return the new version of the game state
+   */
+  private long changed() {
+    return this.game.getWatch().advance();
+  }
+
+  /**
+   * Send a frame to every event stream, dropping the ones that were closed
+   *
+   * @param frame
+   *          the frame to send
+   * @param nVersion
+   *          the version of the game state, used as the event id
+   */
+  private void sendStreams(Frame frame, long nVersion) {
+    for (EventStream stream : this.game.getStreams())
+      if (!stream.send(frame, nVersion))
+        this.game.removeStream(stream);
+  }
+
+  /**
+   * Send the current display info to everyone right away
+   */
+  public void sendInfo() {
+    synchronized (this) {
+      this.pending = false;
+    }
+    this.sendAll(this.display.getFrame());
+  }
+
+  /**
+   * Send the current display info to everyone once the window is over. Any
+   * other requests made in the mean time are sent along with this one.
+   */
+  public void requestInfo() {
+    synchronized (this) {
+      if (this.pending)
+        return;
+      this.pending = true;
+    }
+    PhaseScheduler.schedule(() -> {
+      synchronized (this) {
+        if (!this.pending) // Already sent
+          return;
+      }
+      this.sendInfo();
+    }, Broadcaster.nWindow, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Send a frame to a list of players
+   *
+   * @param players
+   *          who to send to
+   * @param frame
+   *          the frame to send
+   */
+  private static void send(List<Player> players, Frame frame) {
+    for (Player p : players) {
+      if (p.getSocket() != null)
+        p.getSocket().send(frame);
+    }
+  }
+
+  /**
+   * Get the broadcast window
+   *
+   * @return how long info requests are collected for(in milliseconds)
+   */
+  public static int getWindow() {
+    return Broadcaster.nWindow;
+  }
+
+  /**
+   * Set the broadcast window
+   *
+   * @param nWindow
+   *          how long info requests are collected for(in milliseconds)
+   */
+  public static void setWindow(int nWindow) {
+    Broadcaster.nWindow = nWindow;
+  }
+}
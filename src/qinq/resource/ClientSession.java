@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ClientSession
+ *
+ * A player's connection to the game, outliving any one socket. The session has
+ * a random token, handed to the client when it joins, and counts the messages
+ * written to the client. Both ends count the same messages(everything except
+ * the "creating" and "resumed" replies), so a client that lost its socket can
+ * come back with its token and the number of messages it got, and be sent only
+ * what it missed from a short buffer of the last messages written.
+ *
+ * <p>
+ * The token is all that is needed to take the player over, so it works
+ * whatever network the client comes back from. Between losing its socket and
+ * coming back the client is marked disconnected, so the game can stop waiting
+ * on it.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class ClientSession {
+  /**
+   * Source of tokens
+   */
+  private static final SecureRandom RANDOM  = new SecureRandom();
+  /**
+   * Token identifying the session
+   */
+  private final String              strToken;
+  /**
+   * The last messages written, the message numbered n is at n % length
+   */
+  private final Frame[]             written;
+  /**
+   * Number of messages written so far
+   */
+  private long                      nSeq;
+  /**
+   * Whether or not the client is connected, clients over HTTP always are
+   */
+  private volatile boolean          connected;
+  /**
+   * Number of messages kept for new sessions
+   */
+  private static int                nReplay = 32;
+
+  /**
+   * Start a session with a new token
+   */
+  public ClientSession() {
+    this(ClientSession.newToken());
+  }
+
+  /**
+   * Start a session with a token given before, e.g. when restoring a game
+   *
+   * @param strToken
+   *          the token
+   */
+  public ClientSession(String strToken) {
+    this.strToken = strToken;
+    this.written = new Frame[Math.max(1, ClientSession.nReplay)];
+    this.nSeq = 0;
+    this.connected = true;
+  }
+
+  /**
+   * Make a random token
+   *
+   * @return 128 random bits, in hex
+   */
+  public static String newToken() {
+    byte[] bytes = new byte[16];
+    ClientSession.RANDOM.nextBytes(bytes);
+    StringBuilder token = new StringBuilder(32);
+    for (byte b : bytes)
+      token.append(String.format("%02x", b & 0xff));
+    return token.toString();
+  }
+
+  /**
+   * Get the token identifying the session
+   *
+   * @return the token
+   */
+  public String getToken() {
+    return this.strToken;
+  }
+
+  /**
+   * Get the number of messages written so far
+   *
+   * @return the number of messages
+   */
+  public synchronized long getSeq() {
+    return this.nSeq;
+  }
+
+  /**
+   * Count a message as it is written to the client
+   *
+   * @param frame
+   *          the message
+   */
+  public synchronized void written(Frame frame) {
+    switch (frame.getAction()) {
+      case "creating":
+      case "resumed":
+        return; // Tell the client where to count from, not counted
+    }
+    this.written[(int) (this.nSeq % this.written.length)] = frame;
+    this.nSeq++;
+  }
+
+  /**
+   * Go back to the point a client got up to, the messages after it are taken
+   * out of the count so they are counted again when they are sent again
+   *
+   * @param nSeen
+   *          number of messages the client got
+   * @return the messages the client missed, in order, or null if they are not
+   *         all kept(the client has to be sent the whole state instead)
+   */
+  public synchronized List<Frame> rewind(long nSeen) {
+    if (nSeen < 0 || nSeen > this.nSeq
+        || this.nSeq - nSeen > this.written.length)
+      return null;
+    List<Frame> missed = new ArrayList<Frame>((int) (this.nSeq - nSeen));
+    for (long n = nSeen; n < this.nSeq; n++)
+      missed.add(this.written[(int) (n % this.written.length)]);
+    this.nSeq = nSeen;
+    return missed;
+  }
+
+  /**
+   * Check whether or not the client is connected
+   *
+   * @return false if the client lost its socket and has not come back
+   */
+  public boolean isConnected() {
+    return this.connected;
+  }
+
+  /**
+   * Mark the client connected or disconnected
+   *
+   * @param connected
+   *          false once the client lost its socket
+   */
+  public void setConnected(boolean connected) {
+    this.connected = connected;
+  }
+
+  /**
+   * Get the number of messages kept for new sessions
+   *
+   * @return the number of messages
+   */
+  public static int getReplay() {
+    return ClientSession.nReplay;
+  }
+
+  /**
+   * Set the number of messages kept for new sessions
+   *
+   * @param nReplay
+   *          the number of messages
+   */
+  public static void setReplay(int nReplay) {
+    ClientSession.nReplay = nReplay;
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import org.json.JSONObject;
+
+/**
+ * Compression
+ *
+ * Settings for WebSocket per-message compression(permessage-deflate) and
+ * statistics on how well each type of message compresses.
+ *
+ * <p>
+ * Each frame is deflated once on its own to measure its compressed size and
+ * the CPU time taken, every session that sends it compressed is then counted
+ * with those numbers. Sessions compress independently, so the CPU time adds
+ * up per recipient.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class Compression {
+  /**
+   * Name of the extension as negotiated with the client
+   */
+  public static final String         EXTENSION  = "permessage-deflate";
+
+  /**
+   * Whether or not new connections may use compression
+   */
+  private static boolean             enabled    = true;
+  /**
+   * Messages smaller than this are sent without compression(in bytes)
+   */
+  private static int                 nThreshold = 256;
+  /**
+   * Statistics for each type of message: action -> statistics
+   */
+  private static Map<String, Totals> totals     = new TreeMap<String, Totals>();
+
+  /**
+   * Compressed size and cost of one encoded message
+   */
+  public static class Sample {
+    /**
+     * Size before compression(in bytes)
+     */
+    private int  nBytes;
+    /**
+     * Size after compression(in bytes)
+     */
+    private int  nCompressed;
+    /**
+     * CPU time taken to compress(in nanoseconds)
+     */
+    private long lNanos;
+
+    /**
+     * Compress a message to measure it
+     *
+     * @param payload
+     *          the message as it is sent
+     */
+    public Sample(byte[] payload) {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      byte[] out = new byte[payload.length + 64];
+      long lStart = System.nanoTime();
+      deflater.setInput(payload);
+      int n = 0;
+      int len;
+      do {
+        if (n == out.length)
+          out = Arrays.copyOf(out, out.length * 2);
+        len = deflater.deflate(out, n, out.length - n, Deflater.SYNC_FLUSH);
+        n += len;
+      } while (n == out.length);
+      this.lNanos = System.nanoTime() - lStart;
+      deflater.end();
+      this.nBytes = payload.length;
+      this.nCompressed = Math.max(n - 4, 0); // Trailing 00 00 ff ff is dropped
+    }
+  }
+
+  /**
+   * Running totals for one type of message
+   */
+  private static class Totals {
+    /**
+     * Number of messages sent compressed
+     */
+    private long nMessages;
+    /**
+     * Number of messages below the threshold, sent as is
+     */
+    private long nSkipped;
+    /**
+     * Bytes before compression of compressed messages
+     */
+    private long nBytes;
+    /**
+     * Bytes after compression of compressed messages
+     */
+    private long nCompressed;
+    /**
+     * CPU time spent compressing(in nanoseconds)
+     */
+    private long lNanos;
+  }
+
+  /**
+   * Count a frame being sent over a compressed session
+   *
+   * @param frame
+   *          the frame sent
+   * @param binary
+   *          whether or not it was sent in the binary encoding
+   */
+  public static void record(Frame frame, boolean binary) {
+    Sample sample = frame.getSample(binary);
+    synchronized (Compression.totals) {
+      Totals t = Compression.totals.get(frame.getAction());
+      if (t == null)
+        Compression.totals.put(frame.getAction(), t = new Totals());
+      if (sample.nBytes < Compression.nThreshold) {
+        t.nSkipped++;
+        return;
+      }
+      t.nMessages++;
+      t.nBytes += sample.nBytes;
+      t.nCompressed += sample.nCompressed;
+      t.lNanos += sample.lNanos;
+    }
+  }
+
+  /**
+   * Get the settings and statistics so far
+   *
+   * @return settings and, for each type of message, the number of messages,
+   *         the total sizes, the compression ratio and the CPU time
+   */
+  public static JSONObject getJson() {
+    JSONObject jsonTypes = new JSONObject();
+    synchronized (Compression.totals) {
+      for (Map.Entry<String, Totals> e : Compression.totals.entrySet()) {
+        Totals t = e.getValue();
+        jsonTypes.put(e.getKey().isEmpty() ? "other" : e.getKey(),
+            new JSONObject().put("messages", t.nMessages)
+                .put("skipped", t.nSkipped).put("bytes", t.nBytes)
+                .put("compressed", t.nCompressed)
+                .put("ratio",
+                    t.nBytes == 0 ? 1.0 : (double) t.nCompressed / t.nBytes)
+                .put("cpuMicros", t.lNanos / 1000));
+      }
+    }
+    return new JSONObject().put("enabled", Compression.enabled)
+        .put("threshold", Compression.nThreshold).put("types", jsonTypes);
+  }
+
+  /**
+   * Check whether or not new connections may use compression
+   *
+   * @return true if compression is offered
+   */
+  public static boolean isEnabled() {
+    return Compression.enabled;
+  }
+
+  /**
+   * Set whether or not new connections may use compression, connections
+   * already open are not affected
+   *
+   * @param enabled
+   *          true to offer compression
+   */
+  public static void setEnabled(boolean enabled) {
+    Compression.enabled = enabled;
+  }
+
+  /**
+   * Get the size below which messages are not compressed
+   *
+   * @return the threshold(in bytes)
+   */
+  public static int getThreshold() {
+    return Compression.nThreshold;
+  }
+
+  /**
+   * Set the size below which messages are not compressed
+   *
+   * @param nThreshold
+   *          the threshold(in bytes)
+   */
+  public static void setThreshold(int nThreshold) {
+    Compression.nThreshold = nThreshold;
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * EventLog
+ *
+ * Append-only log of everything that happens in every game(players joining,
+ * prompts sent, answers and votes received, phase changes), one JSON object
+ * per line. Each line has "t", the time since the log was started in
+ * microseconds from a monotonic clock, so the gaps between events are exact
+ * even if the wall clock changes. The first line of each file maps "t" to the
+ * wall clock.
+ *
+ * <p>
+ * Lines are built on the calling thread and written on a thread of their own.
+ * If the queue is full the event is dropped and counted, the next line
+ * written says how many. Once a file reaches the size limit it is renamed and
+ * a new one started. The writer is started once and runs until the program
+ * exits, the file is closed whenever the log is turned off.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class EventLog {
+  /**
+   * Name of the file currently written to, in the logs directory
+   */
+  public static final String           FILE     = "events.jsonl";
+  /**
+   * Lines waiting to be written
+   */
+  private static BlockingQueue<String> queue;
+  /**
+   * Set when the program exits, the writer finishes the queue and stops
+   */
+  private static volatile boolean      stopping = false;
+  /**
+   * Number of files rotated, keeps their names apart
+   */
+  private static int                   nRotated = 0;
+  /**
+   * Monotonic time the log was started at(in nanoseconds)
+   */
+  private static final long            lStart   = System.nanoTime();
+  /**
+   * Number of events dropped since the last line about it
+   */
+  private static AtomicLong            nDropped = new AtomicLong();
+  /**
+   * Whether or not events are recorded
+   */
+  private static volatile boolean      enabled  = false;
+  /**
+   * Size at which the file is rotated(in bytes)
+   */
+  private static long                  nMaxSize = 64L * 1024 * 1024;
+  /**
+   * Maximum number of lines waiting to be written
+   */
+  private static int                   nQueue   = 8192;
+
+  /**
+   * Record an event
+   *
+   * @param strRoom
+   *          code of the room the event happened in
+   * @param strType
+   *          what happened, e.g. "vote"
+   * @param fields
+   *          more about the event, as name, value, name, value...
+   */
+  public static void record(String strRoom, String strType,
+      Object... fields) {
+    if (!EventLog.enabled)
+      return;
+    StringBuilder line = new StringBuilder(64 + 16 * fields.length);
+    line.append("{\"t\":")
+        .append((System.nanoTime() - EventLog.lStart) / 1000)
+        .append(",\"room\":").append(JSONObject.quote(strRoom))
+        .append(",\"type\":").append(JSONObject.quote(strType));
+    for (int i = 0; i + 1 < fields.length; i += 2) {
+      line.append(',').append(JSONObject.quote(String.valueOf(fields[i])))
+          .append(':');
+      Object value = fields[i + 1];
+      if (value instanceof Number || value instanceof Boolean)
+        line.append(value);
+      else
+        line.append(JSONObject.quote(String.valueOf(value)));
+    }
+    line.append("}\n");
+    if (!EventLog.getQueue().offer(line.toString()))
+      EventLog.nDropped.incrementAndGet();
+  }
+
+  /**
+   * Get the queue, starting the writer on first use
+   *
+   * @return the queue lines are written from
+   */
+  private static synchronized BlockingQueue<String> getQueue() {
+    if (EventLog.queue == null) {
+      EventLog.queue =
+          new ArrayBlockingQueue<String>(Math.max(1, EventLog.nQueue));
+      Thread thread = new Thread(EventLog::run, "qinq-events");
+      thread.setDaemon(true);
+      thread.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        EventLog.stopping = true;
+        try {
+          thread.join(2000);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, "qinq-events-shutdown"));
+    }
+    return EventLog.queue;
+  }
+
+  /**
+   * Write lines until the program exits and the queue is empty
+   */
+  private static void run() {
+    Writer out = null;
+    long nSize = 0;
+    while (true) {
+      try {
+        String line = EventLog.queue.poll(100, TimeUnit.MILLISECONDS);
+        if (line == null) {
+          if (EventLog.stopping)
+            break;
+          if (out != null && !EventLog.enabled) {
+            out.close(); // Turned off, a new file is opened if turned on
+            out = null;
+          }
+          else if (out != null)
+            out.flush(); // Nothing waiting, make what we have safe
+          continue;
+        }
+        if (out == null || nSize >= EventLog.nMaxSize) {
+          out = EventLog.rotate(out);
+          // 0 unless still appending to a file left by an earlier run
+          nSize = EventLog.getFile().length();
+        }
+        long nDropped = EventLog.nDropped.getAndSet(0);
+        if (nDropped > 0)
+          line = String.format(
+              "{\"t\":%d,\"type\":\"dropped\",\"count\":%d}\n",
+              (System.nanoTime() - EventLog.lStart) / 1000, nDropped) + line;
+        out.write(line);
+        nSize += EventLog.getByteLength(line);
+      }
+      catch (IOException e) { // Keep going, the next line tries a new file
+        e.printStackTrace();
+        EventLog.close(out);
+        out = null;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    EventLog.close(out);
+  }
+
+  /**
+   * Close a file, if there is one
+   *
+   * @param out
+   *          the file, or null
+   */
+  private static void close(Writer out) {
+    try {
+      if (out != null)
+        out.close();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Get the file events are written to
+   *
+   * @return the file, in the logs directory
+   */
+  private static File getFile() {
+    return new File(Game.getLogsDir(), EventLog.FILE);
+  }
+
+  /**
+   * Count the bytes a line takes in UTF-8, without encoding it
+   *
+   * @param line
+   *          the line
+   * @return the number of bytes
+   */
+  private static int getByteLength(String line) {
+    int nBytes = line.length();
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (Character.isSurrogate(c))
+        nBytes++; // A pair is 4 bytes
+      else if (c >= 0x800)
+        nBytes += 2;
+      else if (c >= 0x80)
+        nBytes++;
+    }
+    return nBytes;
+  }
+
+  /**
+   * Close the current file(renaming it out of the way) and start a new one
+   *
+   * @param out
+   *          the current file, or null if there is none yet
+   * @return the new file
+   * @throws IOException
+   *           if the file can not be opened
+   */
+  private static Writer rotate(Writer out) throws IOException {
+    File file = EventLog.getFile();
+    File logs = file.getParentFile();
+    if (out != null)
+      out.close();
+    if (!logs.exists() && !logs.mkdirs())
+      throw new IOException("Can not create " + logs);
+    if (file.exists() && (out != null || file.length() >= EventLog.nMaxSize)) {
+      String strDate =
+          Game.getISO8601StringForCurrentDate().replaceAll(":", "");
+      File rotated;
+      do
+        rotated = new File(logs, String.format("events-%s-%d.jsonl", strDate,
+            ++EventLog.nRotated));
+      while (rotated.exists());
+      file.renameTo(rotated);
+    }
+    out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file, true), StandardCharsets.UTF_8), 8192);
+    out.write(String.format("{\"t\":%d,\"type\":\"start\",\"wall\":%s}\n",
+        (System.nanoTime() - EventLog.lStart) / 1000,
+        JSONObject.quote(Game.getISO8601StringForCurrentDate())));
+    return out;
+  }
+
+  /**
+   * Check whether or not events are recorded
+   *
+   * @return true if they are
+   */
+  public static boolean isEnabled() {
+    return EventLog.enabled;
+  }
+
+  /**
+   * Set whether or not events are recorded
+   *
+   * @param enabled
+   *          true to record events
+   */
+  public static void setEnabled(boolean enabled) {
+    EventLog.enabled = enabled;
+  }
+
+  /**
+   * Get the size at which the file is rotated
+   *
+   * @return the size(in bytes)
+   */
+  public static long getMaxSize() {
+    return EventLog.nMaxSize;
+  }
+
+  /**
+   * Set the size at which the file is rotated
+   *
+   * @param nMaxSize
+   *          the size(in bytes)
+   */
+  public static void setMaxSize(long nMaxSize) {
+    EventLog.nMaxSize = nMaxSize;
+  }
+
+  /**
+   * Get the maximum number of lines waiting to be written
+   *
+   * @return the size of the queue
+   */
+  public static int getQueueSize() {
+    return EventLog.nQueue;
+  }
+
+  /**
+   * Set the maximum number of lines waiting to be written, only has an effect
+   * before the first event is recorded
+   *
+   * @param nQueue
+   *          the size of the queue
+   */
+  public static void setQueueSize(int nQueue) {
+    EventLog.nQueue = nQueue;
+  }
+}
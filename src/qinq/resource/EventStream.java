@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * EventStream
+ *
+ * A read-only connection to a game using Server-Sent Events, for spectators
+ * and displays that can not(or need not) keep a WebSocket open. Each event
+ * carries the version of the game state as its id, so a browser that
+ * reconnects tells us how far it got.
+ *
+ * <p>
+ * Like {@link OutboundQueue}, only the newest info frame is kept, and it is
+ * written after the events that were queued before it but before those queued
+ * after it. Events are written off the broadcasting thread without blocking,
+ * so a viewer that stopped reading never holds up a thread. A viewer that
+ * falls too far behind is closed, its browser reconnects and catches up with
+ * the newest info.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class EventStream {
+  /**
+   * The open HTTP response events are written to
+   */
+  private AsyncContext        ctx;
+  /**
+   * The response's output, only written to while it is ready
+   */
+  private ServletOutputStream out;
+  /**
+   * The spectator watching, null if anonymous(can not vote)
+   */
+  private Spectator           spectator;
+  /**
+   * Events waiting to be written, in order
+   */
+  private Deque<String>       control;
+  /**
+   * Newest info event waiting to be written, null if there is none
+   */
+  private String              info;
+  /**
+   * Number of control events that were queued before the info event, and so
+   * are written before it
+   */
+  private int                 nInfoAfter;
+  /**
+   * Whether or not events are currently being written
+   */
+  private boolean             writing;
+  /**
+   * Whether or not the response can be written to without blocking, once
+   * false only the container sets it again
+   */
+  private boolean             ready;
+  /**
+   * Set if the container said the response is ready while events were being
+   * written
+   */
+  private boolean             wakeup;
+  /**
+   * Whether or not the stream has been closed
+   */
+  private boolean             closed;
+  /**
+   * Sends a comment every so often, so that proxies keep the stream open and
+   * a viewer that left is noticed
+   */
+  private Future<?>           keepAlive;
+  /**
+   * How often to send keep-alive comments(in milliseconds)
+   */
+  private static int          nKeepAlive = 15000;
+  /**
+   * Number of control events a viewer can fall behind by before its stream is
+   * closed
+   */
+  private static int          nBacklog   = 256;
+
+  /**
+   * Start a stream on an async HTTP response
+   *
+   * @param ctx
+   *          the response, headers already set
+   * @param spectator
+   *          the spectator watching, or null
+   * @throws IOException
+   *           if the response can not be written to
+   */
+  public EventStream(AsyncContext ctx, Spectator spectator)
+      throws IOException {
+    this.ctx = ctx;
+    this.spectator = spectator;
+    this.control = new ArrayDeque<String>();
+    this.info = null;
+    this.nInfoAfter = 0;
+    this.writing = false;
+    this.ready = false; // Until the container first says otherwise
+    this.wakeup = false;
+    this.closed = false;
+    this.out = ctx.getResponse().getOutputStream();
+    this.out.setWriteListener(new WriteListener() {
+      @Override
+      public void onWritePossible() {
+        EventStream.this.writable();
+      }
+
+      @Override
+      public void onError(Throwable t) { // Viewer went away
+        EventStream.this.close();
+      }
+    });
+    this.keepAlive = PhaseScheduler.scheduleAtFixedRate(
+        () -> this.offer(":\n\n", false), EventStream.nKeepAlive,
+        EventStream.nKeepAlive, TimeUnit.MILLISECONDS);
+    this.offer("retry: 2000\n\n", false);
+  }
+
+  /**
+   * Queue a frame to be sent as an event
+   *
+   * @param frame
+   *          the frame to send
+   * @param nId
+   *          the version of the game state after the frame was sent
+   * @return false if the stream is closed
+   */
+  public boolean send(Frame frame, long nId) {
+    return this.offer("id: " + nId + "\ndata: " + frame.getText() + "\n\n",
+        frame.getAction().equals("info"));
+  }
+
+  /**
+   * Queue text to be written
+   *
+   * @param text
+   *          the text, already in event stream format
+   * @param info
+   *          whether or not it replaces the previous info event
+   * @return false if the stream is closed
+   */
+  private boolean offer(String text, boolean info) {
+    boolean bBehind;
+    boolean bWrite;
+    synchronized (this) {
+      if (this.closed)
+        return false;
+      bBehind = !info && this.control.size() >= EventStream.nBacklog;
+      if (info) {
+        this.info = text;
+        this.nInfoAfter = this.control.size();
+      }
+      else if (!bBehind)
+        this.control.add(text);
+      // Otherwise written once the response is ready
+      bWrite = !bBehind && !this.writing && this.ready;
+      if (bWrite)
+        this.writing = true;
+    }
+    if (bBehind) { // Its browser reconnects and catches up
+      this.close();
+      return false;
+    }
+    if (bWrite)
+      ResponseWriter.execute(() -> this.write(false));
+    return true;
+  }
+
+  /**
+   * Take the next event to write, the info event goes after the control
+   * events that were queued before it. Called with the stream locked.
+   *
+   * @return the event, or null if there is none
+   */
+  private String next() {
+    if (this.info != null && this.nInfoAfter == 0) {
+      String text = this.info;
+      this.info = null;
+      return text;
+    }
+    String text = this.control.poll();
+    if (text != null && this.info != null)
+      this.nInfoAfter--;
+    return text;
+  }
+
+  /**
+   * The container says the response can be written to again
+   */
+  private void writable() {
+    synchronized (this) {
+      this.ready = true;
+      if (this.writing) {
+        this.wakeup = true;
+        return;
+      }
+      this.writing = true;
+    }
+    this.write(true); // Does not block, fine on the container's thread
+  }
+
+  /**
+   * Write what is queued for as long as the response can take it without
+   * blocking, then flush it
+   *
+   * @param bDirty
+   *          true to flush even if nothing is queued
+   */
+  private void write(boolean bDirty) {
+    try {
+      while (true) {
+        boolean bReady = this.out.isReady();
+        String text;
+        synchronized (this) {
+          if (this.closed) {
+            this.writing = false;
+            return;
+          }
+          if (!bReady && this.wakeup) {
+            this.wakeup = false;
+            continue;
+          }
+          if (!bReady) { // The container calls writable() once it is ready
+            this.ready = false;
+            this.writing = false;
+            return;
+          }
+          text = this.next();
+          if (text == null && !bDirty) {
+            this.writing = false;
+            return;
+          }
+        }
+        if (text == null) {
+          this.out.flush();
+          bDirty = false;
+        }
+        else {
+          this.out.write(text.getBytes(StandardCharsets.UTF_8));
+          bDirty = true;
+        }
+      }
+    }
+    catch (IOException | IllegalStateException e) { // Viewer went away
+      this.close();
+    }
+  }
+
+  /**
+   * Close the stream, if it is not already
+   */
+  public void close() {
+    synchronized (this) {
+      if (this.closed)
+        return;
+      this.closed = true;
+      this.writing = false;
+      this.control.clear();
+      this.info = null;
+      this.nInfoAfter = 0;
+    }
+    this.keepAlive.cancel(false);
+    try {
+      this.ctx.complete();
+    }
+    catch (IllegalStateException e) { // Already completed by the container
+    }
+  }
+
+  /**
+   * Check whether or not the stream is closed
+   *
+   * @return true if nothing more can be sent
+   */
+  public synchronized boolean isClosed() {
+    return this.closed;
+  }
+
+  /**
+   * Get the spectator watching
+   *
+   * @return the spectator, or null if anonymous
+   */
+  public Spectator getSpectator() {
+    return this.spectator;
+  }
+
+  /**
+   * Get how often keep-alive comments are sent
+   *
+   * @return the interval(in milliseconds)
+   */
+  public static int getKeepAlive() {
+    return EventStream.nKeepAlive;
+  }
+
+  /**
+   * Set how often keep-alive comments are sent, for new streams
+   *
+   * @param nKeepAlive
+   *          the interval(in milliseconds)
+   */
+  public static void setKeepAlive(int nKeepAlive) {
+    EventStream.nKeepAlive = nKeepAlive;
+  }
+
+  /**
+   * Get the number of control events a viewer can fall behind by
+   *
+   * @return the backlog
+   */
+  public static int getBacklog() {
+    return EventStream.nBacklog;
+  }
+
+  /**
+   * Set the number of control events a viewer can fall behind by before its
+   * stream is closed
+   *
+   * @param nBacklog
+   *          the backlog
+   */
+  public static void setBacklog(int nBacklog) {
+    EventStream.nBacklog = nBacklog;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * Frame
+ *
+ * A message that has already been encoded, so that it can be sent to any
+ * number of players without encoding it again. The binary encoding is only
+ * made the first time a binary client needs it.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class Frame {
+  /**
+   * Sent when the time for the current action is up
+   */
+  public static final Frame TIME =
+      new Frame(new JSONObject().put("action", "time"));
+  /**
+   * Sent when the game is over
+   */
+  public static final Frame END =
+      new Frame(new JSONObject().put("action", "end"));
+  /**
+   * Sent to a player that was kicked
+   */
+  public static final Frame KICK =
+      new Frame(new JSONObject().put("action", "kick"));
+
+  /**
+   * The action of the message(e.g. info, vote, time)
+   */
+  private String strAction;
+  /**
+   * The encoded message
+   */
+  private String strText;
+  /**
+   * The message in the binary encoding, null until first needed
+   */
+  private volatile byte[] binary;
+  /**
+   * Compression of each encoding(text, binary), null until first needed
+   */
+  private volatile Compression.Sample textSample, binarySample;
+
+  /**
+   * Encode a message
+   *
+   * @param json
+   *          the message to encode
+   */
+  public Frame(JSONObject json) {
+    this.strAction = json.has("action") ? json.getString("action") : "";
+    this.strText = json.toString();
+  }
+
+  /**
+   * Get the action of the message
+   *
+   * @return the action
+   */
+  public String getAction() {
+    return this.strAction;
+  }
+
+  /**
+   * Get the encoded message
+   *
+   * @return the message as JSON text
+   */
+  public String getText() {
+    return this.strText;
+  }
+
+  /**
+   * Get the message in the binary encoding
+   *
+   * @return the message as encoded by {@link WireCodec}
+   */
+  public byte[] getBinary() {
+    byte[] binary = this.binary;
+    if (binary == null) // Encoding twice in a race is harmless
+      this.binary = binary = WireCodec.encode(new JSONObject(this.strText));
+    return binary;
+  }
+
+  /**
+   * Get how well the message compresses
+   *
+   * @param binary
+   *          whether to measure the binary or the text encoding
+   * @return the measured compression
+   */
+  public Compression.Sample getSample(boolean binary) {
+    Compression.Sample sample = binary ? this.binarySample : this.textSample;
+    if (sample != null)
+      return sample;
+    if (binary)
+      return this.binarySample = new Compression.Sample(this.getBinary());
+    return this.textSample = new Compression.Sample(
+        this.strText.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -19,21 +19,26 @@
 package qinq.resource;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import qinq.application.GamePane;
@@ -50,45 +55,143 @@ public class Game extends GameObject {
   /**
    * List of players participating in the game.
    */
-  private List<Player>   players;
+  private List<Player>           players;
   /**
-   * List of people spectating the game.
+   * People spectating the game, kept apart from the players.
    */
-  private List<Player>   spectators;
+  private SpectatorTier          spectators;
+  /**
+   * Players by id, spectators are found through their tier.
+   */
+  private Map<Integer, Player>   playersById;
+  /**
+   * Players by upper case name, used to detect duplicates and reconnects.
+   */
+  private Map<String, Player>    playersByName;
+  /**
+   * Players by session token, used to resume sessions.
+   */
+  private Map<String, Player>    playersByToken;
+  /**
+   * Answers of the current round by id.
+   */
+  private Map<Integer, Answer>   answersById;
+  /**
+   * Questions of the current round by id.
+   */
+  private Map<Integer, Question> questionsById;
+  /**
+   * Hands out ids for this game's players, questions and answers.
+   */
+  private IdAllocator            ids;
   /**
    * The current round that is being played.
    */
-  private Round          currentRound;
+  private Round                  currentRound;
   /**
    * The Game UI, needed for refreshing people, and other such tasks(probably).
    */
-  private GameUI         gameui;
+  private GameUI                 gameui;
+  /**
+   * What the current game is showing
+   */
+  private GameDisplay            display;
+  /**
+   * Sends frames to everyone in the current game
+   */
+  private Broadcaster            broadcaster;
+  /**
+   * Version of what has been sent to the players, for clients that poll
+   */
+  private StateWatch             watch;
+  /**
+   * Open Server-Sent Event streams watching this game
+   */
+  private List<EventStream>      streams;
+  /**
+   * The current game's log, null if logs are not stored
+   */
+  private volatile GameLog       log;
+  /**
+   * The current game's journal, null if games are not journaled
+   */
+  private volatile GameJournal   journal;
+  /**
+   * Whether or not a game is being played, only the first of the ways a game
+   * can end(finishing, failing or being stopped) gets to end it
+   */
+  private final AtomicBoolean    playing;
+  /**
+   * Index of the round being played, see {@link #ROUND_NAMES}
+   */
+  private int                    nRound;
+  /**
+   * Code of the room this game is hosted in, empty for the local game
+   */
+  private String                 strRoomCode;
+  /**
+   * Type of each round played, see
+   * {@link Round#Round(int, String, Game, QuestionPool.Draw, GameDisplay)}
+   */
+  private static final int[]     ROUND_TYPES = { 0, 0, 1 };
+  /**
+   * Name of each round played
+   */
+  private static final String[]  ROUND_NAMES =
+      { "Round 1", "Round 2", "Final Round" };
   /**
    * Minimum number of players needed to start a game
    */
-  private static int     minPlayers = 3;
+  private int                    nMinPlayers;
   /**
-   *
    * Maximum number of players allowed to join a game
    */
-  private static int     maxPlayers = 10;
+  private int                    nMaxPlayers;
+  /**
+   * Number of players that answer each question
+   */
+  private int                    nNumAnswers;
+  /**
+   * How long to keep waiting once the time is up if some players have not
+   * answered or voted yet(in milliseconds)
+   */
+  private int                    nExtraWaitTime;
+  /**
+   * Whether or not to keep waiting on players that are disconnected
+   */
+  private boolean                bWaitAbsent;
   /**
    *
    * Whether or not to store logs
    */
-  private static boolean storeLogs  = true;
+  private static boolean         storeLogs  = true;
   /**
    *
    * Directory in which to store logs
    */
-  private static String  strLogDir  = "logs/";
+  private static String          strLogDir  = "logs/";
 
   /**
    * Create a game
    */
   public Game() {
     this.players = new ArrayList<Player>();
-    this.spectators = new ArrayList<Player>();
+    this.playersById = new HashMap<Integer, Player>();
+    this.playersByName = new HashMap<String, Player>();
+    this.playersByToken = new HashMap<String, Player>();
+    this.answersById = new HashMap<Integer, Answer>();
+    this.questionsById = new HashMap<Integer, Question>();
+    this.ids = new IdAllocator();
+    this.spectators = new SpectatorTier(this.ids);
+    this.watch = new StateWatch();
+    this.streams = new ArrayList<EventStream>();
+    this.strRoomCode = "";
+    this.playing = new AtomicBoolean(false);
+    this.nMinPlayers = 3;
+    this.nMaxPlayers = 10;
+    this.nNumAnswers = 2;
+    this.nExtraWaitTime = 1800;
+    this.bWaitAbsent = true;
   }
 
   /**
@@ -101,32 +204,104 @@ public class Game extends GameObject {
    * @return the player object
    */
   public synchronized Player addPlayer(String strName, String ip) {
-    if (!strName.isEmpty()) {
-      for (Player player : this.players) {
-        if (player.getName().equalsIgnoreCase(strName)) {
-          if (player.getIp().equalsIgnoreCase(ip))
-            return player;
-          else
-            return null;
-        }
-      }
-      if (this.currentRound != null) // Too late to create a player, a game has
-        return null; // already started
-      if (this.players.size() >= Game.maxPlayers) // Max players already reached
+    if (strName.isEmpty())
+      return null; // Spectators join with addSpectator
+
+    Player player = this.playersByName.get(strName.toUpperCase());
+    if (player != null) {
+      if (player.getIp().equalsIgnoreCase(ip))
+        return player;
+      else
         return null;
     }
-    Player p = new Player(strName, ip);
-    if (p.getID() >= 0) {
-      this.players.add(p);
-      if (this.gameui != null)
-        this.gameui.addPlayer(p);
-    }
-    else
-      this.spectators.add(p);
+    if (this.currentRound != null) // Too late to create a player, a game has
+      return null; // already started
+    if (this.players.size() >= this.nMaxPlayers) // Max players already reached
+      return null;
+
+    Player p = new Player(this.ids.nextPlayerId(), strName, ip);
+    this.playersById.put(p.getID(), p);
+    this.players.add(p);
+    this.playersByName.put(p.getName(), p);
+    this.playersByToken.put(p.getSession().getToken(), p);
+    if (this.gameui != null)
+      this.gameui.addPlayer(p);
+    EventLog.record(this.strRoomCode, "join", "player", p.getID(), "spectator",
+        false);
 
     return p;
   }
 
+  /**
+   * Add a spectator to the game.
+   *
+   * @return the spectator
+   */
+  public synchronized Spectator addSpectator() {
+    Spectator spectator = this.spectators.add();
+    EventLog.record(this.strRoomCode, "join", "player", spectator.getID(),
+        "spectator", true);
+    return spectator;
+  }
+
+  /**
+   * Remove a player from the game(e.g. when kicked).
+   *
+   * @param p
+   *          the player to remove
+   */
+  public synchronized void removePlayer(Player p) {
+    this.playersByToken.remove(p.getSession().getToken(), p);
+    if (this.players.remove(p)) {
+      this.playersById.remove(p.getID());
+      this.playersByName.remove(p.getName(), p);
+    }
+  }
+
+  /**
+   * Remove a spectator from the game(e.g. when it stopped watching).
+   *
+   * @param s
+   *          the spectator to remove
+   */
+  public synchronized void removeSpectator(Spectator s) {
+    this.spectators.remove(s);
+  }
+
+  /**
+   * Forget all players, spectators and rounds, used once the game is over.
+   */
+  private synchronized void clear() {
+    this.currentRound = null;
+    this.players = new ArrayList<Player>();
+    this.playersById.clear();
+    this.playersByName.clear();
+    this.playersByToken.clear();
+    this.answersById.clear();
+    this.questionsById.clear();
+    this.ids.reset(); // Ids sent to clients of this game are now stale
+    this.spectators = new SpectatorTier(this.ids);
+  }
+
+  /**
+   * Set the round currently being played and index its questions and answers.
+   *
+   * @param round
+   *          the new current round
+   */
+  private synchronized void setRound(Round round) {
+    this.currentRound = round;
+    this.answersById.clear();
+    this.questionsById.clear();
+    if (round == null)
+      return;
+    for (Question q : round.getQuestions()) {
+      this.questionsById.put(q.getID(), q);
+      for (Answer a : q.getAnswers())
+        this.answersById.put(a.getID(), a);
+    }
+  }
+
   /**
    * Get the current timestamp
    *
@@ -144,22 +319,22 @@ public class Game extends GameObject {
    * Start the game
    *
    * @param questions
-   *          a list of questions that will be used for the current game
-   * @param display
-   *          the pane on which to display result on
-   * @return false if game did not start
+   *          the questions that can be used for the current game, shared
+   *          between games
+   * @param pane
+   *          the window to show the game on, or null to play without one
+   * @param gameui
+   *          the game ui to return to once the game is over, may be null
+   * @return 0 if the game started, 1 if it was already started, 2 if there are
+   *         not enough players and 3 if there are not enough questions
    */
-  public synchronized int start(List<String> questions, GamePane display,
+  public synchronized int start(QuestionPool questions, GamePane pane,
       GameUI gameui) {
-    if (this.currentRound != null)
+    if (this.currentRound != null || this.playing.get())
       return 1;
-    if (this.players.size() < Game.minPlayers)
+    if (this.players.size() < this.nMinPlayers)
       return 2;
 
-    // Remove duplicate questions
-    List<String> nonDupQuestions = questions.parallelStream()
-        .map(String::toUpperCase).distinct().collect(Collectors.toList());
-
     if (questions.size() < this.players.size() * 2 + 1)// 2 regular rounds + 1
                                                        // final round requires
                                                        // 2n+1 questions where n
@@ -167,101 +342,356 @@ public class Game extends GameObject {
                                                        // players
       return 3;
 
-    new Thread() {
-      @Override
-      public void run() {
-
-        XMLOutputFactory factory = XMLOutputFactory.newInstance();
-        XMLStreamWriter writer;
-        try {
-          File logs = new File(Game.getLogsDir());
-          String time = getISO8601StringForCurrentDate();
-          File log = new File(logs, time.replaceAll(":", "") + ".log");
-          if (Game.storeLogs && (logs.exists() || logs.mkdirs())
-              && logs.isDirectory() && (log.exists() || log.createNewFile())
-              && log.canWrite())
-            writer = factory.createXMLStreamWriter(new FileWriter(log));
-          else
-            writer = null;
-          if (writer != null) {
-            writer.writeStartDocument();
-            writer.writeCharacters("\n");
-            writer.writeStartElement("game");
-            writer.writeCharacters("\n  ");
-            writer.writeStartElement("time");
-            writer.writeCharacters(time);
-            writer.writeEndElement();
-            writer.writeCharacters("\n  ");
-            writer.writeStartElement("players");
-            for (Player p : Game.this.players) {
-              writer.writeCharacters("\n    ");
-              writer.writeStartElement("player");
-              writer.writeAttribute("id", String.valueOf(p.getID()));
-              writer.writeCharacters(p.getName());
-              writer.writeEndElement();
-            }
-            writer.writeCharacters("\n  ");
-            writer.writeEndElement();
-            writer.writeCharacters("\n  ");
-            writer.writeStartElement("rounds");
-          }
-
-          Game.this.currentRound = new Round(0, "Round 1", Game.this.players,
-              Game.this.spectators, nonDupQuestions, display);
-          Game.this.currentRound.answer();
-          Game.this.currentRound.vote();
-          Game.this.sortPlayers();
-          Game.this.currentRound.displayResults();
-          Game.this.currentRound.saveResults(writer);
-
-          Game.this.currentRound = new Round(0, "Round 2", Game.this.players,
-              Game.this.spectators, nonDupQuestions, display);
-          Game.this.currentRound.answer();
-          Game.this.currentRound.vote();
-          Game.this.sortPlayers();
-          Game.this.currentRound.displayResults();
-          Game.this.currentRound.saveResults(writer);
-
-          Game.this.currentRound =
-              new Round(1, "Final Round", Game.this.players,
-                  Game.this.spectators, nonDupQuestions, display);
-          Game.this.currentRound.answer();
-          Game.this.currentRound.vote();
-          Game.this.sortPlayers();
-          Game.this.currentRound.displayResults();
-          Game.this.currentRound.saveResults(writer);
-
-          Game.this.currentRound = null; // End the game
-          for (Player p : Game.this.players) {
-            p.getSocket().sendText(new JSONObject().put("action", "end"));
-          }
-          for (Player p : Game.this.spectators) {
-            p.getSocket().sendText(new JSONObject().put("action", "end"));
-          }
-
-          Game.this.players = new ArrayList<Player>();
-          Game.this.spectators = new ArrayList<Player>();
-          display.refresh();
-
-          if (writer != null) {
-            writer.writeCharacters("\n  ");
-            writer.writeEndElement();
-            writer.writeEndElement();
-            writer.writeEndDocument();
-
-            writer.flush();
-            writer.close();
-          }
-        }
-        catch (XMLStreamException | IOException e) {
-          e.printStackTrace();
+    QuestionPool.Draw draw = questions.draw();
+    GameDisplay display = new GameDisplay(this, pane);
+    this.display = display;
+    this.broadcaster = new Broadcaster(this, display);
+    this.playing.set(true);
+    PhaseScheduler.execute(() -> {
+      synchronized (Game.this) {
+        if (!Game.this.playing.get())
+          return; // Stopped before it began
+        Game.this.journal = Game.this.openJournal(null);
+        Game.this.log = Game.this.openLog();
+      }
+      Game.this.playRound(0, draw, display, gameui);
+    }, this::fail);
+    return 0;
+  }
+
+  /**
+   * Carry on a game that did not end, from what was left in its journal. The
+   * round is resumed in the phase it was in with the time that was left, the
+   * rounds after it are drawn from the given questions. Players get their
+   * pending question or ballot back when they reconnect.
+   *
+   * @param recovery
+   *          what was read back from the game's journal
+   * @param questions
+   *          the questions that can be used for the rest of the game
+   * @param pane
+   *          the window to show the game on, or null to play without one
+   * @param gameui
+   *          the game ui to return to once the game is over, may be null
+   * @return false if there was nothing that could be resumed
+   */
+  public synchronized boolean resume(GameJournal.Recovery recovery,
+      QuestionPool questions, GamePane pane, GameUI gameui) {
+    if (this.currentRound != null)
+      return false;
+    GameDisplay display = new GameDisplay(this, pane);
+    Round r;
+    try {
+      JSONObject state = recovery.getSnapshot();
+      JSONArray players = state.getJSONArray("players");
+      for (int i = 0; i < players.length(); i++) {
+        JSONObject jsonPlayer = players.getJSONObject(i);
+        Player p = new Player(jsonPlayer.getInt("id"),
+            jsonPlayer.getString("name"), jsonPlayer.getString("ip"));
+        p.addPoints(jsonPlayer.getInt("points"));
+        p.setVotes(jsonPlayer.getInt("votes"));
+        if (jsonPlayer.has("token"))
+          p.setSession(new ClientSession(jsonPlayer.getString("token")));
+        this.playersById.put(p.getID(), p);
+        this.players.add(p);
+        this.playersByName.put(p.getName(), p);
+        this.playersByToken.put(p.getSession().getToken(), p);
+        if (gameui != null)
+          gameui.addPlayer(p);
+      }
+      JSONObject ids = state.getJSONObject("ids");
+      this.ids.restore(ids.optInt("generation", this.ids.getGeneration()),
+          ids.getInt("players"), ids.getInt("questions"),
+          ids.getInt("answers"));
+
+      this.display = display;
+      this.broadcaster = new Broadcaster(this, display);
+      r = Round.restore(this, state.getJSONObject("state"), display);
+      this.setRound(r);
+      this.nRound = state.getInt("round");
+      long lLeft = -1;
+      for (JSONObject record : recovery.getRecords()) {
+        this.replay(record);
+        lLeft = record.optLong("left", lLeft);
+      }
+      if (lLeft >= 0)
+        r.setTimeMillis(lLeft);
+    }
+    catch (RuntimeException e) { // Damaged snapshot, start over
+      e.printStackTrace();
+      this.clear();
+      return false;
+    }
+
+    QuestionPool.Draw draw = questions.draw();
+    int nRound = this.nRound;
+    this.playing.set(true);
+    PhaseScheduler.execute(() -> {
+      synchronized (Game.this) {
+        if (!Game.this.playing.get())
+          return; // Stopped before it carried on
+        // Replaces the old journal only once what was recovered is safe
+        Game.this.journal = Game.this.openJournal(Game.this.snapshot());
+        Game.this.log = Game.this.openLog();
+      }
+      r.resume(() -> Game.this.results(r,
+          () -> Game.this.playRound(nRound + 1, draw, display, gameui)));
+    }, this::fail);
+    return true;
+  }
+
+  /**
+   * Apply a change read back from the journal to the current round
+   *
+   * @param record
+   *          the change: an answer, a vote or the audience count of an answer
+   */
+  private void replay(JSONObject record) {
+    Answer a = this.answersById.get(record.optInt("aid", -1));
+    if (a == null)
+      return; // Or only the time left, e.g. a "time" record
+    switch (record.getString("a")) {
+      case "answer":
+        a.setAnswer(record.getString("text"));
+        a.getPlayer().getAnswers().remove(a);
+        break;
+      case "vote":
+        Player p = this.playersById.get(record.getInt("pid"));
+        if (p != null) {
+          a.restoreVotes(p, record.getInt("n"));
+          p.setVotes(record.getInt("votes"));
         }
+        break;
+      case "audience":
+        a.restoreAudience(record.getInt("count"));
+        break;
+    }
+  }
 
-        // Go back to game setup
-        gameui.goToSetup();
+  /**
+   * Open the journal for a game
+   *
+   * @param state
+   *          snapshot of a resumed game, null for a new game
+   * @return the journal, or null if games are not journaled
+   */
+  private GameJournal openJournal(JSONObject state) {
+    if (!GameJournal.isEnabled())
+      return null;
+    try {
+      return new GameJournal(this.strRoomCode, state);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Replace the journal's snapshot with the game as it is now, called at the
+   * start of every phase
+   */
+  public void checkpoint() {
+    GameJournal journal = this.journal;
+    if (journal != null && this.getRound() != null)
+      journal.snapshot(this::snapshot);
+  }
+
+  /**
+   * Take a snapshot of the game: its players and the current round
+   *
+   * @return the snapshot
+   */
+  private synchronized JSONObject snapshot() {
+    JSONArray players = new JSONArray();
+    for (Player p : this.players)
+      players.put(new JSONObject().put("id", p.getID())
+          .put("name", p.getName()).put("ip", p.getIp())
+          .put("points", p.getPoints()).put("votes", p.getVotes())
+          .put("token", p.getSession().getToken()));
+    return new JSONObject().put("round", this.nRound)
+        .put("players", players)
+        .put("ids", new JSONObject()
+            .put("generation", this.ids.getGeneration())
+            .put("players", this.ids.getPlayers())
+            .put("questions", this.ids.getQuestions())
+            .put("answers", this.ids.getAnswers()))
+        .put("state", this.currentRound.toJson());
+  }
+
+  /**
+   * Open the log for a new game and write its header
+   *
+   * @return the log to output results to, or null if logs are not stored
+   */
+  private GameLog openLog() {
+    XMLOutputFactory factory = XMLOutputFactory.newInstance();
+    StringWriter header = new StringWriter();
+    XMLStreamWriter writer = null;
+    try {
+      File logs = new File(Game.getLogsDir());
+      String time = getISO8601StringForCurrentDate();
+      File log = new File(logs, time.replaceAll(":", "") + ".log");
+      if (Game.storeLogs && (logs.exists() || logs.mkdirs())
+          && logs.isDirectory())
+        writer = factory.createXMLStreamWriter(header);
+      if (writer != null) {
+        writer.writeStartDocument();
+        writer.writeCharacters("\n");
+        writer.writeStartElement("game");
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement("time");
+        writer.writeCharacters(time);
+        writer.writeEndElement();
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement("players");
+        for (Player p : this.players) {
+          writer.writeCharacters("\n    ");
+          writer.writeStartElement("player");
+          writer.writeAttribute("id", String.valueOf(p.getID()));
+          writer.writeCharacters(p.getName());
+          writer.writeEndElement();
+        }
+        writer.writeCharacters("\n  ");
+        writer.writeEndElement();
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement("rounds");
+        writer.writeCharacters(""); // Close the start tag
+        writer.flush();
+        return new GameLog(log, header.toString());
       }
-    }.start();
-    return 0;
+    }
+    catch (XMLStreamException | IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Play a round and every round after it, then end the game
+   *
+   * @param nRound
+   *          index of the round to play, see {@link #ROUND_NAMES}
+   * @param draw
+   *          where the rounds' questions are drawn from
+   * @param display
+   *          what the game is showing
+   * @param gameui
+   *          the game ui to return to once the game is over, may be null
+   */
+  private void playRound(int nRound, QuestionPool.Draw draw,
+      GameDisplay display, GameUI gameui) {
+    if (nRound >= Game.ROUND_NAMES.length) {
+      this.end(gameui);
+      return;
+    }
+    this.nRound = nRound;
+    this.play(
+        () -> new Round(Game.ROUND_TYPES[nRound], Game.ROUND_NAMES[nRound],
+            this, draw, display),
+        () -> this.playRound(nRound + 1, draw, display, gameui));
+  }
+
+  /**
+   * Play one round: answer, vote, then show and save the round's results.
+   *
+   * @param round
+   *          creates the round to play, called once the previous one is over
+   * @param next
+   *          what to do once the round is over
+   */
+  private void play(Supplier<Round> round, Runnable next) {
+    Round r = round.get();
+    synchronized (this) {
+      if (!this.playing.get())
+        return; // Ended while the round was being made
+      this.setRound(r);
+    }
+    r.answer(() -> r.vote(() -> this.results(r, next)));
+  }
+
+  /**
+   * Show and save a round's results, once every question has been voted on
+   *
+   * @param r
+   *          the round
+   * @param next
+   *          what to do once the round is over
+   */
+  private void results(Round r, Runnable next) {
+    this.sortPlayers();
+    r.displayResults(() -> {
+      if (this.log != null)
+        this.log.write(r::saveResults);
+      next.run();
+    });
+  }
+
+  /**
+   * End the game, close the log and go back to game setup
+   *
+   * @param gameui
+   *          the game ui to return to, may be null
+   */
+  private void end(GameUI gameui) {
+    Round r;
+    synchronized (this) {
+      if (!this.playing.compareAndSet(true, false))
+        return; // Already ended, e.g. stopped as the last round finished
+      r = this.currentRound;
+      this.setRound(null); // End the game
+    }
+    if (r != null)
+      r.stop(); // Continuations already running return at their next step
+    this.broadcaster.sendAll(Frame.END);
+
+    this.clear();
+    this.display.refresh();
+
+    if (this.log != null) { // Finished and closed in the background
+      this.log.close();
+      this.log = null;
+    }
+    if (this.journal != null) { // Nothing left to recover
+      this.journal.finish();
+      this.journal = null;
+    }
+    QuestionStats.save();
+
+    // Go back to game setup
+    if (gameui != null)
+      gameui.goToSetup();
+  }
+
+  /**
+   * A step of the game threw, so the step after it was never scheduled. Stop
+   * the current round and end the game, rather than leave the players waiting
+   * on a phase that will never come.
+   *
+   * @param e
+   *          what was thrown, already logged
+   */
+  public void fail(RuntimeException e) {
+    EventLog.record(this.strRoomCode, "error", "message", String.valueOf(e));
+    this.stop();
+  }
+
+  /**
+   * Stop the game being played, e.g. when its room is closed. The current
+   * round is stopped so none of its phases run after this, then the game is
+   * ended as if it was over. Does nothing if the game already ended.
+   */
+  public void stop() {
+    this.end(this.gameui);
+  }
+
+  /**
+   * Get the current game's journal
+   *
+   * @return the journal, or null if the game is not journaled
+   */
+  public GameJournal getJournal() {
+    return this.journal;
   }
 
   /**
@@ -276,9 +706,9 @@ public class Game extends GameObject {
   /**
    * Get spectators that are spectating this game
    *
-   * @return list of spectators
+   * @return the spectators
    */
-  public synchronized List<Player> getSpectators() {
+  public synchronized SpectatorTier getSpectators() {
     return this.spectators;
   }
 
@@ -290,13 +720,18 @@ public class Game extends GameObject {
    * @return the player object, or null if player was not found.
    */
   public synchronized Player getPlayerByName(String name) {
-    if (this.players == null)
-      return null;
-    for (Player p : this.players) {
-      if (p.getName().equalsIgnoreCase(name))
-        return p;
-    }
-    return null;
+    return this.playersByName.get(name.toUpperCase());
+  }
+
+  /**
+   * Get a player by session token.
+   *
+   * @param strToken
+   *          the token handed out when the player joined.
+   * @return the player object, or null if no player has that token.
+   */
+  public synchronized Player getPlayerByToken(String strToken) {
+    return this.playersByToken.get(strToken);
   }
 
   /**
@@ -307,19 +742,74 @@ public class Game extends GameObject {
    * @return the player object, or null if player was not found.
    */
   public synchronized Player getPlayerById(int id) {
-    if (this.players == null)
-      return null;
-    for (Player p : this.players) {
-      if (p.getID() == id)
-        return p;
-    }
-    if (this.spectators == null)
-      return null;
-    for (Player p : this.spectators) {
-      if (p.getID() == id)
-        return p;
-    }
-    return null;
+    return this.playersById.get(id);
+  }
+
+  /**
+   * Get a spectator by id.
+   *
+   * @param id
+   *          the id of the spectator to find, negative.
+   * @return the spectator, or null if spectator was not found.
+   */
+  public synchronized Spectator getSpectatorById(int id) {
+    return this.spectators.get(id);
+  }
+
+  /**
+   * Get the broadcaster for the current game.
+   *
+   * @return the broadcaster, or null if no game was started
+   */
+  public synchronized Broadcaster getBroadcaster() {
+    return this.broadcaster;
+  }
+
+  /**
+   * Get the version of what has been sent to the players.
+   *
+   * @return the state watch, the same for the whole life of the game object
+   */
+  public StateWatch getWatch() {
+    return this.watch;
+  }
+
+  /**
+   * Add an event stream watching this game.
+   *
+   * @param stream
+   *          the stream to send broadcasts to
+   */
+  public synchronized void addStream(EventStream stream) {
+    this.streams.add(stream);
+  }
+
+  /**
+   * Remove an event stream, e.g. once it is closed.
+   *
+   * @param stream
+   *          the stream to remove
+   */
+  public synchronized void removeStream(EventStream stream) {
+    this.streams.remove(stream);
+  }
+
+  /**
+   * Get the event streams watching this game.
+   *
+   * @return a copy of the list of streams
+   */
+  public synchronized List<EventStream> getStreams() {
+    return new ArrayList<EventStream>(this.streams);
+  }
+
+  /**
+   * Get the allocator for this game's ids.
+   *
+   * @return the id allocator
+   */
+  public synchronized IdAllocator getIds() {
+    return this.ids;
   }
 
   /**
@@ -339,13 +829,7 @@ public class Game extends GameObject {
    * @return the answer object, or null if answer was not found.
    */
   public synchronized Answer getAnswerById(int id) {
-    if (this.currentRound == null)
-      return null;
-    for (Answer a : this.currentRound.getAnswers()) {
-      if (a.getID() == id)
-        return a;
-    }
-    return null;
+    return this.answersById.get(id);
   }
 
   /**
@@ -356,13 +840,7 @@ public class Game extends GameObject {
    * @return the question object, or null if question was not found.
    */
   public synchronized Question getQuestionById(int id) {
-    if (this.currentRound == null)
-      return null;
-    for (Question q : this.currentRound.getQuestions()) {
-      if (q.getID() == id)
-        return q;
-    }
-    return null;
+    return this.questionsById.get(id);
   }
 
   /**
@@ -385,34 +863,113 @@ public class Game extends GameObject {
     this.gameui = gameui;
   }
 
+  /**
+   * Get the code of the room this game is hosted in
+   *
+   * @return the room code, empty for the local game
+   */
+  public String getRoomCode() {
+    return this.strRoomCode;
+  }
+
+  /**
+   * Set the code of the room this game is hosted in
+   *
+   * @param strRoomCode
+   *          the room code
+   */
+  public void setRoomCode(String strRoomCode) {
+    this.strRoomCode = strRoomCode;
+  }
+
   /**
    * @return the maxPlayers
    */
-  public static int getMaxPlayers() {
-    return maxPlayers;
+  public int getMaxPlayers() {
+    return this.nMaxPlayers;
   }
 
   /**
    * @param max
    *          the maxPlayers to set
    */
-  public static void setMaxPlayers(int max) {
-    maxPlayers = max;
+  public void setMaxPlayers(int max) {
+    this.nMaxPlayers = max;
   }
 
   /**
    * @return the minPlayers
    */
-  public static int getMinPlayers() {
-    return minPlayers;
+  public int getMinPlayers() {
+    return this.nMinPlayers;
   }
 
   /**
    * @param min
    *          the minPlayers to set
    */
-  public static void setMinPlayers(int min) {
-    minPlayers = min;
+  public void setMinPlayers(int min) {
+    this.nMinPlayers = min;
+  }
+
+  /**
+   * Get the number of players that answer each question
+   *
+   * @return the number of answers per question
+   */
+  public int getNumAnswers() {
+    return this.nNumAnswers;
+  }
+
+  /**
+   * Set the number of players that answer each question, used from the next
+   * round on
+   *
+   * @param nAnswers
+   *          the number of answers per question
+   */
+  public void setNumAnswers(int nAnswers) {
+    this.nNumAnswers = nAnswers;
+  }
+
+  /**
+   * Get how long to keep waiting once the time is up if some players have not
+   * answered or voted yet
+   *
+   * @return the extra wait time(in milliseconds)
+   */
+  public int getExtraWaitTime() {
+    return this.nExtraWaitTime;
+  }
+
+  /**
+   * Set how long to keep waiting once the time is up if some players have not
+   * answered or voted yet
+   *
+   * @param nExtraWaitTime
+   *          the extra wait time(in milliseconds)
+   */
+  public void setExtraWaitTime(int nExtraWaitTime) {
+    this.nExtraWaitTime = nExtraWaitTime;
+  }
+
+  /**
+   * Check whether or not to keep waiting on players that are disconnected
+   *
+   * @return true if disconnected players are waited on like everyone else
+   */
+  public boolean isWaitAbsent() {
+    return this.bWaitAbsent;
+  }
+
+  /**
+   * Set whether or not to keep waiting on players that are disconnected
+   *
+   * @param bWaitAbsent
+   *          false to stop waiting on a player as soon as it disconnects
+   */
+  public void setWaitAbsent(boolean bWaitAbsent) {
+    this.bWaitAbsent = bWaitAbsent;
   }
 
   /**
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.Map.Entry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import qinq.application.GamePane;
+
+/**
+ * GameDisplay
+ *
+ * What a game is showing: the state it is in and the info sent to the players
+ * and spectators about it. The info is kept here rather than on the window, so
+ * that games hosted in rooms can be played without one. If the game has a
+ * {@link GamePane} every change is shown on it as well.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class GameDisplay {
+  /**
+   * The game being displayed
+   */
+  private Game       game;
+  /**
+   * The window the game is shown on, null if it has none
+   */
+  private GamePane   pane;
+  /**
+   * The info sent to the players and spectators
+   */
+  private JSONObject info;
+  /**
+   * The state being displayed
+   */
+  private String     strState;
+  /**
+   * Incremented every time info changes
+   */
+  private long       nVersion;
+  /**
+   * Info encoded, for the version and time below
+   */
+  private Frame      frame;
+  /**
+   * Version of the encoded info
+   */
+  private long       nFrameVersion;
+  /**
+   * Time left when the info was encoded
+   */
+  private int        nFrameTime;
+
+  /**
+   * Create the display of a game
+   *
+   * @param game
+   *          the game being displayed
+   * @param pane
+   *          the window to show the game on, or null to play without one
+   */
+  public GameDisplay(Game game, GamePane pane) {
+    this.game = game;
+    this.pane = pane;
+    this.strState = "Answering";
+    this.nVersion = 0;
+    this.info = new JSONObject();
+    this.info.put("action", "info");
+    this.info.put("info", "none");
+  }
+
+  /**
+   * Show the time left and who is being waited on, does nothing without a
+   * window since the info is built when it is sent
+   */
+  public void refresh() {
+    if (this.pane != null)
+      this.pane.refresh();
+  }
+
+  /**
+   * Mark the info as changed(e.g. a player has answered), so that it is
+   * encoded again the next time it is needed.
+   */
+  public synchronized void invalidate() {
+    this.nVersion++;
+  }
+
+  /**
+   * Get the version of the info, incremented every time it changes
+   *
+   * @return the version of the info
+   */
+  public synchronized long getVersion() {
+    return this.nVersion;
+  }
+
+  /**
+   * Get the info encoded as a frame, it is only encoded again if the info or
+   * the time left has changed since the last call.
+   *
+   * @return the encoded info
+   */
+  public synchronized Frame getFrame() {
+    Round round = this.game.getRound();
+    int time = round != null ? round.getTime() : 0;
+    if (this.frame != null && this.nFrameVersion == this.nVersion
+        && this.nFrameTime == time)
+      return this.frame;
+
+    if (this.strState.equalsIgnoreCase("Answering")) {
+      this.info = new JSONObject();
+      this.info.put("action", "info");
+      this.info.put("info", "answering");
+      JSONArray jsonPlayers = new JSONArray();
+      for (Player p : this.game.getPlayers()) {
+        if (p.getAnswers().size() > 0) {
+          JSONObject jsonPlayer = new JSONObject();
+          jsonPlayer.put("name", p.getName());
+          jsonPlayer.put("color", p.getColor());
+          jsonPlayers.put(jsonPlayer);
+        }
+      }
+      this.info.put("players", jsonPlayers);
+    }
+    if (round != null)
+      this.info.put("time", time);
+
+    this.frame = new Frame(this.info);
+    this.nFrameVersion = this.nVersion;
+    this.nFrameTime = time;
+    return this.frame;
+  }
+
+  /**
+   * Get the info as json
+   *
+   * @return the info, as last encoded
+   */
+  public synchronized JSONObject getJson() {
+    this.getFrame();
+    return this.info;
+  }
+
+  /**
+   * Change the state being displayed, building the info for it
+   *
+   * @param state
+   *          one of "Answering", "Voting", "Question Results" or "Round
+   *          Results"
+   */
+  public void changeState(String state) {
+    synchronized (this) {
+      this.strState = state;
+      this.nVersion++;
+      if (state.equalsIgnoreCase("Question Results"))
+        this.info = this.questionResults(this.game.getRound().getQuestion());
+      else if (state.equalsIgnoreCase("Round Results"))
+        this.info = this.roundResults();
+      else if (state.equalsIgnoreCase("Voting")) {
+        this.info = new JSONObject();
+        this.info.put("action", "info");
+        this.info.put("info", "none");
+      }
+    }
+    if (this.pane != null)
+      this.pane.changeState(state);
+  }
+
+  /**
+   * Build the info for a question's results, working the results out first
+   *
+   * @param question
+   *          the question that was voted on
+   * @return the info
+   */
+  private JSONObject questionResults(Question question) {
+    JSONObject jsonInfo = new JSONObject();
+    jsonInfo.put("action", "info");
+    jsonInfo.put("info", "question");
+    jsonInfo.put("question", question.getQuestion());
+
+    question.calcResults(this.game.getPlayers().size());
+
+    JSONObject jsonPlayer;
+    JSONObject jsonAnswer;
+    JSONArray jsonVotes;
+    JSONArray jsonAnswers = new JSONArray();
+    for (Answer answer : question.getAnswers()) {
+      jsonAnswer = new JSONObject();
+      jsonPlayer = new JSONObject();
+      jsonVotes = new JSONArray();
+
+      jsonPlayer.put("name", answer.getPlayer().getName());
+      jsonPlayer.put("color", answer.getPlayer().getColor());
+
+      jsonAnswer.put("player", jsonPlayer);
+      jsonAnswer.put("answer", answer.getAnswer());
+      jsonAnswer.put("score", answer.getScoreStr());
+
+      for (Entry<Player, Integer> vote : answer.getVotes().entrySet()) {
+        jsonPlayer = new JSONObject();
+        jsonPlayer.put("value", String.format("%s - %d",
+            vote.getKey().getName(), vote.getValue()));
+        jsonPlayer.put("color", vote.getKey().getColor());
+        jsonVotes.put(jsonPlayer);
+      }
+      if (answer.getAudienceVotes() > 0) {
+        jsonPlayer = new JSONObject();
+        jsonPlayer.put("value",
+            String.format("%s - %d (%d%%)", Spectator.NAME.toUpperCase(),
+                answer.getAudienceVotes(), question.getAudienceShare(answer)));
+        jsonPlayer.put("color", Spectator.COLOR);
+        jsonVotes.put(jsonPlayer);
+      }
+      jsonAnswer.put("votes", jsonVotes);
+      jsonAnswers.put(jsonAnswer);
+    }
+    jsonInfo.put("answers", jsonAnswers);
+    return jsonInfo;
+  }
+
+  /**
+   * Build the info for a round's results
+   *
+   * @return the info
+   */
+  private JSONObject roundResults() {
+    JSONObject jsonInfo = new JSONObject();
+    jsonInfo.put("action", "info");
+    jsonInfo.put("info", "round");
+    JSONArray jsonPlayers = new JSONArray();
+    for (Player p : this.game.getPlayers()) {
+      JSONObject player = new JSONObject();
+      player.put("name", String.format("%s - %d", p.getName(), p.getPoints()));
+      player.put("color", p.getColor());
+      jsonPlayers.put(player);
+    }
+    jsonInfo.put("players", jsonPlayers);
+    return jsonInfo;
+  }
+}
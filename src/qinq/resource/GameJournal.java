@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * GameJournal
+ *
+ * Keeps enough of a game on disk to carry on after the program dies. At the
+ * start of every phase a snapshot of the whole game replaces the previous one
+ * and the journal is emptied, every change made during the phase(answers,
+ * votes) is then appended to the journal. Recovering reads one snapshot and at
+ * most one phase worth of changes, however long the game has been going.
+ *
+ * <p>
+ * Everything is written on a thread of its own. Changes that arrive together
+ * are written together and synced to disk once, so players never wait on the
+ * disk and a burst of votes costs one sync. If a write fails the journal stops,
+ * the game goes on without it and what is on disk is left as it was.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class GameJournal {
+  /**
+   * Marks the end of the game, the files are deleted once it is reached
+   */
+  private static final Object   FINISH  = new Object();
+  /**
+   * Snapshot of the game, replaced at every phase
+   */
+  private File                  snapshot;
+  /**
+   * Changes since the snapshot, one JSON object per line
+   */
+  private File                  journal;
+  /**
+   * Lines and snapshots waiting to be written, in order
+   */
+  private BlockingQueue<Object> queue;
+  /**
+   * Number of snapshots taken, every record is stamped with it so that
+   * records left over from before the last snapshot are never replayed
+   */
+  private long                  nSerial;
+  /**
+   * Set once the writer has failed, nothing is queued after that
+   */
+  private boolean               bFailed;
+  /**
+   * Whether or not new games are journaled
+   */
+  private static boolean        enabled = true;
+
+  /**
+   * Start a journal for a game, replacing any left over. A game that was
+   * resumed passes its state, which is written before the old journal is
+   * emptied, so there is always something to resume from.
+   *
+   * @param strRoom
+   *          code of the game's room, empty for the local game
+   * @param state
+   *          the first snapshot, null for a new game
+   * @throws IOException
+   *           if the journal can not be created
+   */
+  public GameJournal(String strRoom, JSONObject state) throws IOException {
+    File dir = GameJournal.getDir();
+    if (!dir.exists() && !dir.mkdirs())
+      throw new IOException("Can not create " + dir);
+    this.snapshot = GameJournal.getSnapshotFile(strRoom);
+    this.journal = GameJournal.getJournalFile(strRoom);
+    this.queue = new LinkedBlockingQueue<Object>();
+    this.nSerial = 0;
+    this.bFailed = false;
+    if (state == null)
+      Files.deleteIfExists(this.snapshot.toPath());
+    else
+      this.writeSnapshot(state.put("serial", ++this.nSerial));
+    FileChannel channel = FileChannel.open(this.journal.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+
+    Thread thread = new Thread(() -> this.run(channel),
+        "qinq-journal-" + (strRoom.isEmpty() ? "local" : strRoom));
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Append a change to the journal
+   *
+   * @param record
+   *          the change
+   */
+  public void record(JSONObject record) {
+    synchronized (this.queue) {
+      if (this.bFailed)
+        return;
+      record.put("serial", this.nSerial);
+      this.queue.add(record.toString() + "\n");
+    }
+  }
+
+  /**
+   * Replace the snapshot and empty the journal. The snapshot is taken while no
+   * change can be recorded, so every change is either in the snapshot or
+   * recorded after it.
+   *
+   * @param state
+   *          builds the snapshot
+   */
+  public void snapshot(Supplier<JSONObject> state) {
+    synchronized (this.queue) {
+      if (this.bFailed)
+        return;
+      this.queue.add(state.get().put("serial", ++this.nSerial));
+    }
+  }
+
+  /**
+   * The game ended normally, delete the journal once everything queued is
+   * written
+   */
+  public void finish() {
+    synchronized (this.queue) {
+      if (!this.bFailed) {
+        this.queue.add(GameJournal.FINISH);
+        return;
+      }
+    }
+    try {
+      this.delete();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Write queued lines and snapshots until the game ends
+   *
+   * @param channel
+   *          the journal, open for writing
+   */
+  private void run(FileChannel channel) {
+    List<Object> batch = new ArrayList<Object>();
+    try {
+      while (true) {
+        batch.clear();
+        batch.add(this.queue.take());
+        this.queue.drainTo(batch);
+        for (Object item : batch) {
+          if (item == GameJournal.FINISH) {
+            channel.close();
+            this.delete();
+            return;
+          }
+          else if (item instanceof JSONObject) {
+            channel.force(false);
+            this.writeSnapshot((JSONObject) item);
+            channel.truncate(0);
+          }
+          else {
+            ByteBuffer bytes = ByteBuffer
+                .wrap(((String) item).getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining())
+              channel.write(bytes);
+          }
+        }
+        channel.force(false);
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      this.fail(channel, batch);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stop journaling after a failed write, throwing away whatever is still
+   * queued. The files are only deleted if the game has ended.
+   *
+   * @param channel
+   *          the journal
+   * @param batch
+   *          the lines and snapshots that were being written
+   */
+  private void fail(FileChannel channel, List<Object> batch) {
+    boolean bFinished = batch.contains(GameJournal.FINISH);
+    synchronized (this.queue) {
+      this.bFailed = true;
+      bFinished |= this.queue.contains(GameJournal.FINISH);
+      this.queue.clear();
+    }
+    try {
+      channel.close();
+      if (bFinished)
+        this.delete();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Delete the snapshot and the journal
+   *
+   * @throws IOException
+   *           if one of them can not be deleted
+   */
+  private void delete() throws IOException {
+    Files.deleteIfExists(this.snapshot.toPath());
+    Files.deleteIfExists(this.journal.toPath());
+  }
+
+  /**
+   * Write a snapshot to a temporary file and move it over the old one, so
+   * there always is one whole snapshot on disk
+   *
+   * @param state
+   *          the snapshot
+   * @throws IOException
+   *           if it can not be written
+   */
+  private void writeSnapshot(JSONObject state) throws IOException {
+    File tmp = new File(this.snapshot.getPath() + ".tmp");
+    try (FileChannel out = FileChannel.open(tmp.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer bytes =
+          ByteBuffer.wrap(state.toString().getBytes(StandardCharsets.UTF_8));
+      while (bytes.hasRemaining())
+        out.write(bytes);
+      out.force(true);
+    }
+    Files.move(tmp.toPath(), this.snapshot.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read what is left of a game that did not end
+   *
+   * @param strRoom
+   *          code of the game's room, empty for the local game
+   * @return the game's last snapshot and the changes since, or null if there
+   *         is nothing to recover
+   */
+  public static Recovery load(String strRoom) {
+    File snapshot = GameJournal.getSnapshotFile(strRoom);
+    File journal = GameJournal.getJournalFile(strRoom);
+    if (!snapshot.isFile())
+      return null;
+    try {
+      JSONObject state = new JSONObject(new String(
+          Files.readAllBytes(snapshot.toPath()), StandardCharsets.UTF_8));
+      List<JSONObject> records = new ArrayList<JSONObject>();
+      if (journal.isFile()) {
+        try (BufferedReader br = Files.newBufferedReader(journal.toPath(),
+            StandardCharsets.UTF_8)) {
+          String line;
+          while ((line = br.readLine()) != null) {
+            try {
+              JSONObject record = new JSONObject(line);
+              if (record.optLong("serial", -1) == state.optLong("serial", 0))
+                records.add(record);
+            }
+            catch (JSONException e) { // Torn last write, nothing after it
+              break;
+            }
+          }
+        }
+      }
+      return new Recovery(state, records);
+    }
+    catch (IOException | JSONException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Throw away what is left of a game that did not end
+   *
+   * @param strRoom
+   *          code of the game's room, empty for the local game
+   */
+  public static void discard(String strRoom) {
+    try {
+      Files.deleteIfExists(GameJournal.getSnapshotFile(strRoom).toPath());
+      Files.deleteIfExists(GameJournal.getJournalFile(strRoom).toPath());
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Get the directory journals are kept in
+   *
+   * @return the directory, in the logs directory
+   */
+  private static File getDir() {
+    return new File(Game.getLogsDir(), "journal");
+  }
+
+  /**
+   * Get a game's snapshot file
+   *
+   * @param strRoom
+   *          code of the game's room
+   * @return the file
+   */
+  private static File getSnapshotFile(String strRoom) {
+    return new File(GameJournal.getDir(),
+        (strRoom.isEmpty() ? "local" : strRoom) + ".snapshot");
+  }
+
+  /**
+   * Get a game's journal file
+   *
+   * @param strRoom
+   *          code of the game's room
+   * @return the file
+   */
+  private static File getJournalFile(String strRoom) {
+    return new File(GameJournal.getDir(),
+        (strRoom.isEmpty() ? "local" : strRoom) + ".journal");
+  }
+
+  /**
+   * Check whether or not new games are journaled
+   *
+   * @return true if they are
+   */
+  public static boolean isEnabled() {
+    return GameJournal.enabled;
+  }
+
+  /**
+   * Set whether or not new games are journaled
+   *
+   * @param enabled
+   *          true to journal new games
+   */
+  public static void setEnabled(boolean enabled) {
+    GameJournal.enabled = enabled;
+  }
+
+  /**
+   * Recovery
+   *
+   * What was read back from a game's journal.
+   *
+   * @author az
+   * @version 1.0, 2016-06-20
+   */
+  public static class Recovery {
+    /**
+     * The last snapshot
+     */
+    private JSONObject       snapshot;
+    /**
+     * Changes made after the snapshot, in order
+     */
+    private List<JSONObject> records;
+
+    /**
+     * @param snapshot
+     *          the last snapshot
+     * @param records
+     *          changes made after it
+     */
+    public Recovery(JSONObject snapshot, List<JSONObject> records) {
+      this.snapshot = snapshot;
+      this.records = records;
+    }
+
+    /**
+     * Get the last snapshot
+     *
+     * @return the snapshot
+     */
+    public JSONObject getSnapshot() {
+      return this.snapshot;
+    }
+
+    /**
+     * Get the changes made after the snapshot
+     *
+     * @return the changes, in order
+     */
+    public List<JSONObject> getRecords() {
+      return this.records;
+    }
+  }
+}
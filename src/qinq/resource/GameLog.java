@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * GameLog
+ *
+ * The XML log of one game, written to disk on a thread of its own. Each part
+ * of the log(the header, a round's results) is built in memory by the game
+ * and queued as a whole, so the game never waits on the disk.
+ *
+ * <p>
+ * If the queue is full the newest part is dropped, and a comment saying how
+ * many were dropped is written in its place. Parts are whole elements, so the
+ * log stays well formed. Logs still open when the program exits are flushed
+ * and closed by a shutdown hook.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class GameLog {
+  /**
+   * Parts of the log waiting to be written
+   */
+  private BlockingQueue<String> queue;
+  /**
+   * Number of parts dropped since the last comment about it
+   */
+  private AtomicInteger         nDropped;
+  /**
+   * Total number of parts dropped
+   */
+  private AtomicInteger         nTotalDropped;
+  /**
+   * Whether or not the game has ended, once the queue is empty the log is
+   * closed
+   */
+  private volatile boolean      closed;
+  /**
+   * Writes the queued parts to the file
+   */
+  private Thread                thread;
+  /**
+   * Logs that are still open
+   */
+  private static Set<GameLog>   open    = new HashSet<GameLog>();
+  /**
+   * Whether or not the shutdown hook has been added
+   */
+  private static boolean        bHooked = false;
+  /**
+   * Maximum number of parts waiting to be written
+   */
+  private static int            nQueue  = 1024;
+  /**
+   * Whether or not new logs are gzip compressed
+   */
+  private static boolean        bGzip   = false;
+
+  /**
+   * Open a log and start writing to it
+   *
+   * @param file
+   *          the file to write, ".gz" is added when compressing
+   * @param header
+   *          the start of the log, up to and including the opening rounds tag
+   * @throws IOException
+   *           if the file can not be opened
+   */
+  public GameLog(File file, String header) throws IOException {
+    this.queue = new ArrayBlockingQueue<String>(Math.max(1, GameLog.nQueue));
+    this.nDropped = new AtomicInteger();
+    this.nTotalDropped = new AtomicInteger();
+    this.closed = false;
+
+    OutputStream stream;
+    if (GameLog.bGzip)
+      stream = new GZIPOutputStream(
+          new FileOutputStream(new File(file.getPath() + ".gz")), 8192);
+    else
+      stream = new FileOutputStream(file);
+    Writer out = new BufferedWriter(
+        new OutputStreamWriter(stream, StandardCharsets.UTF_8), 8192);
+    this.queue.add(header);
+
+    this.thread =
+        new Thread(() -> this.run(out), "qinq-log-" + file.getName());
+    this.thread.setDaemon(true);
+    GameLog.register(this);
+    this.thread.start();
+  }
+
+  /**
+   * Queue part of the log, built in memory on the calling thread
+   *
+   * @param part
+   *          writes the part, e.g. {@link Round#saveResults(XMLStreamWriter)}
+   * @return false if the part was dropped
+   */
+  public boolean write(Part part) {
+    if (this.closed)
+      return false;
+    StringWriter text = new StringWriter();
+    try {
+      XMLStreamWriter writer =
+          XMLOutputFactory.newInstance().createXMLStreamWriter(text);
+      part.write(writer);
+      writer.writeCharacters(""); // Close the last start tag, if left open
+      writer.flush();
+    }
+    catch (XMLStreamException e) {
+      e.printStackTrace();
+      return false;
+    }
+    if (this.queue.offer(text.toString()))
+      return true;
+    this.nDropped.incrementAndGet();
+    this.nTotalDropped.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * End the log, the rest of the queue is written and the file closed in the
+   * background
+   */
+  public void close() {
+    this.closed = true;
+  }
+
+  /**
+   * Wait for the log to be written and closed
+   *
+   * @param lMillis
+   *          how long to wait at most
+   */
+  public void await(long lMillis) {
+    try {
+      this.thread.join(lMillis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Get the number of parts dropped because the queue was full
+   *
+   * @return the number of dropped parts
+   */
+  public int getDropped() {
+    return this.nTotalDropped.get();
+  }
+
+  /**
+   * Write queued parts until the log is closed and the queue is empty
+   *
+   * @param out
+   *          the open file
+   */
+  private void run(Writer out) {
+    try (Writer writer = out) {
+      while (true) {
+        String text = this.queue.poll(100, TimeUnit.MILLISECONDS);
+        int nDropped = this.nDropped.getAndSet(0);
+        if (nDropped > 0)
+          writer.write(String.format(
+              "\n    <!-- %d log entries dropped, queue full -->", nDropped));
+        if (text != null) {
+          writer.write(text);
+          continue;
+        }
+        if (this.closed && this.queue.isEmpty()) {
+          writer.write("\n  </rounds>\n</game>");
+          break;
+        }
+        writer.flush(); // Nothing waiting, make what we have safe
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      GameLog.unregister(this);
+    }
+  }
+
+  /**
+   * Keep track of an open log, adding the shutdown hook on first use
+   *
+   * @param log
+   *          the log that was opened
+   */
+  private static synchronized void register(GameLog log) {
+    GameLog.open.add(log);
+    if (!GameLog.bHooked) {
+      GameLog.bHooked = true;
+      Runtime.getRuntime().addShutdownHook(
+          new Thread(GameLog::closeAll, "qinq-log-shutdown"));
+    }
+  }
+
+  /**
+   * Forget a log that was closed
+   *
+   * @param log
+   *          the log that was closed
+   */
+  private static synchronized void unregister(GameLog log) {
+    GameLog.open.remove(log);
+  }
+
+  /**
+   * Close every open log and wait(a little) for them to be written
+   */
+  public static void closeAll() {
+    Set<GameLog> logs;
+    synchronized (GameLog.class) {
+      logs = new HashSet<GameLog>(GameLog.open);
+    }
+    for (GameLog log : logs)
+      log.close();
+    for (GameLog log : logs)
+      log.await(2000);
+  }
+
+  /**
+   * Get the maximum number of log parts waiting to be written
+   *
+   * @return the size of the queue
+   */
+  public static int getQueue() {
+    return GameLog.nQueue;
+  }
+
+  /**
+   * Set the maximum number of log parts waiting to be written, for new logs
+   *
+   * @param nQueue
+   *          the size of the queue
+   */
+  public static void setQueue(int nQueue) {
+    GameLog.nQueue = nQueue;
+  }
+
+  /**
+   * Check whether or not new logs are gzip compressed
+   *
+   * @return true if they are
+   */
+  public static boolean isGzip() {
+    return GameLog.bGzip;
+  }
+
+  /**
+   * Set whether or not new logs are gzip compressed
+   *
+   * @param bGzip
+   *          true to compress new logs
+   */
+  public static void setGzip(boolean bGzip) {
+    GameLog.bGzip = bGzip;
+  }
+
+  /**
+   * Part
+   *
+   * Writes one part of a log.
+   *
+   * @author az
+   * @version 1.0, 2016-06-20
+   */
+  public interface Part {
+    /**
+     * Write the part
+     *
+     * @param writer
+     *          where to write it
+     * @throws XMLStreamException
+     *           if it can not be written
+     */
+    void write(XMLStreamWriter writer) throws XMLStreamException;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * GroupingBenchmark
+ *
+ * Times grouping 10 up to 5,000 players for a round's questions, to check
+ * that {@link Round#group(List, int, Random)} grows linearly with the number
+ * of players. Every grouping is checked as well: each player must answer
+ * exactly as many questions as there are answers per question, never twice
+ * in one group, and(where there are enough players) never with the same
+ * partner twice. Exits with 1 if a grouping is wrong.
+ *
+ * <pre>
+ * java -cp qinq.jar qinq.resource.GroupingBenchmark [answers] [groupings]
+ *     [seed]
+ * </pre>
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class GroupingBenchmark {
+  /**
+   * Numbers of players to time the grouping with
+   */
+  private static final int[] SIZES = { 10, 100, 500, 1000, 5000 };
+
+  public static void main(String[] args) {
+    int nAnswers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+    int nGroupings = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    long lSeed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+    System.out.printf("%8s %12s %12s%n", "players", "us/grouping",
+        "ns/player");
+    for (int n : GroupingBenchmark.SIZES) {
+      List<Player> players = new ArrayList<Player>(n);
+      for (int i = 0; i < n; i++)
+        players.add(new Player(i + 1, "P" + i, "bench"));
+
+      String strError = GroupingBenchmark.check(players,
+          Round.group(players, nAnswers, new Random(lSeed)), nAnswers);
+      if (strError != null) {
+        System.out.printf("%8d %s%n", n, strError);
+        System.exit(1);
+      }
+
+      Random random = new Random(lSeed);
+      for (int i = 0; i < nGroupings; i++) // Warm up
+        Round.group(players, nAnswers, random);
+      int nGroups = 0; // Used, so the grouping is not optimised away
+      long lStart = System.nanoTime();
+      for (int i = 0; i < nGroupings; i++)
+        nGroups += Round.group(players, nAnswers, random).size();
+      long lTime = System.nanoTime() - lStart;
+      if (nGroups != n * nGroupings)
+        throw new IllegalStateException("Grouping lost a player");
+      System.out.printf("%8d %12.1f %12.1f%n", n,
+          lTime / 1000.0 / nGroupings, (double) lTime / nGroupings / n);
+    }
+  }
+
+  /**
+   * Check a grouping
+   *
+   * @param players
+   *          the players that were grouped
+   * @param groups
+   *          the groups they were put in
+   * @param nAnswers
+   *          the number of players asked for in each group
+   * @return what is wrong with the grouping, or null if nothing is
+   */
+  private static String check(List<Player> players, List<Player[]> groups,
+      int nAnswers) {
+    int n = players.size();
+    int k = Math.min(nAnswers, n);
+    if (groups.size() != n)
+      return String.format("%d groups, expected %d", groups.size(), n);
+
+    int[] counts = new int[n + 1]; // Ids start at 1
+    Set<Long> pairs = new HashSet<Long>();
+    boolean bRepeats = false;
+    for (Player[] group : groups) {
+      if (group.length != k)
+        return String.format("group of %d, expected %d", group.length, k);
+      for (int a = 0; a < k; a++) {
+        counts[group[a].getID()]++;
+        for (int b = a + 1; b < k; b++) {
+          int nLow = Math.min(group[a].getID(), group[b].getID());
+          int nHigh = Math.max(group[a].getID(), group[b].getID());
+          if (nLow == nHigh)
+            return String.format("%s twice in one group", group[a].getName());
+          bRepeats |= !pairs.add((long) nLow * (n + 1) + nHigh);
+        }
+      }
+    }
+    for (Player p : players)
+      if (counts[p.getID()] != k)
+        return String.format("%s answers %d questions, expected %d",
+            p.getName(), counts[p.getID()], k);
+    if (bRepeats && (long) k * (k - 1) < n)
+      return "two players share more than one question";
+    return null;
+  }
+}
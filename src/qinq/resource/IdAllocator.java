@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IdAllocator
+ *
+ * Hands out the ids of the players, spectators, questions and answers of a
+ * {@link Game}. Ids are dense:
+ * <ul>
+ * <li>players: 1, 2, 3...</li>
+ * <li>spectators: -1, -2, -3...</li>
+ * <li>questions and answers: 0, 1, 2...</li>
+ * </ul>
+ * Ids start again from the beginning for every game played, so they stay
+ * small. Each game gets a new generation number instead: a client is given
+ * the generation along with its id, and an id that comes back with an older
+ * generation is from a game that is over and is not looked up.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class IdAllocator {
+  /**
+   * Number of player ids handed out
+   */
+  private AtomicInteger nPlayers;
+  /**
+   * Number of spectator ids handed out
+   */
+  private AtomicInteger nSpectators;
+  /**
+   * Number of question ids handed out
+   */
+  private AtomicInteger nQuestions;
+  /**
+   * Number of answer ids handed out
+   */
+  private AtomicInteger nAnswers;
+  /**
+   * Number of times the ids were started again
+   */
+  private volatile int  nGeneration;
+
+  /**
+   * Create an allocator with no ids handed out
+   */
+  public IdAllocator() {
+    this.nPlayers = new AtomicInteger();
+    this.nSpectators = new AtomicInteger();
+    this.nQuestions = new AtomicInteger();
+    this.nAnswers = new AtomicInteger();
+    this.nGeneration = 0;
+  }
+
+  /**
+   * Start every id again from the beginning, for a new game
+   */
+  public synchronized void reset() {
+    this.nPlayers.set(0);
+    this.nSpectators.set(0);
+    this.nQuestions.set(0);
+    this.nAnswers.set(0);
+    this.nGeneration++;
+  }
+
+  /**
+   * Get an id for a new player
+   *
+   * @return a positive id
+   */
+  public int nextPlayerId() {
+    return this.nPlayers.incrementAndGet();
+  }
+
+  /**
+   * Get an id for a new spectator
+   *
+   * @return a negative id
+   */
+  public int nextSpectatorId() {
+    return -this.nSpectators.incrementAndGet();
+  }
+
+  /**
+   * Get an id for a new question
+   *
+   * @return a non-negative id
+   */
+  public int nextQuestionId() {
+    return this.nQuestions.getAndIncrement();
+  }
+
+  /**
+   * Get an id for a new answer
+   *
+   * @return a non-negative id
+   */
+  public int nextAnswerId() {
+    return this.nAnswers.getAndIncrement();
+  }
+
+  /**
+   * Carry on from ids handed out before, e.g. by a game being restored
+   *
+   * @param nGeneration
+   *          the generation the ids were handed out in
+   * @param nPlayers
+   *          the number of player ids handed out
+   * @param nQuestions
+   *          the number of question ids handed out
+   * @param nAnswers
+   *          the number of answer ids handed out
+   */
+  public synchronized void restore(int nGeneration, int nPlayers,
+      int nQuestions, int nAnswers) {
+    this.nGeneration = nGeneration;
+    this.nPlayers.set(nPlayers);
+    this.nQuestions.set(nQuestions);
+    this.nAnswers.set(nAnswers);
+  }
+
+  /**
+   * Get the generation of the ids being handed out
+   *
+   * @return the number of times the ids were started again
+   */
+  public int getGeneration() {
+    return this.nGeneration;
+  }
+
+  /**
+   * Check whether or not an id sent by a client is from the current game
+   *
+   * @param nGeneration
+   *          the generation the client was given
+   * @return true if ids from the client can be looked up
+   */
+  public boolean isCurrent(int nGeneration) {
+    return this.nGeneration == nGeneration;
+  }
+
+  /**
+   * Get the number of player ids handed out(also the largest player id)
+   *
+   * @return the number of players
+   */
+  public int getPlayers() {
+    return this.nPlayers.get();
+  }
+
+  /**
+   * Get the number of spectator ids handed out
+   *
+   * @return the number of spectators
+   */
+  public int getSpectators() {
+    return this.nSpectators.get();
+  }
+
+  /**
+   * Get the number of question ids handed out
+   *
+   * @return the number of questions
+   */
+  public int getQuestions() {
+    return this.nQuestions.get();
+  }
+
+  /**
+   * Get the number of answer ids handed out
+   *
+   * @return the number of answers
+   */
+  public int getAnswers() {
+    return this.nAnswers.get();
+  }
+}
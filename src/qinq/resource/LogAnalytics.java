@@ -0,0 +1,787 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * LogAnalytics
+ *
+ * Totals over every game log in the logs directory, written as CSV:
+ * <ul>
+ * <li>players.csv: games, wins, points, answers and votes received per player
+ * name</li>
+ * <li>questions.csv: times served, answer rate and votes per question</li>
+ * <li>scores.csv: how many final scores fall in each score range</li>
+ * </ul>
+ *
+ * <p>
+ * Logs(plain or gzip compressed) are parsed in parallel on a fork/join pool,
+ * each one streamed through StAX so no log is ever held in memory. The totals
+ * of every log are kept in an index next to the CSV files together with its
+ * name, size and time, so the next run only parses logs that are new or have
+ * changed(e.g. a game that was still being written), and drops the totals of
+ * logs that are gone.
+ *
+ * <pre>
+ * java -cp qinq.jar qinq.resource.LogAnalytics [logs dir] [out dir]
+ * </pre>
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class LogAnalytics {
+  /**
+   * Name of the index, in the output directory
+   */
+  public static final String                  INDEX   = "index.bin";
+  /**
+   * A StAX factory per thread, factories are not guaranteed to be thread safe
+   */
+  private static ThreadLocal<XMLInputFactory> factory =
+      ThreadLocal.withInitial(LogAnalytics::newFactory);
+  /**
+   * Width of each score range in scores.csv
+   */
+  private static int                          nBucket = 500;
+  /**
+   * Number of logs parsed by one task before it stops splitting
+   */
+  private static int                          nBatch  = 16;
+
+  /**
+   * Bring the totals for a logs directory up to date and write them as CSV
+   *
+   * @param logs
+   *          the directory the game logs are in
+   * @param out
+   *          the directory to write the CSV files and index to
+   * @return the totals
+   * @throws IOException
+   *           if the output can not be written
+   */
+  public static Stats analyze(File logs, File out) throws IOException {
+    if (!out.exists() && !out.mkdirs())
+      throw new IOException("Can not create " + out);
+    File[] found = logs.listFiles((dir, strName) -> strName.endsWith(".log")
+        || strName.endsWith(".log.gz"));
+    if (found == null)
+      throw new IOException("Can not read " + logs);
+
+    Index index = LogAnalytics.readIndex(new File(out, LogAnalytics.INDEX));
+    if (index == null)
+      index = new Index();
+
+    // Keep the totals of logs that have not changed, logs that are gone are
+    // dropped with the old index
+    Map<String, Counted> files = new HashMap<String, Counted>();
+    List<File> fresh = new ArrayList<File>();
+    for (File log : found) {
+      Counted counted = index.files.get(log.getName());
+      if (counted == null || !counted.isSame(log)) {
+        counted = new Counted(log); // Size and time from before it is read
+        fresh.add(log);
+      }
+      files.put(log.getName(), counted);
+    }
+    Stats[] parsed = new Stats[fresh.size()];
+    ForkJoinPool.commonPool().invoke(new Parse(
+        fresh.toArray(new File[fresh.size()]), parsed, 0, fresh.size()));
+    for (int i = 0; i < parsed.length; i++)
+      files.get(fresh.get(i).getName()).stats = parsed[i];
+    index.files = files;
+
+    Stats stats = new Stats();
+    for (Counted counted : files.values())
+      stats.merge(counted.stats);
+    LogAnalytics.writeIndex(new File(out, LogAnalytics.INDEX), index);
+    LogAnalytics.writeCsv(stats, out);
+    return stats;
+  }
+
+  /**
+   * Parse one game log, a log that ends early(e.g. the game was cut short)
+   * counts for as much of it as was written
+   *
+   * @param log
+   *          the log, gzip compressed if its name ends in ".gz"
+   * @return the totals for this one game
+   */
+  public static Stats parse(File log) {
+    Stats stats = new Stats();
+    Played game = new Played();
+    try (InputStream in = LogAnalytics.open(log)) {
+      XMLStreamReader reader =
+          LogAnalytics.factory.get().createXMLStreamReader(in);
+      try {
+        LogAnalytics.read(reader, game);
+      }
+      finally {
+        reader.close();
+      }
+    }
+    catch (IOException | XMLStreamException e) {
+      stats.nBroken++;
+    }
+    stats.nFiles++;
+    game.addTo(stats);
+    return stats;
+  }
+
+  /**
+   * Create a StAX factory for reading logs
+   *
+   * @return the factory
+   */
+  private static XMLInputFactory newFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+
+  /**
+   * Open a log, decompressing it if needed
+   *
+   * @param log
+   *          the log
+   * @return the stream of XML
+   * @throws IOException
+   *           if the log can not be read
+   */
+  private static InputStream open(File log) throws IOException {
+    InputStream in =
+        new BufferedInputStream(new FileInputStream(log), 64 * 1024);
+    if (log.getName().endsWith(".gz"))
+      return new GZIPInputStream(in, 64 * 1024);
+    return in;
+  }
+
+  /**
+   * Stream through a log, collecting one game
+   *
+   * @param reader
+   *          the log
+   * @param game
+   *          where the game is collected
+   * @throws XMLStreamException
+   *           if the log is not well formed, what was read is kept
+   */
+  private static void read(XMLStreamReader reader, Played game)
+      throws XMLStreamException {
+    Deque<String> path = new ArrayDeque<String>();
+    String strId = null; // player-id of the element being read
+    StringBuilder text = new StringBuilder();
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          String strElement = reader.getLocalName();
+          String strParent = path.peek();
+          path.push(strElement);
+          text.setLength(0);
+          if (strElement.equals("player") || strElement.equals("answer")
+              || strElement.equals("vote"))
+            strId = reader.getAttributeValue(null,
+                strParent != null && strParent.equals("players") ? "id"
+                    : "player-id");
+          if (strElement.equals("question"))
+            game.question = new Asked();
+          else if (strElement.equals("answer") && game.question != null)
+            game.question.answers.add(game.answer = new Given(strId));
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+          text.append(reader.getText());
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          String strEnd = path.pop();
+          String strIn = path.peek();
+          if (strIn == null)
+            break;
+          String strText = text.toString().trim();
+          text.setLength(0);
+          if (strEnd.equals("player") && strIn.equals("players"))
+            game.names.put(strId, strText);
+          else if (strEnd.equals("player") && strIn.equals("scores"))
+            game.points.put(strId, LogAnalytics.toInt(strText));
+          else if (strEnd.equals("value") && strIn.equals("question"))
+            game.question.strText = strText;
+          else if (strEnd.equals("value") && strIn.equals("answer"))
+            game.answer.bAnswered = !strText.isEmpty();
+          else if (strEnd.equals("vote") && game.answer != null)
+            game.answer.nVotes += LogAnalytics.toInt(strText);
+          else if (strEnd.equals("audience") && game.answer != null)
+            game.answer.nAudience += LogAnalytics.toInt(strText);
+          else if (strEnd.equals("answer"))
+            game.answer = null;
+          else if (strEnd.equals("question") && game.question != null) {
+            game.asked.add(game.question);
+            game.question = null;
+          }
+          break;
+      }
+    }
+  }
+
+  /**
+   * Parse a number, 0 if it is not one
+   *
+   * @param strText
+   *          the text
+   * @return the number
+   */
+  private static int toInt(String strText) {
+    try {
+      return Integer.parseInt(strText);
+    }
+    catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Read the index left by the last run
+   *
+   * @param file
+   *          the index
+   * @return the index, or null if there is none or it can not be read
+   */
+  private static Index readIndex(File file) {
+    if (!file.isFile())
+      return null;
+    try (ObjectInputStream in = new ObjectInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      return (Index) in.readObject();
+    }
+    catch (IOException | ClassNotFoundException | ClassCastException e) {
+      return null; // Start over
+    }
+  }
+
+  /**
+   * Write the index for the next run
+   *
+   * @param file
+   *          the index
+   * @param index
+   *          the logs counted and their totals
+   * @throws IOException
+   *           if it can not be written
+   */
+  private static void writeIndex(File file, Index index) throws IOException {
+    try (ObjectOutputStream out = new ObjectOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeObject(index);
+    }
+  }
+
+  /**
+   * Write the totals as CSV files
+   *
+   * @param stats
+   *          the totals
+   * @param out
+   *          the directory to write them to
+   * @throws IOException
+   *           if they can not be written
+   */
+  public static void writeCsv(Stats stats, File out) throws IOException {
+    try (Writer csv = LogAnalytics.csv(new File(out, "players.csv"))) {
+      csv.write("player,games,wins,points,avg_points,answers,answered,"
+          + "answer_rate,votes_received\n");
+      for (Map.Entry<String, PlayerTotals> entry : new TreeMap<String,
+          PlayerTotals>(stats.players).entrySet()) {
+        PlayerTotals p = entry.getValue();
+        csv.write(String.format("%s,%d,%d,%d,%.1f,%d,%d,%.3f,%d\n",
+            LogAnalytics.escape(entry.getKey()), p.nGames, p.nWins, p.nPoints,
+            p.nGames == 0 ? 0.0 : (double) p.nPoints / p.nGames, p.nSlots,
+            p.nAnswered,
+            p.nSlots == 0 ? 0.0 : (double) p.nAnswered / p.nSlots, p.nVotes));
+      }
+    }
+    try (Writer csv = LogAnalytics.csv(new File(out, "questions.csv"))) {
+      csv.write("question,served,answers,answered,answer_rate,voted_on,"
+          + "vote_rate,votes,audience\n");
+      for (Map.Entry<String, QuestionTotals> entry : new TreeMap<String,
+          QuestionTotals>(stats.questions).entrySet()) {
+        QuestionTotals q = entry.getValue();
+        csv.write(String.format("%s,%d,%d,%d,%.3f,%d,%.3f,%d,%d\n",
+            LogAnalytics.escape(entry.getKey()), q.nServed, q.nSlots,
+            q.nAnswered,
+            q.nSlots == 0 ? 0.0 : (double) q.nAnswered / q.nSlots, q.nVotedOn,
+            q.nServed == 0 ? 0.0 : (double) q.nVotedOn / q.nServed, q.nVotes,
+            q.nAudience));
+      }
+    }
+    try (Writer csv = LogAnalytics.csv(new File(out, "scores.csv"))) {
+      csv.write("from,to,players\n");
+      for (Map.Entry<Integer, Integer> entry : new TreeMap<Integer, Integer>(
+          stats.scores).entrySet())
+        csv.write(String.format("%d,%d,%d\n",
+            entry.getKey() * LogAnalytics.nBucket,
+            (entry.getKey() + 1) * LogAnalytics.nBucket - 1,
+            entry.getValue()));
+    }
+  }
+
+  /**
+   * Open a CSV file for writing
+   *
+   * @param file
+   *          the file
+   * @return the writer
+   * @throws IOException
+   *           if the file can not be opened
+   */
+  private static Writer csv(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+  }
+
+  /**
+   * Quote a CSV field if needed
+   *
+   * @param strField
+   *          the field
+   * @return the field, ready to write
+   */
+  private static String escape(String strField) {
+    if (strField.indexOf(',') < 0 && strField.indexOf('"') < 0
+        && strField.indexOf('\n') < 0 && strField.indexOf('\r') < 0)
+      return strField;
+    return '"' + strField.replace("\"", "\"\"") + '"';
+  }
+
+  /**
+   * Get the width of each score range
+   *
+   * @return the width, in points
+   */
+  public static int getBucket() {
+    return LogAnalytics.nBucket;
+  }
+
+  /**
+   * Set the width of each score range, changing it means the index has to be
+   * rebuilt(delete it)
+   *
+   * @param nBucket
+   *          the width, in points
+   */
+  public static void setBucket(int nBucket) {
+    LogAnalytics.nBucket = nBucket;
+  }
+
+  /**
+   * Get the number of logs parsed by one task before it stops splitting
+   *
+   * @return the number of logs
+   */
+  public static int getBatch() {
+    return LogAnalytics.nBatch;
+  }
+
+  /**
+   * Set the number of logs parsed by one task before it stops splitting
+   *
+   * @param nBatch
+   *          the number of logs
+   */
+  public static void setBatch(int nBatch) {
+    LogAnalytics.nBatch = nBatch;
+  }
+
+  /**
+   * Analyze a logs directory from the command line
+   *
+   * @param args
+   *          the logs directory(defaults to the game's) and the output
+   *          directory(defaults to "analytics" in the logs directory)
+   */
+  public static void main(String[] args) {
+    File logs = new File(args.length > 0 ? args[0] : Game.getLogsDir());
+    File out =
+        args.length > 1 ? new File(args[1]) : new File(logs, "analytics");
+    long lStart = System.nanoTime();
+    try {
+      Stats stats = LogAnalytics.analyze(logs, out);
+      System.out.printf("%d logs(%d cut short), %d players, %d questions "
+          + "in %d ms%n", stats.nFiles, stats.nBroken, stats.players.size(),
+          stats.questions.size(), (System.nanoTime() - lStart) / 1000000);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Parse
+   *
+   * Parses a range of logs, splitting it in half until it is small enough.
+   * The totals of each log are kept apart, at the log's position.
+   *
+   * @author az
+   * @version 1.0, 2016-06-20
+   */
+  @SuppressWarnings("serial")
+  private static class Parse extends RecursiveAction {
+    private File[]  logs;
+    private Stats[] parsed;
+    private int     nFrom;
+    private int     nTo;
+
+    /**
+     * @param logs
+     *          every log to parse
+     * @param parsed
+     *          where the totals of each log go
+     * @param nFrom
+     *          first log of the range
+     * @param nTo
+     *          end of the range, exclusive
+     */
+    Parse(File[] logs, Stats[] parsed, int nFrom, int nTo) {
+      this.logs = logs;
+      this.parsed = parsed;
+      this.nFrom = nFrom;
+      this.nTo = nTo;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.nTo - this.nFrom <= Math.max(1, LogAnalytics.nBatch)) {
+        for (int i = this.nFrom; i < this.nTo; i++)
+          this.parsed[i] = LogAnalytics.parse(this.logs[i]);
+        return;
+      }
+      int nMid = (this.nFrom + this.nTo) >>> 1;
+      ForkJoinTask.invokeAll(
+          new Parse(this.logs, this.parsed, this.nFrom, nMid),
+          new Parse(this.logs, this.parsed, nMid, this.nTo));
+    }
+  }
+
+  /**
+   * Played
+   *
+   * One game, as read from its log.
+   */
+  private static class Played {
+    /**
+     * Player names by id
+     */
+    private Map<String, String>  names  = new HashMap<String, String>();
+    /**
+     * Points by player id, as of the last round read
+     */
+    private Map<String, Integer> points = new HashMap<String, Integer>();
+    /**
+     * Questions read
+     */
+    private List<Asked>          asked  = new ArrayList<Asked>();
+    /**
+     * Question being read
+     */
+    private Asked                question;
+    /**
+     * Answer being read
+     */
+    private Given                answer;
+
+    /**
+     * Add this game to the totals
+     *
+     * @param stats
+     *          the totals
+     */
+    private void addTo(Stats stats) {
+      if (this.names.isEmpty())
+        return;
+      stats.nGames++;
+      int nBest = Integer.MIN_VALUE;
+      for (int nPoints : this.points.values())
+        nBest = Math.max(nBest, nPoints);
+      for (Map.Entry<String, String> player : this.names.entrySet()) {
+        PlayerTotals p = stats.player(player.getValue());
+        Integer nPoints = this.points.get(player.getKey());
+        p.nGames++;
+        if (nPoints != null) {
+          p.nPoints += nPoints;
+          if (nPoints == nBest)
+            p.nWins++;
+          stats.scores.merge(Math.floorDiv(nPoints, LogAnalytics.nBucket), 1,
+              Integer::sum);
+        }
+      }
+      for (Asked asked : this.asked) {
+        QuestionTotals q = stats.question(asked.strText);
+        int nAnswered = 0;
+        q.nServed++;
+        for (Given given : asked.answers) {
+          q.nSlots++;
+          q.nVotes += given.nVotes;
+          q.nAudience += given.nAudience;
+          String strName = this.names.get(given.strPlayer);
+          PlayerTotals p = strName == null ? null : stats.player(strName);
+          if (p != null) {
+            p.nSlots++;
+            p.nVotes += given.nVotes + given.nAudience;
+          }
+          if (given.bAnswered) {
+            nAnswered++;
+            if (p != null)
+              p.nAnswered++;
+          }
+        }
+        q.nAnswered += nAnswered;
+        if (nAnswered > 1) // See Question#canVote()
+          q.nVotedOn++;
+      }
+    }
+  }
+
+  /**
+   * Asked
+   *
+   * A question, as read from a log.
+   */
+  private static class Asked {
+    private String      strText = "";
+    private List<Given> answers = new ArrayList<Given>();
+  }
+
+  /**
+   * Given
+   *
+   * An answer, as read from a log.
+   */
+  private static class Given {
+    private String  strPlayer;
+    private boolean bAnswered;
+    private int     nVotes;
+    private int     nAudience;
+
+    Given(String strPlayer) {
+      this.strPlayer = strPlayer;
+    }
+  }
+
+  /**
+   * Index
+   *
+   * The logs counted so far, by name.
+   */
+  @SuppressWarnings("serial")
+  private static class Index implements Serializable {
+    private Map<String, Counted> files = new HashMap<String, Counted>();
+  }
+
+  /**
+   * Counted
+   *
+   * One log counted: its size and last modified time when it was read, and
+   * its totals.
+   */
+  @SuppressWarnings("serial")
+  private static class Counted implements Serializable {
+    private long  lSize;
+    private long  lModified;
+    private Stats stats;
+
+    Counted(File log) {
+      this.lSize = log.length();
+      this.lModified = log.lastModified();
+    }
+
+    /**
+     * Check that a log has not changed since it was counted
+     *
+     * @param log
+     *          the log as it is now
+     * @return true if its totals can be kept
+     */
+    private boolean isSame(File log) {
+      return this.stats != null && this.lSize == log.length()
+          && this.lModified == log.lastModified();
+    }
+  }
+
+  /**
+   * Stats
+   *
+   * Totals over any number of games.
+   *
+   * @author az
+   * @version 1.0, 2016-06-20
+   */
+  @SuppressWarnings("serial")
+  public static class Stats implements Serializable {
+    /**
+     * Totals by player name
+     */
+    private Map<String, PlayerTotals>   players   =
+        new HashMap<String, PlayerTotals>();
+    /**
+     * Totals by question text
+     */
+    private Map<String, QuestionTotals> questions =
+        new HashMap<String, QuestionTotals>();
+    /**
+     * Number of final scores in each range(score / bucket width)
+     */
+    private Map<Integer, Integer>       scores    =
+        new HashMap<Integer, Integer>();
+    /**
+     * Number of logs read
+     */
+    private int                         nFiles;
+    /**
+     * Number of logs that ended early or could not be read
+     */
+    private int                         nBroken;
+    /**
+     * Number of games with at least one player
+     */
+    private int                         nGames;
+
+    /**
+     * Add other totals to these
+     *
+     * @param other
+     *          the totals to add
+     */
+    public void merge(Stats other) {
+      for (Map.Entry<String, PlayerTotals> entry : other.players.entrySet())
+        this.player(entry.getKey()).merge(entry.getValue());
+      for (Map.Entry<String, QuestionTotals> entry : other.questions
+          .entrySet())
+        this.question(entry.getKey()).merge(entry.getValue());
+      for (Map.Entry<Integer, Integer> entry : other.scores.entrySet())
+        this.scores.merge(entry.getKey(), entry.getValue(), Integer::sum);
+      this.nFiles += other.nFiles;
+      this.nBroken += other.nBroken;
+      this.nGames += other.nGames;
+    }
+
+    private PlayerTotals player(String strName) {
+      return this.players.computeIfAbsent(strName, k -> new PlayerTotals());
+    }
+
+    private QuestionTotals question(String strText) {
+      return this.questions.computeIfAbsent(strText,
+          k -> new QuestionTotals());
+    }
+
+    /**
+     * Get the number of logs read
+     *
+     * @return the number of logs
+     */
+    public int getFiles() {
+      return this.nFiles;
+    }
+
+    /**
+     * Get the number of games counted
+     *
+     * @return the number of games
+     */
+    public int getGames() {
+      return this.nGames;
+    }
+  }
+
+  /**
+   * PlayerTotals
+   *
+   * Totals for one player name.
+   */
+  @SuppressWarnings("serial")
+  private static class PlayerTotals implements Serializable {
+    private int  nGames;
+    private int  nWins;
+    private long nPoints;
+    private int  nSlots;
+    private int  nAnswered;
+    private long nVotes;
+
+    private void merge(PlayerTotals other) {
+      this.nGames += other.nGames;
+      this.nWins += other.nWins;
+      this.nPoints += other.nPoints;
+      this.nSlots += other.nSlots;
+      this.nAnswered += other.nAnswered;
+      this.nVotes += other.nVotes;
+    }
+  }
+
+  /**
+   * QuestionTotals
+   *
+   * Totals for one question text.
+   */
+  @SuppressWarnings("serial")
+  private static class QuestionTotals implements Serializable {
+    private int  nServed;
+    private int  nSlots;
+    private int  nAnswered;
+    private int  nVotedOn;
+    private long nVotes;
+    private long nAudience;
+
+    private void merge(QuestionTotals other) {
+      this.nServed += other.nServed;
+      this.nSlots += other.nSlots;
+      this.nAnswered += other.nAnswered;
+      this.nVotedOn += other.nVotedOn;
+      this.nVotes += other.nVotes;
+      this.nAudience += other.nAudience;
+    }
+  }
+}
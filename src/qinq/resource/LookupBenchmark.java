@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.Random;
+
+/**
+ * LookupBenchmark
+ *
+ * Times looking players up by id and by name in games of 10 up to 10,000
+ * players, to check that the cost of a lookup does not grow with the number
+ * of players. Every size is run once to warm up before it is timed.
+ *
+ * <pre>
+ * java -cp qinq.jar qinq.resource.LookupBenchmark [lookups per size]
+ * </pre>
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class LookupBenchmark {
+  /**
+   * Numbers of players to time the lookups with
+   */
+  private static final int[] SIZES = { 10, 100, 500, 1000, 10000 };
+
+  public static void main(String[] args) {
+    int nLookups = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    System.out.printf("%8s %12s %12s%n", "players", "ns/id", "ns/name");
+    for (int n : LookupBenchmark.SIZES) {
+      Game game = new Game();
+      game.setMaxPlayers(n);
+      int[] ids = new int[n];
+      String[] names = new String[n];
+      for (int i = 0; i < n; i++) {
+        Player p = game.addPlayer("P" + i, "bench");
+        ids[i] = p.getID();
+        names[i] = p.getName();
+      }
+
+      LookupBenchmark.time(game, ids, names, nLookups); // Warm up
+      long[] lTimes = LookupBenchmark.time(game, ids, names, nLookups);
+      System.out.printf("%8d %12.1f %12.1f%n", n,
+          (double) lTimes[0] / nLookups, (double) lTimes[1] / nLookups);
+    }
+  }
+
+  /**
+   * Look random players up by id, then by name
+   *
+   * @param game
+   *          the game to look the players up in
+   * @param ids
+   *          the ids of the players
+   * @param names
+   *          the names of the players
+   * @param nLookups
+   *          how many lookups of each kind to make
+   * @return the time taken by the id and by the name lookups(in nanoseconds)
+   */
+  private static long[] time(Game game, int[] ids, String[] names,
+      int nLookups) {
+    Random random = new Random(42);
+    int[] order = new int[nLookups];
+    for (int i = 0; i < nLookups; i++)
+      order[i] = random.nextInt(ids.length);
+
+    int nFound = 0; // Used, so the lookups are not optimised away
+    long lStart = System.nanoTime();
+    for (int i = 0; i < nLookups; i++)
+      if (game.getPlayerById(ids[order[i]]) != null)
+        nFound++;
+    long lById = System.nanoTime() - lStart;
+
+    lStart = System.nanoTime();
+    for (int i = 0; i < nLookups; i++)
+      if (game.getPlayerByName(names[order[i]]) != null)
+        nFound++;
+    long lByName = System.nanoTime() - lStart;
+
+    if (nFound != 2 * nLookups)
+      throw new IllegalStateException("Lookup missed a player");
+    return new long[] { lById, lByName };
+  }
+}
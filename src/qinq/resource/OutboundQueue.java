@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+/**
+ * OutboundQueue
+ *
+ * Frames waiting to be sent over one WebSocket. Frames are written one at a
+ * time without blocking the caller. Control frames(prompts, ballots, kicks,
+ * etc.) are sent in order, and only the newest info frame is kept, so a slow
+ * client skips stale info instead of falling further behind. The info frame
+ * keeps its place among the control frames, it is never sent after a control
+ * frame that was queued after it.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class OutboundQueue implements WriteCallback {
+  /**
+   * The session frames are written to
+   */
+  private Session       session;
+  /**
+   * Whether or not frames are sent in the binary encoding
+   */
+  private boolean       binary;
+  /**
+   * Whether or not the session compresses messages
+   */
+  private boolean       compressed;
+  /**
+   * Control frames waiting to be sent, in order
+   */
+  private Deque<Frame>  control;
+  /**
+   * Newest info frame waiting to be sent, null if there is none
+   */
+  private Frame         info;
+  /**
+   * Number of control frames queued before the info frame, sent before it
+   */
+  private int           nInfoAfter;
+  /**
+   * Whether or not a frame is currently being written
+   */
+  private boolean       writing;
+  /**
+   * Number of info frames replaced before they could be sent
+   */
+  private int           nDropped;
+  /**
+   * Counts the frames written, null until the client has joined
+   */
+  private ClientSession client;
+  /**
+   * Whether or not the queue was handed over to another socket
+   */
+  private boolean       detached;
+  /**
+   * Number of control frames a client can fall behind before it is dropped
+   */
+  private static int    nMaxControl = 64;
+
+  /**
+   * Create a queue for a session
+   *
+   * @param session
+   *          the session frames are written to
+   * @param binary
+   *          whether or not to send frames in the binary encoding
+   * @param compressed
+   *          whether or not the session compresses messages
+   */
+  public OutboundQueue(Session session, boolean binary, boolean compressed) {
+    this.session = session;
+    this.binary = binary;
+    this.compressed = compressed;
+    this.control = new ArrayDeque<Frame>();
+    this.info = null;
+    this.writing = false;
+    this.nDropped = 0;
+  }
+
+  /**
+   * Queue a frame to be sent
+   *
+   * @param frame
+   *          the frame to send
+   * @return false if the client has fallen too far behind and was dropped
+   */
+  public boolean offer(Frame frame) {
+    synchronized (this) {
+      if (this.detached)
+        return false;
+      if (frame.getAction().equals("info")) {
+        if (this.info != null)
+          this.nDropped++;
+        this.info = frame;
+        this.nInfoAfter = this.control.size();
+      }
+      else if (this.control.size() < OutboundQueue.nMaxControl) {
+        this.control.add(frame);
+      }
+      else {
+        this.control.clear();
+        this.info = null;
+        this.session.close();
+        return false;
+      }
+      if (this.writing)
+        return true;
+      this.writing = true;
+    }
+    this.writeNext();
+    return true;
+  }
+
+  /**
+   * Write the next frame, if there is one
+   */
+  private void writeNext() {
+    Frame frame;
+    synchronized (this) {
+      if (this.info != null && this.nInfoAfter == 0) {
+        frame = this.info;
+        this.info = null;
+      }
+      else {
+        frame = this.control.poll();
+        if (this.info != null)
+          this.nInfoAfter--;
+      }
+      if (frame == null) {
+        this.writing = false;
+        return;
+      }
+      if (this.client != null)
+        this.client.written(frame);
+    }
+    if (this.compressed)
+      Compression.record(frame, this.binary);
+    try {
+      if (this.binary)
+        this.session.getRemote().sendBytes(ByteBuffer.wrap(frame.getBinary()),
+            this);
+      else
+        this.session.getRemote().sendString(frame.getText(), this);
+    }
+    catch (WebSocketException e) {
+      this.writeFailed(e);
+    }
+  }
+
+  @Override
+  public void writeSuccess() {
+    this.writeNext();
+  }
+
+  @Override
+  public void writeFailed(Throwable x) {
+    synchronized (this) {
+      this.control.clear();
+      this.info = null;
+      this.writing = false;
+    }
+  }
+
+  /**
+   * Count every frame written from now on in a client's session
+   *
+   * @param client
+   *          the session
+   */
+  public synchronized void attach(ClientSession client) {
+    this.client = client;
+  }
+
+  /**
+   * Stop sending, the client has come back on another socket
+   *
+   * @return the frames that were waiting to be sent, in order
+   */
+  public synchronized List<Frame> detach() {
+    List<Frame> pending = new ArrayList<Frame>(this.control);
+    if (this.info != null)
+      pending.add(this.nInfoAfter, this.info);
+    this.control.clear();
+    this.info = null;
+    this.client = null;
+    this.detached = true;
+    return pending;
+  }
+
+  /**
+   * Check whether or not the queue was detached, frames offered to it are no
+   * longer sent
+   *
+   * @return true if the client came back on another socket
+   */
+  public synchronized boolean isDetached() {
+    return this.detached;
+  }
+
+  /**
+   * Get the number of frames waiting to be sent
+   *
+   * @return the number of frames in the queue
+   */
+  public synchronized int getDepth() {
+    return this.control.size() + (this.info == null ? 0 : 1);
+  }
+
+  /**
+   * Get the number of info frames that were replaced before being sent
+   *
+   * @return the number of dropped info frames
+   */
+  public synchronized int getDropped() {
+    return this.nDropped;
+  }
+
+  /**
+   * Get the number of control frames a client can fall behind
+   *
+   * @return the maximum number of queued control frames
+   */
+  public static int getMaxControl() {
+    return OutboundQueue.nMaxControl;
+  }
+
+  /**
+   * Set the number of control frames a client can fall behind before it is
+   * dropped
+   *
+   * @param nMaxControl
+   *          the maximum number of queued control frames
+   */
+  public static void setMaxControl(int nMaxControl) {
+    OutboundQueue.nMaxControl = nMaxControl;
+  }
+}
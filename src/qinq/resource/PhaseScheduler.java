@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * PhaseScheduler
+ *
+ * A small pool of threads shared by every game, used to run round phases and
+ * to end them once their deadline is reached.
+ *
+ * <p>
+ * A task that throws is logged. Tasks that drive a game are given a handler,
+ * usually {@link Game#fail(RuntimeException)}, so the game ends instead of
+ * waiting forever on a next step that was never scheduled. Other tasks rethrow
+ * once logged, which also stops a repeating task.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class PhaseScheduler {
+  /**
+   * The shared executor, created on first use
+   */
+  private static ScheduledExecutorService executor;
+  /**
+   * Number of threads shared by all games
+   */
+  private static int                      nThreads =
+      Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+  /**
+   * Get the shared executor, creating it if needed
+   *
+   * @return the executor on which phases are run
+   */
+  public static synchronized ScheduledExecutorService getExecutor() {
+    if (PhaseScheduler.executor == null) {
+      AtomicInteger count = new AtomicInteger();
+      ThreadFactory factory = task -> {
+        Thread thread =
+            new Thread(task, "qinq-phase-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      PhaseScheduler.executor =
+          Executors.newScheduledThreadPool(PhaseScheduler.nThreads, factory);
+    }
+    return PhaseScheduler.executor;
+  }
+
+  /**
+   * Run a task as soon as possible
+   *
+   * @param task
+   *          the task to run
+   */
+  public static void execute(Runnable task) {
+    PhaseScheduler.execute(task, null);
+  }
+
+  /**
+   * Run a task as soon as possible, handing it any exception it throws
+   *
+   * @param task
+   *          the task to run
+   * @param onFailure
+   *          called with what the task threw, null to rethrow it
+   */
+  public static void execute(Runnable task,
+      Consumer<RuntimeException> onFailure) {
+    PhaseScheduler.getExecutor()
+        .execute(PhaseScheduler.guard(task, onFailure));
+  }
+
+  /**
+   * Run a task after a delay
+   *
+   * @param task
+   *          the task to run
+   * @param delay
+   *          how long to wait before running the task
+   * @param unit
+   *          unit of the delay
+   * @return future that can be used to cancel the task
+   */
+  public static ScheduledFuture<?> schedule(Runnable task, long delay,
+      TimeUnit unit) {
+    return PhaseScheduler.schedule(task, delay, unit, null);
+  }
+
+  /**
+   * Run a task after a delay, handing it any exception it throws
+   *
+   * @param task
+   *          the task to run
+   * @param delay
+   *          how long to wait before running the task
+   * @param unit
+   *          unit of the delay
+   * @param onFailure
+   *          called with what the task threw, null to rethrow it
+   * @return future that can be used to cancel the task
+   */
+  public static ScheduledFuture<?> schedule(Runnable task, long delay,
+      TimeUnit unit, Consumer<RuntimeException> onFailure) {
+    return PhaseScheduler.getExecutor()
+        .schedule(PhaseScheduler.guard(task, onFailure), delay, unit);
+  }
+
+  /**
+   * Run a task repeatedly
+   *
+   * @param task
+   *          the task to run
+   * @param delay
+   *          how long to wait before the first run
+   * @param period
+   *          how long to wait between runs
+   * @param unit
+   *          unit of the delay and period
+   * @return future that can be used to cancel the task
+   */
+  public static ScheduledFuture<?> scheduleAtFixedRate(Runnable task,
+      long delay, long period, TimeUnit unit) {
+    return PhaseScheduler.getExecutor()
+        .scheduleAtFixedRate(PhaseScheduler.guard(task, null), delay, period,
+            unit);
+  }
+
+  /**
+   * Get the number of threads shared by all games
+   *
+   * @return the number of threads
+   */
+  public static int getThreads() {
+    return PhaseScheduler.nThreads;
+  }
+
+  /**
+   * Set the number of threads shared by all games, only has an effect before
+   * the first game is started.
+   *
+   * @param nThreads
+   *          the number of threads
+   */
+  public static void setThreads(int nThreads) {
+    PhaseScheduler.nThreads = nThreads;
+  }
+
+  /**
+   * Wrap a task so that an exception is never lost: it is logged, then handed
+   * to the task's owner or rethrown.
+   *
+   * @param task
+   *          the task to wrap
+   * @param onFailure
+   *          called with what the task threw, null to rethrow it
+   * @return the wrapped task
+   */
+  private static Runnable guard(Runnable task,
+      Consumer<RuntimeException> onFailure) {
+    return () -> {
+      try {
+        task.run();
+      }
+      catch (RuntimeException e) {
+        e.printStackTrace();
+        if (onFailure == null)
+          throw e;
+        onFailure.accept(e);
+      }
+    };
+  }
+}
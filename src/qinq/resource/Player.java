@@ -21,6 +21,7 @@ package qinq.resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javafx.scene.Node;
 import javafx.scene.control.Label;
@@ -48,7 +49,7 @@ public class Player extends GameObject {
   /**
    * Number of votes a player has.
    */
-  private int                      nVotes;
+  private AtomicInteger            nVotes;
   /**
    * Number of points a player has.
    */
@@ -59,18 +60,19 @@ public class Player extends GameObject {
   private String                   color;
 
   /**
-   * WebSocket used to interact with the players web interface
+   * WebSocket used to interact with the players web interface, read without
+   * the player's lock by everything that sends to the player
    */
-  private QinqWebSocketAddapter    socket;
+  private volatile QinqWebSocketAddapter socket;
   /**
-   * Total number of players, use for generating player IDs.
+   * The player's session, carried over when the player reconnects
    */
-  private static int               nPlayers = 0;
+  private ClientSession                  session;
   /**
    * Colours that can be used to assign a player.
    */
   @SuppressWarnings("serial")
-  public static final List<String> COLOURS  =
+  public static final List<String>       COLOURS  =
       Collections.unmodifiableList(new ArrayList<String>() {
                                                   {
                                                     add("#ff6666");
@@ -89,22 +91,22 @@ public class Player extends GameObject {
   /**
    * create a new player from a name and an IP
    *
+   * @param nId
+   *          id of the player
    * @param strName
    *          nick name of the player
    * @param strIP
    *          player's IP address
    */
-  public Player(String strName, String strIP) {
-    super(strName.isEmpty() ? -++Player.nPlayers : ++Player.nPlayers);
+  public Player(int nId, String strName, String strIP) {
+    super(nId);
     this.answers = new ArrayList<Answer>();
-    this.strName = strName.isEmpty() ? "Spectator" : strName;
+    this.strName = strName;
     this.strIP = strIP;
     this.nPoints = 0;
-    this.setVotes(0);
-    if (strName.isEmpty())
-      this.color = "#555555";
-    else
-      this.color = Player.COLOURS.get(this.getID() % Player.COLOURS.size());
+    this.nVotes = new AtomicInteger();
+    this.session = new ClientSession();
+    this.color = Player.COLOURS.get(this.getID() % Player.COLOURS.size());
   }
 
   /**
@@ -141,7 +143,7 @@ public class Player extends GameObject {
    * @return the number of votes
    */
   public int getVotes() {
-    return nVotes;
+    return this.nVotes.get();
   }
 
   /**
@@ -151,15 +153,24 @@ public class Player extends GameObject {
    *          the new number of votes to set
    */
   public void setVotes(int nVotes) {
-    this.nVotes = nVotes;
+    this.nVotes.set(nVotes);
   }
 
   /**
-   * Use a player's vote (decrease num votes by one)
+   * Use a player's vote (decrease num votes by one, if there are any left)
+   *
+   * Safe to call from several threads at once, a vote is never spent twice.
    *
+   * @return true if a vote was used, false if the player had none left
    */
-  public void useVote() {
-    this.nVotes--;
+  public boolean useVote() {
+    int nVotes;
+    do {
+      nVotes = this.nVotes.get();
+      if (nVotes <= 0)
+        return false;
+    } while (!this.nVotes.compareAndSet(nVotes, nVotes - 1));
+    return true;
   }
 
   /**
@@ -215,12 +226,29 @@ public class Player extends GameObject {
    * @return the label of the player
    */
   public Node getNameLabel(String message) {
+    return Player.getNameLabel(this.getName(), this.getColor(), message);
+  }
+
+  /**
+   * Get a label for a name and colour with additional message
+   *
+   * @param strName
+   *          the name to show(shown in upper case)
+   * @param color
+   *          the background colour
+   * @param message
+   *          shown after the name, if not empty
+   * @return the label
+   */
+  public static Node getNameLabel(String strName, String color,
+      String message) {
     Node label;
     if (!message.isEmpty())
-      label = new Label(String.format("%s - %s", this.getName(), message));
+      label = new Label(
+          String.format("%s - %s", strName.toUpperCase(), message));
     else
-      label = new Label(this.getName());
-    label.setStyle(String.format("-fx-background-color: %s;", this.getColor()));
+      label = new Label(strName.toUpperCase());
+    label.setStyle(String.format("-fx-background-color: %s;", color));
     label.getStyleClass().add("player-label");
     return label;
   }
@@ -262,4 +290,32 @@ public class Player extends GameObject {
   public void setSocket(QinqWebSocketAddapter socket) {
     this.socket = socket;
   }
+
+  /**
+   * Check whether or not the player is connected
+   *
+   * @return false if the connection was lost and the player has not come back
+   */
+  public boolean isConnected() {
+    return this.session.isConnected();
+  }
+
+  /**
+   * Get the player's session
+   *
+   * @return the session
+   */
+  public ClientSession getSession() {
+    return this.session;
+  }
+
+  /**
+   * Set the player's session, e.g. when restoring a game
+   *
+   * @param session
+   *          the session to set
+   */
+  public void setSession(ClientSession session) {
+    this.session = session;
+  }
 }
@@ -19,22 +19,35 @@
 package qinq.resource;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
 import org.eclipse.jetty.websocket.api.WebSocketException;
-import org.json.JSONArray;
+import org.eclipse.jetty.websocket.api.WebSocketPingPongListener;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import qinq.application.GamePane;
 import qinq.application.QinqConnector;
 
-public class QinqWebSocketAddapter extends WebSocketAdapter {
-  private Session       session;
-  private Game          game;
-  private Player        player;
-  private QinqConnector conn;
+public class QinqWebSocketAddapter extends WebSocketAdapter
+    implements WebSocketPingPongListener {
+  private Session            session;
+  private OutboundQueue      queue;
+  private Game               game;
+  private Player             player;
+  private Spectator          spectator;
+  private int                nGeneration;
+  private QinqConnector      conn;
+  private ScheduledFuture<?> heartbeat;
+  private volatile long      lLastSeen;
+  private static int         nHeartbeat   = 10000;
+  private static int         nIdleTimeout = 30000;
 
   /**
    * Create a socket attached to the game
@@ -63,6 +76,7 @@ public class QinqWebSocketAddapter extends WebSocketAdapter {
   public void onWebSocketClose(int statusCode, String reason) {
     System.out
         .println("Close: statusCode=" + statusCode + ", reason=" + reason);
+    this.disconnected();
   }
 
   @Override
@@ -73,10 +87,105 @@ public class QinqWebSocketAddapter extends WebSocketAdapter {
   @Override
   public void onWebSocketConnect(Session session) {
     this.session = session;
+    boolean compressed = false;
+    for (ExtensionConfig ext : session.getUpgradeResponse().getExtensions())
+      if (ext.getName().equals(Compression.EXTENSION))
+        compressed = true;
+    this.queue = new OutboundQueue(session, WireCodec.PROTOCOL_BINARY
+        .equals(session.getUpgradeResponse().getAcceptedSubProtocol()),
+        compressed);
+    this.lLastSeen = System.nanoTime();
+    if (QinqWebSocketAddapter.nIdleTimeout > 0)
+      session.setIdleTimeout(QinqWebSocketAddapter.nIdleTimeout);
+    if (QinqWebSocketAddapter.nHeartbeat > 0)
+      this.heartbeat = PhaseScheduler.scheduleAtFixedRate(this::heartbeat,
+          QinqWebSocketAddapter.nHeartbeat, QinqWebSocketAddapter.nHeartbeat,
+          TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void onWebSocketPing(ByteBuffer payload) {
+    this.lLastSeen = System.nanoTime(); // Jetty answers it
+  }
+
+  @Override
+  public void onWebSocketPong(ByteBuffer payload) {
+    this.lLastSeen = System.nanoTime();
+  }
+
+  /**
+   * Ping the client, or drop it if nothing came back from it for longer than
+   * the idle timeout. Browsers answer pings on their own, so a client that is
+   * still there always has something coming back even when nobody plays.
+   */
+  private void heartbeat() {
+    Session session = this.session;
+    if (session == null || !session.isOpen()) {
+      this.disconnected();
+      return;
+    }
+    if (QinqWebSocketAddapter.nIdleTimeout > 0
+        && System.nanoTime() - this.lLastSeen > TimeUnit.MILLISECONDS
+            .toNanos(QinqWebSocketAddapter.nIdleTimeout)) {
+      this.disconnected(); // A half open socket may never get to close
+      session.close();
+      return;
+    }
+    try {
+      session.getRemote().sendPing(ByteBuffer.allocate(0));
+    }
+    catch (IOException | WebSocketException e) {
+      this.disconnected();
+    }
+  }
+
+  /**
+   * The socket is gone: stop the heartbeat, drop whatever was waiting to be
+   * sent and mark the player disconnected until they come back with their
+   * token. Broadcasts skip the player in the meantime.
+   */
+  private void disconnected() {
+    ScheduledFuture<?> heartbeat = this.heartbeat;
+    if (heartbeat != null)
+      heartbeat.cancel(false);
+    Spectator spectator = this.spectator;
+    if (spectator != null) { // Comes back as a new spectator, if at all
+      this.game.removeSpectator(spectator);
+      spectator.setSocket(null);
+      if (this.queue != null)
+        this.queue.detach();
+      return;
+    }
+    Player player = this.player;
+    if (player == null)
+      return;
+    synchronized (player) {
+      if (player.getSocket() != this) // Already back on another socket
+        return;
+      player.setSocket(null);
+      player.getSession().setConnected(false);
+    }
+    if (this.queue != null)
+      this.queue.detach();
+    Round round = this.game.getRound();
+    if (round != null)
+      round.update(); // May have been the last one the phase waited on
+  }
+
+  @Override
+  public void onWebSocketBinary(byte[] payload, int offset, int len) {
+    this.lLastSeen = System.nanoTime();
+    try {
+      this.onMessage(WireCodec.decode(payload, offset, len));
+    }
+    catch (JSONException e) {
+      e.printStackTrace();
+    }
   }
 
   @Override
   public void onWebSocketText(String message) {
+    this.lLastSeen = System.nanoTime();
     try {
       this.onMessage(new JSONObject(message));
     }
@@ -98,6 +207,9 @@ public class QinqWebSocketAddapter extends WebSocketAdapter {
       case "create user":
         this.createUser(json);
         return;
+      case "resume":
+        this.resume(json);
+        return;
       case "send answer":
         this.answer(json);
         return;
@@ -131,13 +243,32 @@ public class QinqWebSocketAddapter extends WebSocketAdapter {
    * @return true if there is info to send back
    */
   private boolean vote(JSONObject json, JSONObject jsonOut) {
+    if (!this.game.getIds().isCurrent(this.nGeneration))
+      return false; // Joined a game that is over, its ids mean nothing now
     int aid = Integer.valueOf(json.getString("aid"));
     Answer answer = this.game.getAnswerById(aid);
+    if (answer != null && this.spectator != null) {
+      jsonOut.put("action", "voting");
+      jsonOut.put("aid", aid);
+      int nVoted = answer.vote(this.spectator);
+      jsonOut.put("voted", nVoted);
+      jsonOut.put("left", this.spectator.getVotes());
+      Round round = this.game.getRound();
+      if (round != null)
+        round.logAudience(answer, nVoted);
+      return true;
+    }
     if (answer != null && this.player != null) {
       jsonOut.put("action", "voting");
       jsonOut.put("aid", aid);
-      jsonOut.put("voted", answer.vote(this.player));
+      int nVoted = answer.vote(this.player);
+      jsonOut.put("voted", nVoted);
       jsonOut.put("left", this.player.getVotes());
+      Round round = this.game.getRound();
+      if (round != null) {
+        round.logVote(this.player, answer, nVoted);
+        round.update();
+      }
       return true;
     }
     return false;
@@ -150,24 +281,27 @@ public class QinqWebSocketAddapter extends WebSocketAdapter {
    *          answer and question id from user
    */
   private void answer(JSONObject json) {
+    if (!this.game.getIds().isCurrent(this.nGeneration))
+      return; // Joined a game that is over, its ids mean nothing now
     int id = Integer.valueOf(json.getString("id"));
     Answer answer = this.game.getAnswerById(id);
-    if (answer == null)
+    Round round = this.game.getRound();
+    if (answer == null || round == null
+        || round.getPhase() != Round.Phase.ANSWERING)
       return;
     answer.setAnswer(json.getString("answer"));
     answer.getPlayer().getAnswers().remove(answer);
+    round.logAnswer(answer);
 
-    GamePane display = this.game.getRound().getDisplay();
-    for (Player p : this.game.getPlayers())
-      p.getSocket().sendText(display.getJson());
-    for (Player p : this.game.getSpectators())
-      p.getSocket().sendText(display.getJson());
+    round.getDisplay().invalidate();
+    this.game.getBroadcaster().requestInfo();
 
     if (answer.getPlayer().getAnswers().size() > 0) {
-      Round round = this.game.getRound();
-      int time = (round == null) ? 0 : round.getTime();
-      answer.getPlayer().getAnswers().get(0).send(time);
+      answer.getPlayer().getAnswers().get(0).send(round.getTime());
+      round.logPrompt(answer.getPlayer().getAnswers().get(0));
     }
+    else
+      round.update();
   }
 
   /**
@@ -184,6 +318,11 @@ public class QinqWebSocketAddapter extends WebSocketAdapter {
     if (this.conn == null) {
       address = this.session.getRemoteAddress().getAddress().getHostAddress();
     }
+    if (json.getString("name").isEmpty()) {
+      this.watch();
+      return;
+    }
+    this.nGeneration = this.game.getIds().getGeneration();
     this.player =
         this.game.addPlayer(json.getString("name").toUpperCase(), address);
     jsonOut.put("action", "creating");
@@ -192,64 +331,250 @@ public class QinqWebSocketAddapter extends WebSocketAdapter {
       jsonOut.put("color", this.player.getColor());
       jsonOut.put("name", this.player.getName().toUpperCase());
       jsonOut.put("id", this.player.getID());
-      this.player.setSocket(this);
+      jsonOut.put("token", this.player.getSession().getToken());
+      jsonOut.put("gen", this.nGeneration);
+      this.attach(jsonOut, -1);
     }
     else {
       jsonOut.put("created", "false");
+      this.sendText(jsonOut);
     }
+    this.sendState();
+  }
+
+  /**
+   * Join the game as a spectator. Spectators have no session, one that loses
+   * its socket joins again as a new spectator.
+   */
+  private void watch() {
+    this.nGeneration = this.game.getIds().getGeneration();
+    this.spectator = this.game.addSpectator();
+    this.spectator.setSocket(this);
+    JSONObject jsonOut = new JSONObject();
+    jsonOut.put("action", "creating");
+    jsonOut.put("created", "true");
+    jsonOut.put("color", Spectator.COLOR);
+    jsonOut.put("name", Spectator.NAME.toUpperCase());
+    jsonOut.put("id", this.spectator.getID());
+    jsonOut.put("gen", this.nGeneration);
     this.sendText(jsonOut);
+    this.sendState();
+  }
+
+  /**
+   * Take a player back on this socket using the token it was given, sending
+   * only the messages it missed if they are still kept
+   *
+   * @param json
+   *          the token and the number of messages the client got
+   */
+  private void resume(JSONObject json) {
+    int nGeneration = this.game.getIds().getGeneration();
+    Player player = this.game.getPlayerByToken(json.optString("token", ""));
+    JSONObject jsonOut = new JSONObject();
+    jsonOut.put("action", "resumed");
+    if (player == null) {
+      jsonOut.put("resumed", "false");
+      this.sendText(jsonOut);
+      return;
+    }
+    this.player = player;
+    this.nGeneration = nGeneration;
+    jsonOut.put("resumed", "true");
+    jsonOut.put("color", player.getColor());
+    jsonOut.put("name", player.getName().toUpperCase());
+    jsonOut.put("id", player.getID());
+    jsonOut.put("gen", nGeneration);
+    // Nothing was counted while the player was gone, catch up with the state
+    boolean bGone = !player.isConnected();
+    if (!this.attach(jsonOut, json.optLong("seq", -1)) || bGone)
+      this.sendState();
+  }
+
+  /**
+   * Move the player's session onto this socket and send the reply, then the
+   * messages the client missed. Nothing else is queued on this socket until
+   * they are, so they arrive in order. The player's lock is held so a socket
+   * closing at the same time can not mark the player disconnected.
+   *
+   * @param reply
+   *          the reply to send, the number to count from is added to it
+   * @param nSeen
+   *          number of messages the client got, -1 to start counting again
+   * @return false if the missed messages are not all kept, the client has to
+   *         be sent the whole state
+   */
+  private boolean attach(JSONObject reply, long nSeen) {
+    ClientSession client = this.player.getSession();
+    if (this.queue == null) { // Relayed, the relay keeps the connection
+      this.player.setSocket(this);
+      this.sendText(reply.put("seq", client.getSeq()));
+      return false;
+    }
+    synchronized (this.player) {
+      synchronized (this.queue) {
+        QinqWebSocketAddapter old = this.player.getSocket();
+        List<Frame> pending = Collections.<Frame>emptyList();
+        if (old != null && old != this)
+          pending = old.detach();
+        List<Frame> missed = nSeen < 0 ? null : client.rewind(nSeen);
+        this.sendText(reply.put("seq", client.getSeq()));
+        this.queue.attach(client);
+        this.player.setSocket(this);
+        client.setConnected(true);
+        if (missed == null)
+          return false;
+        for (Frame frame : missed)
+          this.send(frame);
+        for (Frame frame : pending)
+          this.send(frame);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Stop using this socket, the player came back on another one
+   *
+   * @return the messages that were waiting to be sent, in order
+   */
+  private List<Frame> detach() {
+    if (this.queue == null)
+      return Collections.<Frame>emptyList();
+    List<Frame> pending = this.queue.detach();
+    this.close();
+    return pending;
+  }
 
+  /**
+   * Send the player whatever the game is waiting on from them: their question,
+   * their ballot, or else what is on the screen
+   */
+  private void sendState() {
     Question question;
-    if (this.player != null && this.game.getRound() != null) {
+    Round round = this.game.getRound();
+    if (this.spectator != null && round != null) {
+      if ((question = round.getQuestion()) != null
+          && this.spectator.getVotes() > 0)
+        this.send(question.getBallot(null, 1, round.getTime()));
+      else
+        this.send(round.getDisplay().getFrame());
+    }
+    else if (this.player != null && round != null) {
       if (this.player.getAnswers().size() > 0) {
         this.player.getAnswers().get(0).send(this.game.getRound().getTime());
       }
       else if ((question = this.game.getRound().getQuestion()) != null
           && this.player.getVotes() > 0) {
-        jsonOut = new JSONObject();
-        jsonOut.put("action", "vote");
-        jsonOut.put("time", this.game.getRound().getTime());
-        jsonOut.put("question", question.getQuestion());
-        jsonOut.put("votes", this.player.getVotes());
-        if (this.player.getVotes() > 0) {
-          JSONArray jSONArray = new JSONArray();
-          for (Answer tmp : question.getAnswers()) {
-            if (tmp.getPlayer() != this.player && !tmp.getAnswer().isEmpty())
-              jSONArray.put(new JSONObject().put("answer", tmp.getAnswer())
-                  .put("aid", tmp.getID()));
-          }
-          jsonOut.put("answers", jSONArray);
-        }
-        this.sendText(jsonOut);
+        this.send(question.getBallot(this.player, this.player.getVotes(),
+            this.game.getRound().getTime()));
       }
       else {
-        this.sendText(this.game.getRound().getDisplay().getJson());
+        this.send(this.game.getRound().getDisplay().getFrame());
       }
     }
   }
 
   /**
-   * Send a string over this socket
+   * Send a message over this socket
    *
    * @param message
-   *          string to send
+   *          message to send
    * @return true on success
    */
   public boolean sendText(JSONObject message) {
+    return this.send(new Frame(message));
+  }
+
+  /**
+   * Send an already encoded message over this socket
+   *
+   * @param frame
+   *          message to send
+   * @return true on success
+   */
+  public boolean send(Frame frame) {
     if (this.conn != null) {
-      message.put("uid", player.getID());
+      JSONObject message = new JSONObject(frame.getText());
+      message.put("uid", this.player != null ? this.player.getID()
+          : this.spectator.getID());
       System.out.println("Send: " + message.toString());
       this.conn.send(message.toString());
       return true;
     }
-    if (this.session == null)
+    if (this.queue == null)
       return false;
-    try {
-      this.session.getRemote().sendString(message.toString());
+    if (this.queue.offer(frame))
       return true;
-    }
-    catch (IOException | WebSocketException e) {
+    Player player = this.player;
+    if (player == null || !this.queue.isDetached())
       return false;
+    // Sent to this socket as the player moved to another one. The player's
+    // lock is held for the whole move, so once it is ours the new socket has
+    // everything that was queued here, and the frame goes after it.
+    synchronized (player) {
+      QinqWebSocketAddapter current = player.getSocket();
+      return current != null && current != this && current.send(frame);
     }
   }
+
+  /**
+   * Get the number of messages waiting to be sent to this client, a
+   * consistently high number means the client is slow.
+   *
+   * @return the number of queued messages
+   */
+  public int getQueueDepth() {
+    return this.queue == null ? 0 : this.queue.getDepth();
+  }
+
+  /**
+   * Get the number of info messages skipped because the client was too slow
+   *
+   * @return the number of dropped messages
+   */
+  public int getDropped() {
+    return this.queue == null ? 0 : this.queue.getDropped();
+  }
+
+  /**
+   * Get the time between pings
+   *
+   * @return the heartbeat(in milliseconds), 0 if clients are not pinged
+   */
+  public static int getHeartbeat() {
+    return QinqWebSocketAddapter.nHeartbeat;
+  }
+
+  /**
+   * Set the time between pings, only has an effect on new sockets
+   *
+   * @param nHeartbeat
+   *          the heartbeat(in milliseconds), 0 to not ping clients
+   */
+  public static void setHeartbeat(int nHeartbeat) {
+    QinqWebSocketAddapter.nHeartbeat = nHeartbeat;
+  }
+
+  /**
+   * Get how long a client can go without sending anything before it is
+   * dropped
+   *
+   * @return the idle timeout(in milliseconds), 0 if clients are never dropped
+   */
+  public static int getIdleTimeout() {
+    return QinqWebSocketAddapter.nIdleTimeout;
+  }
+
+  /**
+   * Set how long a client can go without sending anything before it is
+   * dropped, only has an effect on new sockets. Should be a few heartbeats
+   * long, pongs are what keep a quiet client from being dropped.
+   *
+   * @param nIdleTimeout
+   *          the idle timeout(in milliseconds), 0 to never drop clients
+   */
+  public static void setIdleTimeout(int nIdleTimeout) {
+    QinqWebSocketAddapter.nIdleTimeout = nIdleTimeout;
+  }
 }
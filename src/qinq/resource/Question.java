@@ -19,7 +19,13 @@
 package qinq.resource;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import javafx.scene.Node;
 import javafx.scene.control.Label;
@@ -36,37 +42,82 @@ public class Question extends GameObject {
   /**
    * The actual question that is asked
    */
-  private String       strValue;
+  private String                 strValue;
   /**
    * List of answers that are assocciated with this question
    */
-  private List<Answer> lAnswers;
+  private List<Answer>           lAnswers;
   /**
-   * Number of answers each question should have
+   * Answers a voter can choose from, by the voter's own answer(null for voters
+   * not answering this question). There are at most n+1 different ballots.
+   */
+  private Map<Answer, JSONArray> choices;
+  /**
+   * Encoded ballots, by voter's answer id, number of votes and time left
+   */
+  private Map<String, Frame>     ballots;
+  /**
+   * Spectators that have voted on this question, by spectator index
    */
-  private static int   nAnswers;
+  private BitSet                 audience;
   /**
    * Number of answers each question should have
    */
-  private static int   dAnswerTime = 40;
+  private static int             dAnswerTime = 40;
   /**
    * Number of answers each question should have
    */
-  private static int   dVoteTime   = 15;
+  private static int             dVoteTime   = 15;
+
   /**
-   * Total number of questions, use for generating question IDs.
+   * Create a question, and an answer for each player answering it
+   *
+   * @param ids
+   *          allocator for the ids of the question and its answers
+   * @param strValue
+   *          the question text
+   * @param players
+   *          the players answering this question
    */
-  private static int   nQuestions  = 0;
+  public Question(IdAllocator ids, String strValue, Player... players) {
+    this(ids.nextQuestionId(), strValue);
 
-  public Question(String strValue, Player... players) {
-    super(Question.nQuestions++);
+    for (Player player : players) {
+      this.lAnswers.add(new Answer(ids.nextAnswerId(), player, this));
+    }
+  }
+
+  /**
+   * Create a question with no answers, e.g. when restoring a game
+   *
+   * @param nId
+   *          id of the question
+   * @param strValue
+   *          the question text
+   */
+  public Question(int nId, String strValue) {
+    super(nId);
 
     this.strValue = strValue;
     this.lAnswers = new ArrayList<Answer>();
+    this.choices = new HashMap<Answer, JSONArray>();
+    this.ballots = new HashMap<String, Frame>();
+    this.audience = new BitSet();
+  }
 
-    for (Player player : players) {
-      this.lAnswers.add(new Answer(player, this));
-    }
+  /**
+   * Add an answer to this question, e.g. when restoring a game
+   *
+   * @param nId
+   *          id of the answer
+   * @param player
+   *          the player answering
+   * @return the new answer
+   */
+  public Answer addAnswer(int nId, Player player) {
+    Answer answer = new Answer(nId, player, this);
+    this.lAnswers.add(answer);
+    return answer;
   }
 
   /**
@@ -88,25 +139,6 @@ public class Question extends GameObject {
     this.strValue = strValue;
   }
 
-  /**
-   * Get the number of answers each question does/will have
-   *
-   * @return the number of answers a question should have
-   */
-  public static int getNumAnswers() {
-    return Question.nAnswers;
-  }
-
-  /**
-   * Set the number of answers all questions should have
-   *
-   * @param nAnswers
-   *          the number of answers a questions should have
-   */
-  public static void setNumAnswers(int nAnswers) {
-    Question.nAnswers = nAnswers;
-  }
-
   /**
    * Get the answers assocciated with this question
    *
@@ -178,11 +210,127 @@ public class Question extends GameObject {
    * @return true if the player is answering the question
    */
   public boolean isAnswering(Player p) {
+    return this.getAnswer(p) != null;
+  }
+
+  /**
+   * Get the answer a player gave to this question
+   *
+   * @param p
+   *          the player
+   * @return the player's answer, or null if the player is not answering
+   */
+  public Answer getAnswer(Player p) {
     for (Answer a : this.lAnswers) {
       if (a.getPlayer().equals(p))
-        return true;
+        return a;
     }
-    return false;
+    return null;
+  }
+
+  /**
+   * Record that a spectator voted on this question, each spectator gets one
+   * vote per question.
+   *
+   * @param nIndex
+   *          the spectator's index
+   * @return false if the spectator has already voted
+   */
+  public synchronized boolean addAudience(int nIndex) {
+    if (this.audience.get(nIndex))
+      return false;
+    this.audience.set(nIndex);
+    return true;
+  }
+
+  /**
+   * Check whether or not a spectator has voted on this question
+   *
+   * @param nIndex
+   *          the spectator's index
+   * @return true if the spectator has voted
+   */
+  public synchronized boolean hasAudience(int nIndex) {
+    return this.audience.get(nIndex);
+  }
+
+  /**
+   * Get the number of spectators that voted on this question
+   *
+   * @return the number of distinct spectators that voted
+   */
+  public int getAudience() {
+    int nAudience = 0;
+    for (Answer a : this.lAnswers)
+      nAudience += a.getAudienceVotes();
+    return nAudience;
+  }
+
+  /**
+   * Get the share of the spectators that voted for an answer
+   *
+   * @param answer
+   *          one of this question's answers
+   * @return the percentage(0-100) of spectator votes the answer received
+   */
+  public int getAudienceShare(Answer answer) {
+    int nAudience = this.getAudience();
+    return nAudience == 0 ? 0 : answer.getAudienceVotes() * 100 / nAudience;
+  }
+
+  /**
+   * Get the answers a player can vote for(everything that was answered, except
+   * the player's own answer). Only built once per different ballot, so it
+   * should not be called before answering is over.
+   *
+   * @param voter
+   *          the player voting
+   * @return list of answers, each with an answer and an aid
+   */
+  public synchronized JSONArray getChoices(Player voter) {
+    Answer own = this.getAnswer(voter);
+    JSONArray jsonChoices = this.choices.get(own);
+    if (jsonChoices == null) {
+      jsonChoices = new JSONArray();
+      for (Answer tmp : this.lAnswers) {
+        if (tmp != own && !tmp.getAnswer().isEmpty())
+          jsonChoices.put(new JSONObject().put("answer", tmp.getAnswer())
+              .put("aid", tmp.getID()));
+      }
+      this.choices.put(own, jsonChoices);
+    }
+    return jsonChoices;
+  }
+
+  /**
+   * Get the ballot sent to a player when voting on this question. Players
+   * with the same choices, votes and time left share the same frame.
+   *
+   * @param voter
+   *          the player voting
+   * @param nVotes
+   *          number of votes the player has
+   * @param time
+   *          time left to vote
+   * @return the encoded ballot
+   */
+  public synchronized Frame getBallot(Player voter, int nVotes, int time) {
+    Answer own = this.getAnswer(voter);
+    String key = String.format("%d:%d:%d", own == null ? -1 : own.getID(),
+        nVotes, time);
+    Frame ballot = this.ballots.get(key);
+    if (ballot == null) {
+      JSONObject jsonOut = new JSONObject();
+      jsonOut.put("action", "vote");
+      jsonOut.put("time", time);
+      jsonOut.put("question", this.strValue);
+      jsonOut.put("votes", nVotes);
+      if (nVotes > 0)
+        jsonOut.put("answers", this.getChoices(voter));
+      ballot = new Frame(jsonOut);
+      this.ballots.put(key, ballot);
+    }
+    return ballot;
   }
 
   /**
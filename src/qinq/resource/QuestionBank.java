@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * QuestionBank
+ *
+ * A compiled file of question categories, memory-mapped and read lazily. A
+ * question is only decoded when it is drawn, so a bank with millions of
+ * questions costs almost nothing on the heap and nothing to load.
+ *
+ * <p>
+ * Format(all integers are big-endian 32 bit):
+ *
+ * <pre>
+ * header      magic "QINQ", version, categories, questions, members
+ * categories  for each: name offset, name length, first member, member count
+ * members     question index, for each question in each category
+ * offsets     start of each question in the strings, plus the end
+ * strings     UTF-8 text of the questions, then the category names
+ * </pre>
+ *
+ * Questions are stored upper cased and only once, a question that is in
+ * several categories is a member of each of them.
+ *
+ * <p>
+ * Banks are made from category text files with {@link #compile(File, File...)}
+ * or from the command line:
+ *
+ * <pre>
+ * java -cp qinq.jar qinq.resource.QuestionBank questions.qbank questions/*.txt
+ * </pre>
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class QuestionBank {
+  /**
+   * File extension of compiled banks
+   */
+  public static final String   EXTENSION = ".qbank";
+  /**
+   * First four bytes of a bank, "QINQ"
+   */
+  private static final int     MAGIC     = 0x51494E51;
+  /**
+   * Version of the format written
+   */
+  private static final int     VERSION   = 1;
+  /**
+   * Size of the header in bytes
+   */
+  private static final int     HEADER    = 20;
+
+  /**
+   * The mapped file
+   */
+  private final ByteBuffer     buffer;
+  /**
+   * Number of distinct questions
+   */
+  private final int            nQuestions;
+  /**
+   * Where the category index starts
+   */
+  private final int            nCategoryStart;
+  /**
+   * Where the members start
+   */
+  private final int            nMemberStart;
+  /**
+   * Where the offset table starts
+   */
+  private final int            nOffsetStart;
+  /**
+   * Where the strings start
+   */
+  private final int            nStringStart;
+  /**
+   * The categories in the bank
+   */
+  private final List<Category> categories;
+  /**
+   * Hash table of the questions by their text, each slot holds a question
+   * index plus one(0 if empty). Built on the first lookup.
+   */
+  private int[]                lookup;
+
+  /**
+   * Map a compiled bank
+   *
+   * @param file
+   *          the bank
+   * @throws IOException
+   *           if the file can not be read or is not a bank
+   */
+  public QuestionBank(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      MappedByteBuffer map =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      this.buffer = map;
+    }
+    if (this.buffer.limit() < QuestionBank.HEADER
+        || this.buffer.getInt(0) != QuestionBank.MAGIC
+        || this.buffer.getInt(4) != QuestionBank.VERSION)
+      throw new IOException("Not a question bank: " + file);
+    int nCategories = this.buffer.getInt(8);
+    this.nQuestions = this.buffer.getInt(12);
+    int nMembers = this.buffer.getInt(16);
+    this.nCategoryStart = QuestionBank.HEADER;
+    this.nMemberStart = this.nCategoryStart + nCategories * 16;
+    this.nOffsetStart = this.nMemberStart + nMembers * 4;
+    this.nStringStart = this.nOffsetStart + (this.nQuestions + 1) * 4;
+    if (nCategories < 0 || this.nQuestions < 0 || nMembers < 0
+        || this.nStringStart > this.buffer.limit())
+      throw new IOException("Corrupt question bank: " + file);
+
+    this.categories = new ArrayList<Category>(nCategories);
+    for (int i = 0; i < nCategories; i++)
+      this.categories.add(new Category(i));
+  }
+
+  /**
+   * Get the categories in the bank
+   *
+   * @return the categories, in the order they were compiled
+   */
+  public List<Category> getCategories() {
+    return this.categories;
+  }
+
+  /**
+   * Get the number of distinct questions in the bank
+   *
+   * @return the number of questions
+   */
+  public int size() {
+    return this.nQuestions;
+  }
+
+  /**
+   * Read a question
+   *
+   * @param nQuestion
+   *          index of the question
+   * @return the question, upper case
+   */
+  public String getQuestion(int nQuestion) {
+    int nStart = this.buffer.getInt(this.nOffsetStart + nQuestion * 4);
+    int nEnd = this.buffer.getInt(this.nOffsetStart + nQuestion * 4 + 4);
+    return this.getString(nStart, nEnd - nStart);
+  }
+
+  /**
+   * Find a question by its text. The first call reads the bytes of every
+   * question once, to build a hash table of them(4 bytes per question on the
+   * heap, give or take), later calls only read the questions in one slot.
+   * Nothing is decoded.
+   *
+   * @param strQuestion
+   *          the question, upper case
+   * @return index of the question, or -1 if it is not in the bank
+   */
+  public synchronized int indexOf(String strQuestion) {
+    if (this.lookup == null) {
+      int nSlots = 2;
+      while (nSlots < this.nQuestions * 2)
+        nSlots <<= 1;
+      this.lookup = new int[nSlots];
+      for (int n = 0; n < this.nQuestions; n++) {
+        int nSlot = this.hash(n) & (nSlots - 1);
+        while (this.lookup[nSlot] != 0)
+          nSlot = (nSlot + 1) & (nSlots - 1);
+        this.lookup[nSlot] = n + 1;
+      }
+    }
+
+    byte[] bytes = strQuestion.getBytes(StandardCharsets.UTF_8);
+    int nHash = 0;
+    for (byte b : bytes)
+      nHash = 31 * nHash + b;
+    int nMask = this.lookup.length - 1;
+    for (int nSlot = (nHash ^ (nHash >>> 16)) & nMask; this.lookup[nSlot] != 0;
+        nSlot = (nSlot + 1) & nMask)
+      if (this.matches(this.lookup[nSlot] - 1, bytes))
+        return this.lookup[nSlot] - 1;
+    return -1;
+  }
+
+  /**
+   * Hash a question's bytes, the same way {@link #indexOf(String)} hashes the
+   * text it looks for
+   *
+   * @param nQuestion
+   *          index of the question
+   * @return the hash
+   */
+  private int hash(int nQuestion) {
+    int nStart = this.buffer.getInt(this.nOffsetStart + nQuestion * 4);
+    int nEnd = this.buffer.getInt(this.nOffsetStart + nQuestion * 4 + 4);
+    int nHash = 0;
+    for (int i = this.nStringStart + nStart; i < this.nStringStart + nEnd; i++)
+      nHash = 31 * nHash + this.buffer.get(i);
+    return nHash ^ (nHash >>> 16);
+  }
+
+  /**
+   * Compare a question's bytes with some text
+   *
+   * @param nQuestion
+   *          index of the question
+   * @param bytes
+   *          the text, UTF-8
+   * @return true if they are the same
+   */
+  private boolean matches(int nQuestion, byte[] bytes) {
+    int nStart = this.buffer.getInt(this.nOffsetStart + nQuestion * 4);
+    int nEnd = this.buffer.getInt(this.nOffsetStart + nQuestion * 4 + 4);
+    if (nEnd - nStart != bytes.length)
+      return false;
+    for (int i = 0; i < bytes.length; i++)
+      if (this.buffer.get(this.nStringStart + nStart + i) != bytes[i])
+        return false;
+    return true;
+  }
+
+  /**
+   * Decode text from the strings
+   *
+   * @param nOffset
+   *          where the text starts, relative to the strings
+   * @param nLength
+   *          length of the text in bytes
+   * @return the text
+   */
+  private String getString(int nOffset, int nLength) {
+    byte[] bytes = new byte[nLength];
+    ByteBuffer view = this.buffer.duplicate();
+    view.position(this.nStringStart + nOffset);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Category
+   *
+   * One category of a bank, its questions are read from the bank as needed.
+   *
+   * @author az
+   * @version 1.0, 2016-06-20
+   */
+  public class Category {
+    /**
+     * Position of the category's entry in the index
+     */
+    private final int nEntry;
+
+    /**
+     * @param nIndex
+     *          index of the category
+     */
+    private Category(int nIndex) {
+      this.nEntry = QuestionBank.this.nCategoryStart + nIndex * 16;
+    }
+
+    /**
+     * Get the bank the category is in
+     *
+     * @return the bank
+     */
+    public QuestionBank getBank() {
+      return QuestionBank.this;
+    }
+
+    /**
+     * Get the category's name
+     *
+     * @return the name
+     */
+    public String getName() {
+      ByteBuffer buffer = QuestionBank.this.buffer;
+      return QuestionBank.this.getString(buffer.getInt(this.nEntry),
+          buffer.getInt(this.nEntry + 4));
+    }
+
+    /**
+     * Get the number of questions in the category
+     *
+     * @return the number of questions
+     */
+    public int size() {
+      return QuestionBank.this.buffer.getInt(this.nEntry + 12);
+    }
+
+    /**
+     * Get the index in the bank of one of the category's questions
+     *
+     * @param i
+     *          position of the question in the category
+     * @return index of the question, see {@link QuestionBank#getQuestion(int)}
+     */
+    public int getQuestionIndex(int i) {
+      ByteBuffer buffer = QuestionBank.this.buffer;
+      return buffer.getInt(QuestionBank.this.nMemberStart
+          + (buffer.getInt(this.nEntry + 8) + i) * 4);
+    }
+
+    /**
+     * Mark the category's questions, used to merge categories without reading
+     * any text
+     *
+     * @param selected
+     *          set for the index of every question in the category
+     */
+    public void select(BitSet selected) {
+      for (int i = 0, n = this.size(); i < n; i++)
+        selected.set(this.getQuestionIndex(i));
+    }
+  }
+
+  /**
+   * Compile category text files(one question per line, named
+   * {@code <category>.txt}) into a bank
+   *
+   * @param out
+   *          the bank to write
+   * @param files
+   *          the category files
+   * @throws IOException
+   *           if a file can not be read or the bank can not be written
+   */
+  public static void compile(File out, File... files) throws IOException {
+    Map<String, List<String>> categories =
+        new LinkedHashMap<String, List<String>>();
+    for (File file : files) {
+      String strCategory = file.getName().replaceAll("(?i)\\.txt$", "");
+      List<String> questions = categories.get(strCategory);
+      if (questions == null)
+        categories.put(strCategory, questions = new ArrayList<String>());
+      try (BufferedReader br = new BufferedReader(new InputStreamReader(
+          new FileInputStream(file), StandardCharsets.UTF_8))) {
+        String question;
+        while ((question = br.readLine()) != null)
+          if (!question.trim().isEmpty())
+            questions.add(question.trim());
+      }
+    }
+    QuestionBank.compile(out, categories);
+  }
+
+  /**
+   * Compile categories of questions into a bank. The bank is written next to
+   * the old one and moved over it once complete, so pools still mapping the
+   * old bank keep reading the old file.
+   *
+   * @param out
+   *          the bank to write
+   * @param categories
+   *          category name -> questions in it
+   * @throws IOException
+   *           if the bank can not be written
+   */
+  public static void compile(File out,
+      Map<String, ? extends Collection<String>> categories)
+      throws IOException {
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    List<Integer> offsets = new ArrayList<Integer>();
+    List<int[]> members = new ArrayList<int[]>();
+    int nMembers = 0;
+    for (Collection<String> questions : categories.values()) {
+      BitSet seen = new BitSet();
+      List<Integer> category = new ArrayList<Integer>();
+      for (String question : questions) {
+        String strQuestion = question.toUpperCase();
+        Integer nQuestion = index.get(strQuestion);
+        if (nQuestion == null) {
+          nQuestion = offsets.size();
+          index.put(strQuestion, nQuestion);
+          offsets.add(strings.size());
+          byte[] bytes = strQuestion.getBytes(StandardCharsets.UTF_8);
+          strings.write(bytes, 0, bytes.length);
+        }
+        if (!seen.get(nQuestion)) {
+          seen.set(nQuestion);
+          category.add(nQuestion);
+        }
+      }
+      int[] ids = new int[category.size()];
+      for (int i = 0; i < ids.length; i++)
+        ids[i] = category.get(i);
+      members.add(ids);
+      nMembers += ids.length;
+    }
+    int nQuestionsEnd = strings.size();
+
+    File tmp = new File(out.getPath() + ".tmp");
+    try (DataOutputStream data = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      data.writeInt(QuestionBank.MAGIC);
+      data.writeInt(QuestionBank.VERSION);
+      data.writeInt(categories.size());
+      data.writeInt(offsets.size());
+      data.writeInt(nMembers);
+      int nFirst = 0;
+      int nName = nQuestionsEnd;
+      int i = 0;
+      List<byte[]> names = new ArrayList<byte[]>();
+      for (String strCategory : categories.keySet()) {
+        byte[] name = strCategory.getBytes(StandardCharsets.UTF_8);
+        names.add(name);
+        data.writeInt(nName);
+        data.writeInt(name.length);
+        data.writeInt(nFirst);
+        data.writeInt(members.get(i).length);
+        nName += name.length;
+        nFirst += members.get(i++).length;
+      }
+      for (int[] ids : members)
+        for (int nQuestion : ids)
+          data.writeInt(nQuestion);
+      for (int nOffset : offsets)
+        data.writeInt(nOffset);
+      data.writeInt(nQuestionsEnd);
+      strings.writeTo(data);
+      for (byte[] name : names)
+        data.write(name);
+    }
+    Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Compile category text files into a bank
+   *
+   * @param args
+   *          the bank to write, followed by the category files
+   */
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println("Usage: QuestionBank <out" + QuestionBank.EXTENSION
+          + "> <category.txt>...");
+      System.exit(1);
+    }
+    File[] files = new File[args.length - 1];
+    for (int i = 1; i < args.length; i++)
+      files[i - 1] = new File(args[i]);
+    try {
+      QuestionBank.compile(new File(args[0]), files);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
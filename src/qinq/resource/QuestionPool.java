@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * QuestionPool
+ *
+ * The questions a game can be played with, upper cased and without duplicates.
+ * Questions from a {@link QuestionBank} are kept as indexes and only read when
+ * drawn. A question in a bank and also typed in as text may be in the pool
+ * twice, every other duplicate is removed. A pool never changes once built, so
+ * one pool can be shared by every room using the same questions. Each game
+ * draws from it through its own {@link Draw}.
+ *
+ * <p>
+ * Once there are {@link QuestionStats} questions are drawn in proportion to
+ * their weight, through an alias table built for the pool when the stats
+ * change(at most once a game). Only the questions that have been served are
+ * looked up, the rest weigh the same, and no bank question is decoded. It is
+ * still built in the background, by the stats thread. A game started before
+ * the table is ready draws with the previous table, or evenly.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class QuestionPool {
+  /**
+   * The questions given as text, no duplicates
+   */
+  private final String[]       questions;
+  /**
+   * Banks the rest of the questions are in
+   */
+  private final QuestionBank[] banks;
+  /**
+   * Indexes of the questions in each bank, no duplicates
+   */
+  private final int[][]        indexes;
+  /**
+   * Total number of questions
+   */
+  private final int            nSize;
+  /**
+   * Draws questions by weight, null until built or if there are no stats
+   */
+  private volatile Alias       alias;
+  /**
+   * Version of the stats the table was last built from, -1 if never built
+   */
+  private int                  nBuilt;
+  /**
+   * Whether or not the table is being built
+   */
+  private boolean              building;
+
+  /**
+   * Build a pool, removing duplicate questions
+   *
+   * @param questions
+   *          the questions, in any case
+   */
+  public QuestionPool(Collection<String> questions) {
+    this(questions, Collections.<QuestionBank.Category>emptyList());
+  }
+
+  /**
+   * Build a pool from text questions and bank categories, removing duplicate
+   * questions. No bank questions are read.
+   *
+   * @param questions
+   *          the questions, in any case
+   * @param categories
+   *          the bank categories to include
+   */
+  public QuestionPool(Collection<String> questions,
+      Collection<QuestionBank.Category> categories) {
+    Set<String> unique = new LinkedHashSet<String>(questions.size() * 2);
+    for (String question : questions)
+      unique.add(question.toUpperCase());
+    this.questions = unique.toArray(new String[unique.size()]);
+
+    Map<QuestionBank, BitSet> selected =
+        new LinkedHashMap<QuestionBank, BitSet>();
+    for (QuestionBank.Category category : categories) {
+      BitSet bits = selected.get(category.getBank());
+      if (bits == null)
+        selected.put(category.getBank(), bits = new BitSet());
+      category.select(bits);
+    }
+    this.banks = selected.keySet().toArray(new QuestionBank[selected.size()]);
+    this.indexes = new int[this.banks.length][];
+    int nSize = this.questions.length;
+    for (int b = 0; b < this.banks.length; b++) {
+      BitSet bits = selected.get(this.banks[b]);
+      int[] indexes = new int[bits.cardinality()];
+      int i = 0;
+      for (int n = bits.nextSetBit(0); n >= 0; n = bits.nextSetBit(n + 1))
+        indexes[i++] = n;
+      this.indexes[b] = indexes;
+      nSize += indexes.length;
+    }
+    this.nSize = nSize;
+    this.nBuilt = -1;
+    this.building = false;
+    if (QuestionStats.isEnabled())
+      this.refresh();
+  }
+
+  /**
+   * Get the number of distinct questions
+   *
+   * @return the number of questions
+   */
+  public int size() {
+    return this.nSize;
+  }
+
+  /**
+   * Get a question
+   *
+   * @param nQuestion
+   *          index of the question, less than {@link #size()}
+   * @return the question, upper case
+   */
+  private String get(int nQuestion) {
+    if (nQuestion < this.questions.length)
+      return this.questions[nQuestion];
+    nQuestion -= this.questions.length;
+    int b = 0;
+    while (nQuestion >= this.indexes[b].length)
+      nQuestion -= this.indexes[b++].length;
+    return this.banks[b].getQuestion(this.indexes[b][nQuestion]);
+  }
+
+  /**
+   * Get the newest alias table, asking for a new one if the stats changed
+   * since it was built. Never waits for the table to be built.
+   *
+   * @return the table, or null if questions are not drawn by weight(yet)
+   */
+  private Alias getAlias() {
+    if (!QuestionStats.isEnabled())
+      return null;
+    this.refresh();
+    return this.alias;
+  }
+
+  /**
+   * Rebuild the alias table in the background if the stats changed since it
+   * was built, and it is not already being rebuilt
+   */
+  private void refresh() {
+    int nVersion = QuestionStats.getVersion();
+    synchronized (this) {
+      if (this.building || this.nBuilt == nVersion)
+        return;
+      this.building = true;
+    }
+    QuestionStats.background(() -> {
+      try {
+        this.build(nVersion);
+      }
+      finally {
+        synchronized (this) {
+          this.building = false;
+        }
+      }
+    });
+  }
+
+  /**
+   * Build the alias table. Every question starts with the weight of a new
+   * question, then only the questions that have been served are looked up:
+   * text questions by their text, bank questions through the bank's index, so
+   * no bank question is read.
+   *
+   * @param nVersion
+   *          version of the stats the table is built from
+   */
+  private void build(int nVersion) {
+    Alias alias = null;
+    Map<String, Float> served = QuestionStats.weights();
+    if (!served.isEmpty()) {
+      float[] weights = new float[this.nSize];
+      Arrays.fill(weights, QuestionStats.getNewWeight());
+      for (int i = 0; i < this.questions.length; i++) {
+        Float weight = served.get(this.questions[i]);
+        if (weight != null)
+          weights[i] = weight;
+      }
+      int nFirst = this.questions.length; // Where the bank's questions start
+      for (int b = 0; b < this.banks.length; b++) {
+        for (Map.Entry<String, Float> weight : served.entrySet()) {
+          int nQuestion = this.banks[b].indexOf(weight.getKey());
+          int i = nQuestion < 0 ? -1
+              : Arrays.binarySearch(this.indexes[b], nQuestion);
+          if (i >= 0)
+            weights[nFirst + i] = weight.getValue();
+        }
+        nFirst += this.indexes[b].length;
+      }
+      alias = new Alias(weights);
+    }
+    this.alias = alias;
+    synchronized (this) {
+      this.nBuilt = nVersion;
+    }
+  }
+
+  /**
+   * Start drawing questions without replacement, for one game
+   *
+   * @return a new draw with every question in it
+   */
+  public Draw draw() {
+    return new Draw();
+  }
+
+  /**
+   * Draw
+   *
+   * Questions drawn without replacement by shuffling the pool lazily: draw i
+   * swaps a random remaining question into position i. Only the positions that
+   * have been swapped are stored, so starting a draw and drawing from it are
+   * both O(1) however big the pool is.
+   *
+   * <p>
+   * When questions are drawn by weight the draw samples the alias table
+   * instead, and draws again if it lands on a question already drawn. A game
+   * only uses a few questions, so that is rare, after a few misses the next
+   * question not yet drawn is taken.
+   *
+   * @author az
+   * @version 1.0, 2016-06-20
+   */
+  public class Draw {
+    /**
+     * Positions whose question was swapped away, position -> index of the
+     * question now there
+     */
+    private Map<Integer, Integer> swapped;
+    /**
+     * Number of questions drawn so far
+     */
+    private int                   nDrawn;
+    /**
+     * Weights the questions are drawn by, fixed at the first draw, null if
+     * they are drawn evenly
+     */
+    private Alias                 alias;
+    /**
+     * Questions already drawn, when drawing by weight
+     */
+    private BitSet                drawn;
+
+    /**
+     * Create a draw with nothing drawn yet
+     */
+    private Draw() {
+      this.swapped = new HashMap<Integer, Integer>();
+      this.nDrawn = 0;
+    }
+
+    /**
+     * Draw a random question that has not been drawn yet
+     *
+     * @param random
+     *          used to pick the question
+     * @return the question, or null if all of them have been drawn
+     */
+    public synchronized String next(Random random) {
+      int nSize = QuestionPool.this.nSize;
+      if (this.nDrawn >= nSize)
+        return null;
+      if (this.nDrawn == 0) {
+        this.alias = QuestionPool.this.getAlias();
+        this.drawn = this.alias == null ? null : new BitSet(nSize);
+      }
+      if (this.alias != null)
+        return this.nextWeighted(random);
+      int nPick = this.nDrawn + random.nextInt(nSize - this.nDrawn);
+      int nQuestion = this.at(nPick);
+      this.swapped.put(nPick, this.at(this.nDrawn));
+      this.swapped.remove(this.nDrawn);
+      this.nDrawn++;
+      return QuestionPool.this.get(nQuestion);
+    }
+
+    /**
+     * Draw a question that has not been drawn yet by weight
+     *
+     * @param random
+     *          used to pick the question
+     * @return the question
+     */
+    private String nextWeighted(Random random) {
+      int nSize = QuestionPool.this.nSize;
+      int nQuestion = -1;
+      for (int nTry = 0; nTry < 16 && nQuestion < 0; nTry++) {
+        int n = this.alias.sample(random);
+        if (!this.drawn.get(n))
+          nQuestion = n;
+      }
+      if (nQuestion < 0) { // Mostly drawn already, take the next one left
+        nQuestion = this.drawn.nextClearBit(random.nextInt(nSize));
+        if (nQuestion >= nSize)
+          nQuestion = this.drawn.nextClearBit(0);
+      }
+      this.drawn.set(nQuestion);
+      this.nDrawn++;
+      return QuestionPool.this.get(nQuestion);
+    }
+
+    /**
+     * Get the number of questions left to draw
+     *
+     * @return the number of questions left
+     */
+    public synchronized int remaining() {
+      return QuestionPool.this.nSize - this.nDrawn;
+    }
+
+    /**
+     * Get the question at a position of the shuffled pool
+     *
+     * @param nPosition
+     *          the position
+     * @return index of the question there
+     */
+    private int at(int nPosition) {
+      Integer nQuestion = this.swapped.get(nPosition);
+      return nQuestion == null ? nPosition : nQuestion;
+    }
+  }
+
+  /**
+   * Alias
+   *
+   * Walker's alias table: each slot holds a question, the chance of keeping it
+   * and a second question to take otherwise. Sampling is one random slot and
+   * one coin flip.
+   *
+   * @author az
+   * @version 1.0, 2016-06-20
+   */
+  private static class Alias {
+    /**
+     * Chance of keeping each slot's own question
+     */
+    private final float[] probability;
+    /**
+     * Question taken instead of each slot's own
+     */
+    private final int[]   alias;
+
+    /**
+     * Build the table(Vose's method)
+     *
+     * @param weights
+     *          weight of each question, more than 0
+     */
+    private Alias(float[] weights) {
+      int n = weights.length;
+      this.probability = new float[n];
+      this.alias = new int[n];
+
+      double total = 0;
+      for (float weight : weights)
+        total += weight;
+      double[] scaled = new double[n];
+      Deque<Integer> small = new ArrayDeque<Integer>();
+      Deque<Integer> large = new ArrayDeque<Integer>();
+      for (int i = 0; i < n; i++) {
+        scaled[i] = weights[i] * n / total;
+        (scaled[i] < 1 ? small : large).push(i);
+      }
+      while (!small.isEmpty() && !large.isEmpty()) {
+        int nSmall = small.pop();
+        int nLarge = large.pop();
+        this.probability[nSmall] = (float) scaled[nSmall];
+        this.alias[nSmall] = nLarge;
+        scaled[nLarge] += scaled[nSmall] - 1;
+        (scaled[nLarge] < 1 ? small : large).push(nLarge);
+      }
+      while (!large.isEmpty()) // Whatever is left is full, up to rounding
+        this.probability[large.pop()] = 1;
+      while (!small.isEmpty())
+        this.probability[small.pop()] = 1;
+    }
+
+    /**
+     * Draw a question by weight, with replacement
+     *
+     * @param random
+     *          used to pick the question
+     * @return index of the question
+     */
+    private int sample(Random random) {
+      int n = random.nextInt(this.probability.length);
+      return random.nextFloat() < this.probability[n] ? n : this.alias[n];
+    }
+  }
+}
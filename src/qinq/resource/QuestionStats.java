@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QuestionStats
+ *
+ * How well each question has played, by question text: times served, answers
+ * asked for and given, times it could not be voted on(fewer than two
+ * answers), votes cast and votes for the winning answer. Kept in one small
+ * binary file in the logs directory, read on first use and written at the end
+ * of every game. The file is written on a thread of its own, which also builds
+ * the {@link QuestionPool} weight tables, so neither holds up a game.
+ *
+ * <p>
+ * The stats give each question a weight, the chance its answers come in times
+ * the chance it can be voted on, both starting from an even guess so a new
+ * question is neither favoured nor punished for long. {@link QuestionPool}
+ * draws questions in proportion to their weight, so questions players keep
+ * leaving blank come up less often.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class QuestionStats {
+  /**
+   * Name of the stats file, in the logs directory
+   */
+  public static final String          FILE       = "question-stats.bin";
+  /**
+   * Start of the file, "QSTA"
+   */
+  private static final int            MAGIC      = 0x51535441;
+  /**
+   * Times the question was served
+   */
+  private static final int            SERVED     = 0;
+  /**
+   * Answers asked for
+   */
+  private static final int            SLOTS      = 1;
+  /**
+   * Answers given
+   */
+  private static final int            ANSWERED   = 2;
+  /**
+   * Times it could not be voted on
+   */
+  private static final int            SKIPPED    = 3;
+  /**
+   * Votes cast, spectators included
+   */
+  private static final int            VOTES      = 4;
+  /**
+   * Votes for the answer with the most votes, summed over every time it was
+   * served
+   */
+  private static final int            TOP        = 5;
+  /**
+   * Counters by question text, null until read
+   */
+  private static Map<String, int[]>   stats;
+  /**
+   * Thread the file is written and weight tables built on, created on first
+   * use
+   */
+  private static ExecutorService      worker;
+  /**
+   * Changes every time the weights may have changed
+   */
+  private static volatile int         nVersion   = 0;
+  /**
+   * Whether or not there are changes that have not been written
+   */
+  private static boolean              bDirty     = false;
+  /**
+   * Whether or not questions are drawn by weight
+   */
+  private static volatile boolean     enabled    = true;
+  /**
+   * Lowest weight a question can have, so every question can still be drawn
+   */
+  private static float                fMinWeight = 0.05f;
+
+  /**
+   * Count a question once its results are in
+   *
+   * @param question
+   *          the question, with its answers and votes
+   */
+  public static synchronized void record(Question question) {
+    int[] counters = QuestionStats.counters(question.getQuestion());
+    int nAnswered = 0;
+    int nTop = 0;
+    for (Answer answer : question.getAnswers()) {
+      if (answer.isAnswered())
+        nAnswered++;
+      counters[QuestionStats.VOTES] += answer.getNumVotes();
+      nTop = Math.max(nTop, answer.getNumVotes());
+    }
+    counters[QuestionStats.SERVED]++;
+    counters[QuestionStats.SLOTS] += question.getAnswers().size();
+    counters[QuestionStats.ANSWERED] += nAnswered;
+    counters[QuestionStats.TOP] += nTop;
+    if (!question.canVote())
+      counters[QuestionStats.SKIPPED]++;
+    QuestionStats.bDirty = true;
+  }
+
+  /**
+   * Get the weight of a question
+   *
+   * @param strQuestion
+   *          the question text, upper case
+   * @return the weight, between the minimum weight and 1
+   */
+  public static synchronized float weight(String strQuestion) {
+    QuestionStats.load();
+    return QuestionStats.weight(QuestionStats.stats.get(strQuestion));
+  }
+
+  /**
+   * Get the weights of every question that has been served
+   *
+   * @return question text -> weight, a copy. Questions not in it weigh
+   *         {@link #getNewWeight()}
+   */
+  public static synchronized Map<String, Float> weights() {
+    QuestionStats.load();
+    Map<String, Float> weights =
+        new HashMap<String, Float>(QuestionStats.stats.size() * 2);
+    for (Map.Entry<String, int[]> entry : QuestionStats.stats.entrySet())
+      weights.put(entry.getKey(), QuestionStats.weight(entry.getValue()));
+    return weights;
+  }
+
+  /**
+   * Get the weight of a question that has never been served
+   *
+   * @return the weight
+   */
+  public static synchronized float getNewWeight() {
+    return QuestionStats.weight((int[]) null);
+  }
+
+  /**
+   * Work out a weight from a question's counters
+   *
+   * @param counters
+   *          the counters, null for a question never served
+   * @return the weight
+   */
+  private static float weight(int[] counters) {
+    if (counters == null)
+      counters = new int[QuestionStats.TOP + 1];
+    float fAnswered = (counters[QuestionStats.ANSWERED] + 2f)
+        / (counters[QuestionStats.SLOTS] + 4f);
+    float fPlayed = (counters[QuestionStats.SERVED]
+        - counters[QuestionStats.SKIPPED] + 1f)
+        / (counters[QuestionStats.SERVED] + 2f);
+    return Math.max(QuestionStats.fMinWeight,
+        Math.min(1f, fAnswered * fPlayed));
+  }
+
+  /**
+   * Check whether any question has been served yet
+   *
+   * @return true if there are no stats, every question weighs the same
+   */
+  public static synchronized boolean isEmpty() {
+    QuestionStats.load();
+    return QuestionStats.stats.isEmpty();
+  }
+
+  /**
+   * Get the counters of a question, adding it if it is new
+   *
+   * @param strQuestion
+   *          the question text
+   * @return the counters
+   */
+  private static int[] counters(String strQuestion) {
+    QuestionStats.load();
+    int[] counters = QuestionStats.stats.get(strQuestion);
+    if (counters == null) {
+      counters = new int[QuestionStats.TOP + 1];
+      QuestionStats.stats.put(strQuestion, counters);
+    }
+    return counters;
+  }
+
+  /**
+   * Read the stats file, if that has not been done yet. A missing or damaged
+   * file means starting with no stats.
+   */
+  private static void load() {
+    if (QuestionStats.stats != null)
+      return;
+    QuestionStats.stats = new HashMap<String, int[]>();
+    File file = new File(Game.getLogsDir(), QuestionStats.FILE);
+    if (!file.isFile())
+      return;
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != QuestionStats.MAGIC)
+        return;
+      int nQuestions = in.readInt();
+      int nCounters = in.readInt();
+      for (int i = 0; i < nQuestions; i++) {
+        String strQuestion = in.readUTF();
+        int[] counters = QuestionStats.counters(strQuestion);
+        for (int c = 0; c < nCounters; c++) {
+          int nValue = in.readInt();
+          if (c < counters.length)
+            counters[c] = nValue;
+        }
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Write the stats file in the background if anything changed
+   */
+  public static void save() {
+    Map<String, int[]> stats;
+    synchronized (QuestionStats.class) {
+      if (!QuestionStats.bDirty)
+        return;
+      QuestionStats.bDirty = false;
+      QuestionStats.nVersion++;
+      stats = new HashMap<String, int[]>(QuestionStats.stats.size() * 2);
+      for (Map.Entry<String, int[]> entry : QuestionStats.stats.entrySet())
+        stats.put(entry.getKey(), entry.getValue().clone());
+    }
+    QuestionStats.background(() -> QuestionStats.write(stats));
+  }
+
+  /**
+   * Write the stats file, the old file is only replaced once the new one is
+   * complete
+   *
+   * @param stats
+   *          a copy of the counters by question text
+   */
+  private static void write(Map<String, int[]> stats) {
+    File logs = new File(Game.getLogsDir());
+    File file = new File(logs, QuestionStats.FILE);
+    File tmp = new File(logs, QuestionStats.FILE + ".tmp");
+    if (!logs.exists() && !logs.mkdirs())
+      return;
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(QuestionStats.MAGIC);
+        out.writeInt(stats.size());
+        out.writeInt(QuestionStats.TOP + 1);
+        for (Map.Entry<String, int[]> entry : stats.entrySet()) {
+          out.writeUTF(entry.getKey());
+          for (int nValue : entry.getValue())
+            out.writeInt(nValue);
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Run a task on the stats thread, after everything already given to it
+   *
+   * @param task
+   *          the task to run
+   */
+  public static void background(Runnable task) {
+    ExecutorService worker;
+    synchronized (QuestionStats.class) {
+      if (QuestionStats.worker == null) {
+        QuestionStats.worker = Executors.newSingleThreadExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "qinq-stats");
+          thread.setDaemon(true);
+          return thread;
+        });
+        ExecutorService started = QuestionStats.worker;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          started.shutdown(); // Let the last save finish
+          try {
+            started.awaitTermination(2, TimeUnit.SECONDS);
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }, "qinq-stats-shutdown"));
+      }
+      worker = QuestionStats.worker;
+    }
+    worker.execute(() -> {
+      try {
+        task.run();
+      }
+      catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    });
+  }
+
+  /**
+   * Get a number that changes whenever the weights may have changed
+   *
+   * @return the version of the stats
+   */
+  public static int getVersion() {
+    return QuestionStats.nVersion;
+  }
+
+  /**
+   * Check whether or not questions are drawn by weight
+   *
+   * @return true if they are
+   */
+  public static boolean isEnabled() {
+    return QuestionStats.enabled;
+  }
+
+  /**
+   * Set whether or not questions are drawn by weight, stats are kept either
+   * way
+   *
+   * @param enabled
+   *          true to draw questions by weight
+   */
+  public static void setEnabled(boolean enabled) {
+    QuestionStats.enabled = enabled;
+  }
+
+  /**
+   * Get the lowest weight a question can have
+   *
+   * @return the minimum weight
+   */
+  public static float getMinWeight() {
+    return QuestionStats.fMinWeight;
+  }
+
+  /**
+   * Set the lowest weight a question can have
+   *
+   * @param fMinWeight
+   *          the minimum weight, more than 0
+   */
+  public static synchronized void setMinWeight(float fMinWeight) {
+    QuestionStats.fMinWeight = fMinWeight;
+    QuestionStats.nVersion++;
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * ResponseWriter
+ *
+ * Writes HTTP responses(event streams, long polls) without blocking. Writes go
+ * through the non-blocking output of Servlet 3.1, so a viewer that stopped
+ * reading holds up no thread at all: what it has not read waits in its
+ * response until the container says more can be written.
+ *
+ * <p>
+ * Building a response(e.g. a player's state) is done on a small, bounded pool
+ * rather than on the {@link PhaseScheduler} threads the round timers of every
+ * game run on. If the pool falls too far behind, the thread asking for the
+ * response builds it itself.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class ResponseWriter {
+  /**
+   * The shared executor, created on first use
+   */
+  private static ExecutorService executor;
+  /**
+   * Number of threads responses are built on
+   */
+  private static int             nThreads = 4;
+  /**
+   * Number of responses that can wait for a thread
+   */
+  private static int             nBacklog = 4096;
+
+  /**
+   * Get the shared executor, creating it if needed
+   *
+   * @return the executor responses are built on
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (ResponseWriter.executor == null) {
+      AtomicInteger count = new AtomicInteger();
+      ThreadFactory factory = task -> {
+        Thread thread =
+            new Thread(task, "qinq-http-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      ResponseWriter.executor = new ThreadPoolExecutor(
+          ResponseWriter.nThreads, ResponseWriter.nThreads, 0,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(ResponseWriter.nBacklog), factory,
+          new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return ResponseWriter.executor;
+  }
+
+  /**
+   * Build and write a response as soon as possible. The task should only
+   * write with {@link #send} or an {@link EventStream}, never block.
+   *
+   * @param task
+   *          builds and writes the response
+   */
+  public static void execute(Runnable task) {
+    ResponseWriter.getExecutor().execute(() -> {
+      try {
+        task.run();
+      }
+      catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    });
+  }
+
+  /**
+   * Write the whole body of an async response without blocking, then complete
+   * it. The headers must already be set.
+   *
+   * @param ctx
+   *          the response
+   * @param body
+   *          the body
+   * @throws IOException
+   *           if the response can not be written to
+   */
+  public static void send(AsyncContext ctx, byte[] body) throws IOException {
+    ServletOutputStream out = ctx.getResponse().getOutputStream();
+    out.setWriteListener(new WriteListener() {
+      private boolean bWritten = false;
+
+      @Override
+      public void onWritePossible() throws IOException {
+        if (!this.bWritten) {
+          this.bWritten = true;
+          out.write(body);
+        }
+        if (out.isReady()) // Otherwise called again once it is written out
+          ctx.complete();
+      }
+
+      @Override
+      public void onError(Throwable t) { // Client went away
+        ctx.complete();
+      }
+    });
+  }
+
+  /**
+   * Get the number of threads responses are built on
+   *
+   * @return the number of threads
+   */
+  public static int getThreads() {
+    return ResponseWriter.nThreads;
+  }
+
+  /**
+   * Set the number of threads responses are built on, only has an effect
+   * before the first response is written
+   *
+   * @param nThreads
+   *          the number of threads
+   */
+  public static void setThreads(int nThreads) {
+    ResponseWriter.nThreads = nThreads;
+  }
+
+  /**
+   * Get the number of responses that can wait for a thread
+   *
+   * @return the backlog
+   */
+  public static int getBacklog() {
+    return ResponseWriter.nBacklog;
+  }
+
+  /**
+   * Set the number of responses that can wait for a thread, only has an
+   * effect before the first response is written
+   *
+   * @param nBacklog
+   *          the backlog
+   */
+  public static void setBacklog(int nBacklog) {
+    ResponseWriter.nBacklog = nBacklog;
+  }
+}
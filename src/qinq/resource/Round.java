@@ -19,10 +19,11 @@
 package qinq.resource;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
@@ -30,7 +31,6 @@ import javax.xml.stream.XMLStreamWriter;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import qinq.application.GamePane;
 
 /**
  * Round.
@@ -42,42 +42,109 @@ import qinq.application.GamePane;
  *
  */
 public class Round {
+  /**
+   * The phases a round goes through
+   */
+  public enum Phase {
+    /**
+     * The round has not started yet
+     */
+    WAITING,
+    /**
+     * Players are answering their questions
+     */
+    ANSWERING,
+    /**
+     * Everyone is voting on the current question
+     */
+    VOTING,
+    /**
+     * Results for the current question are displayed
+     */
+    QUESTION_RESULTS,
+    /**
+     * Results for the whole round are displayed
+     */
+    ROUND_RESULTS
+  }
+
+  /**
+   * The game this round is part of
+   */
+  private Game               game;
   /**
    * Name of the round to display
    */
-  private String         strRoundName;
+  private String             strRoundName;
   /**
    * Questions associated with this round
    */
-  private List<Question> questions;
+  private List<Question>     questions;
   /**
    * Question currently being voted on
    */
-  private Question       question;
+  private Question           question;
+  /**
+   * The phase that the round is currently in
+   */
+  private volatile Phase     phase;
+  /**
+   * When the current action ends(from System.nanoTime), 0 if there is none
+   */
+  private volatile long      lDeadline;
+  /**
+   * Returns true when the current action can end before its deadline
+   */
+  private TimeChecker        checker;
+  /**
+   * What to do once the current action is over, null if nothing is waiting
+   */
+  private Runnable           next;
   /**
-   * Time left(in seconds) for the current action
+   * Task that ends the current action at its deadline
    */
-  private int            dTime;
+  private ScheduledFuture<?> timeout;
   /**
-   * The GamePane on which stuff will be displayed on for the GM
+   * Task that refreshes the display every second
    */
-  private GamePane       display;
+  private ScheduledFuture<?> ticker;
+  /**
+   * Time left when it was last journaled, in whole steps of TIME_RECORD
+   * seconds, only used by the ticker
+   */
+  private long               nRecorded;
+  /**
+   * Set once the round is stopped, nothing is run after that
+   */
+  private volatile boolean   stopped;
+  /**
+   * What the game is showing
+   */
+  private GameDisplay        display;
+  /**
+   * Sends frames to everyone in the game
+   */
+  private Broadcaster        broadcaster;
   /**
    * List of player 'participating' in this round
    */
-  private List<Player>   players;
+  private List<Player>       players;
   /**
    * List of player spectating this round
    */
-  private List<Player>   spectators;
+  private SpectatorTier      spectators;
   /**
    * The type of round that this is
    */
-  private int            nRoundType;
+  private int                nRoundType;
+  /**
+   * Code of the room the round is played in, for the event log
+   */
+  private String             strRoom;
   /**
-   * The amount of time to wait after the countdown is complete(in milliseconds)
+   * How often the time left is journaled while waiting(in seconds)
    */
-  private static int     nExtraWaitTime;
+  private static final int   TIME_RECORD = 5;
 
   /**
    * @param nRoundType
@@ -93,69 +160,252 @@ public class Round {
    *          </ol>
    * @param strRoundName
    *          Name of the round, used when displaying to the players.
-   * @param players
-   *          players that will participate in this round.
+   * @param game
+   *          the game this round is part of, all of its players will
+   *          participate in this round.
    * @param questions
-   *          list of strings that can potentially be used as questions.
+   *          where the round's questions are drawn from
    * @param display
-   *          the GamePane on which stuff will be displayed on for the GM
-   */
-  public Round(int nRoundType, String strRoundName, List<Player> players,
-      List<Player> spectators, List<String> questions, GamePane display) {
-    List<Player> tmpPlayers; // for question distribution
-    this.display = display; // the display on the main window
-    int random;
-    this.dTime = 0;
-    this.strRoundName = strRoundName;
-    this.questions = new ArrayList<Question>(); // list of questions to be used
-    this.players = players; // list of players
-    this.spectators = spectators; // list of spectators
-    this.nRoundType = nRoundType;
+   *          what the game is showing
+   */
+  public Round(int nRoundType, String strRoundName, Game game,
+      QuestionPool.Draw questions, GameDisplay display) {
+    this(nRoundType, strRoundName, game, questions, display, new Random());
+  }
+
+  /**
+   * @param nRoundType
+   *          the type of round, see
+   *          {@link #Round(int, String, Game, QuestionPool.Draw, GameDisplay)}
+   * @param strRoundName
+   *          Name of the round, used when displaying to the players.
+   * @param game
+   *          the game this round is part of
+   * @param questions
+   *          where the round's questions are drawn from
+   * @param display
+   *          what the game is showing
+   * @param random
+   *          used to pick questions and group players, seed it to get the same
+   *          round again
+   */
+  public Round(int nRoundType, String strRoundName, Game game,
+      QuestionPool.Draw questions, GameDisplay display, Random random) {
+    this(nRoundType, strRoundName, game, display);
+    List<Player> players = game.getPlayers();
+    IdAllocator ids = game.getIds();
 
     switch (nRoundType) {
       case 0:// Normal
-        List<Player[]> question_groups;
-        grouping:
-        do {
-          question_groups = new ArrayList<Player[]>();
-          tmpPlayers = new ArrayList<Player>();
-          for (int i = 0; i < Question.getNumAnswers(); i++) { // add players
-            tmpPlayers.addAll(players);// into a 'hat' that will be drawn from
-                                       // when grouping people for answers
-          }
-          for (int i = 0; i < players.size(); i++) {
-            Player[] group = new Player[Question.getNumAnswers()];
-            for (int j = 0; j < Question.getNumAnswers(); j++) {
-              do {
-                random = ThreadLocalRandom.current().nextInt(tmpPlayers.size());
-                if (tmpPlayers.size() < Question.getNumAnswers()
-                    && (tmpPlayers.size() > 1 || Arrays.asList(group)
-                        .contains(tmpPlayers.get(random)))
-                    && (new HashSet<Player>(tmpPlayers)).size() == 1)
-                  continue grouping;
-              } while (Arrays.asList(group).contains(tmpPlayers.get(random)));
-              group[j] = tmpPlayers.remove(random);
-            }
-            question_groups.add(group);
-          }
-        } while (tmpPlayers.size() > 0);
-        for (Player[] group : question_groups) {
-          random = ThreadLocalRandom.current().nextInt(questions.size());
-          String strQ = questions.remove(random);
-          Question q = new Question(strQ, group);
+        for (Player[] group : Round.group(players, game.getNumAnswers(),
+            random)) {
+          String strQ = questions.next(random);
+          Question q = new Question(ids, strQ, group);
           this.questions.add(q);
         }
         break;
       case 1:// Final
-        random = ThreadLocalRandom.current().nextInt(questions.size());
-        String strQ = questions.remove(random);
-        Question q = new Question(strQ,
+        String strQ = questions.next(random);
+        Question q = new Question(ids, strQ,
             this.players.toArray(new Player[this.players.size()]));
         this.questions.add(q);
         break;
     }
   }
 
+  /**
+   * Create a round with no questions yet
+   *
+   * @param nRoundType
+   *          the type of round, see
+   *          {@link #Round(int, String, Game, QuestionPool.Draw, GameDisplay)}
+   * @param strRoundName
+   *          Name of the round, used when displaying to the players.
+   * @param game
+   *          the game this round is part of
+   * @param display
+   *          what the game is showing
+   */
+  private Round(int nRoundType, String strRoundName, Game game,
+      GameDisplay display) {
+    this.game = game;
+    this.display = display; // what the game is showing
+    this.broadcaster = game.getBroadcaster();
+    this.phase = Phase.WAITING;
+    this.lDeadline = 0;
+    this.strRoundName = strRoundName;
+    this.questions = new ArrayList<Question>(); // list of questions to be used
+    this.players = game.getPlayers(); // list of players
+    this.spectators = game.getSpectators(); // spectator tier
+    this.nRoundType = nRoundType;
+    this.strRoom = game.getRoomCode();
+  }
+
+  /**
+   * Rebuild a round from a snapshot of it(see {@link #toJson()}). The game's
+   * players must already be restored, the round is left in the phase it was
+   * in and can be carried on with {@link #resume(Runnable)}.
+   *
+   * @param game
+   *          the game this round is part of
+   * @param json
+   *          the snapshot of the round
+   * @param display
+   *          what the game is showing
+   * @return the round
+   */
+  public static Round restore(Game game, JSONObject json, GameDisplay display) {
+    Round round = new Round(json.getInt("type"), json.getString("name"), game,
+        display);
+    Phase phase = Phase.valueOf(json.getString("phase"));
+    boolean bPending = phase == Phase.WAITING || phase == Phase.ANSWERING;
+    JSONArray questions = json.getJSONArray("questions");
+    for (int i = 0; i < questions.length(); i++) {
+      JSONObject jsonQuestion = questions.getJSONObject(i);
+      Question q = new Question(jsonQuestion.getInt("id"),
+          jsonQuestion.getString("text"));
+      JSONArray answers = jsonQuestion.getJSONArray("answers");
+      for (int j = 0; j < answers.length(); j++) {
+        JSONObject jsonAnswer = answers.getJSONObject(j);
+        Player p = game.getPlayerById(jsonAnswer.getInt("player"));
+        Answer a = q.addAnswer(jsonAnswer.getInt("id"), p);
+        a.setAnswer(jsonAnswer.getString("text"));
+        if (a.isAnswered() || !bPending)
+          p.getAnswers().remove(a);
+        JSONObject votes = jsonAnswer.getJSONObject("votes");
+        for (String strVoter : votes.keySet()) {
+          Player voter = game.getPlayerById(Integer.parseInt(strVoter));
+          if (voter != null)
+            a.restoreVotes(voter, votes.getInt(strVoter));
+        }
+        a.restoreAudience(jsonAnswer.getInt("audience"));
+      }
+      round.questions.add(q);
+    }
+    int nQuestion = json.getInt("question");
+    if (nQuestion >= 0)
+      round.question = round.questions.get(nQuestion);
+    round.phase = phase;
+    round.setTimeMillis(json.getLong("left"));
+    return round;
+  }
+
+  /**
+   * Take a snapshot of the round, with every answer and vote so far
+   *
+   * @return the snapshot, see {@link #restore(Game, JSONObject, GameDisplay)}
+   */
+  public JSONObject toJson() {
+    JSONArray questions = new JSONArray();
+    for (Question q : this.questions) {
+      JSONArray answers = new JSONArray();
+      for (Answer a : q.getAnswers()) {
+        JSONObject votes = new JSONObject();
+        for (Map.Entry<Player, Integer> vote : a.getVotes().entrySet())
+          votes.put(String.valueOf(vote.getKey().getID()), vote.getValue());
+        answers.put(new JSONObject().put("id", a.getID())
+            .put("player", a.getPlayer().getID()).put("text", a.getAnswer())
+            .put("votes", votes).put("audience", a.getAudienceVotes()));
+      }
+      questions.put(new JSONObject().put("id", q.getID())
+          .put("text", q.getQuestion()).put("answers", answers));
+    }
+    Question question = this.question;
+    return new JSONObject().put("type", this.nRoundType)
+        .put("name", this.strRoundName).put("phase", this.phase.name())
+        .put("question", this.questions.indexOf(question))
+        .put("left", this.getTimeMillis()).put("questions", questions);
+  }
+
+  /**
+   * Split players into one group per player, so that every player is in
+   * nAnswers groups and no group has the same player twice.
+   *
+   * <p>
+   * The players are shuffled into a circle and group i is made of the players
+   * at i + d for a fixed set of offsets d. Where there are enough players the
+   * offsets are picked so that all their differences are distinct, then no two
+   * players meet in more than one group. Runs in O(n*k) for n players and k
+   * answers per question(plus O(n*k^2) to pick the offsets).
+   *
+   * @param players
+   *          the players to group
+   * @param nAnswers
+   *          the number of players in each group
+   * @param random
+   *          used to shuffle the players and pick the offsets
+   * @return one group for every player
+   */
+  public static List<Player[]> group(List<Player> players, int nAnswers,
+      Random random) {
+    int n = players.size();
+    int k = Math.min(nAnswers, n);
+    Player[] circle = players.toArray(new Player[n]);
+    for (int i = n - 1; i > 0; i--) { // Fisher-Yates
+      int j = random.nextInt(i + 1);
+      Player tmp = circle[i];
+      circle[i] = circle[j];
+      circle[j] = tmp;
+    }
+
+    int[] offsets = Round.pickOffsets(n, k, random);
+    List<Player[]> groups = new ArrayList<Player[]>(n);
+    for (int i = 0; i < n; i++) {
+      Player[] group = new Player[k];
+      for (int j = 0; j < k; j++)
+        group[j] = circle[(i + offsets[j]) % n];
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  /**
+   * Pick k distinct offsets in [0, n) whose differences(mod n) are all
+   * distinct, falling back to 0..k-1 if there is no room for that
+   *
+   * @param n
+   *          the number of players
+   * @param k
+   *          the number of offsets, at most n
+   * @param random
+   *          where to start looking for each offset
+   * @return the offsets, starting with 0
+   */
+  private static int[] pickOffsets(int n, int k, Random random) {
+    int[] offsets = new int[k];
+    if ((long) k * (k - 1) < n) {
+      boolean[] used = new boolean[n]; // differences already taken
+      int nPicked = 1; // offsets[0] is 0
+      int nStart = random.nextInt(n);
+      for (int c = 0; c < n && nPicked < k; c++) {
+        int nOffset = (nStart + c) % n;
+        if (nOffset == 0)
+          continue;
+        int[] diffs = new int[2 * nPicked];
+        boolean bFree = true;
+        for (int j = 0; j < nPicked && bFree; j++) {
+          int d = (nOffset - offsets[j] + n) % n;
+          diffs[2 * j] = d;
+          diffs[2 * j + 1] = n - d;
+          bFree = !used[d] && !used[n - d] && d != n - d;
+        }
+        for (int a = 0; bFree && a < diffs.length; a++)
+          for (int b = a + 1; bFree && b < diffs.length; b++)
+            bFree = diffs[a] != diffs[b];
+        if (!bFree)
+          continue;
+        for (int d : diffs)
+          used[d] = true;
+        offsets[nPicked++] = nOffset;
+      }
+      if (nPicked == k)
+        return offsets;
+    }
+    for (int j = 0; j < k; j++)
+      offsets[j] = j;
+    return offsets;
+  }
+
   /**
    * Get the round's name
    *
@@ -205,6 +455,15 @@ public class Round {
     return question;
   }
 
+  /**
+   * Get the phase that the round is currently in.
+   *
+   * @return the current phase
+   */
+  public Phase getPhase() {
+    return this.phase;
+  }
+
   /**
    * Get the amount of time left for the current action.
    *
@@ -213,67 +472,205 @@ public class Round {
    * @return the number of seconds left until the current action is over.
    */
   public int getTime() {
-    return this.dTime;
+    long lDeadline = this.lDeadline;
+    if (lDeadline == 0)
+      return 0;
+    long left = lDeadline - System.nanoTime();
+    if (left <= 0)
+      return 0;
+    return (int) ((left + TimeUnit.SECONDS.toNanos(1) - 1)
+        / TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /**
+   * Get the amount of time left for the current action, exactly
+   *
+   * @return the number of milliseconds left, 0 if there is no current action
+   */
+  private long getTimeMillis() {
+    long lDeadline = this.lDeadline;
+    if (lDeadline == 0)
+      return 0;
+    return Math.max(0,
+        TimeUnit.NANOSECONDS.toMillis(lDeadline - System.nanoTime()));
   }
 
   /**
-   * Wait for a given number of seconds
+   * Set the amount of time the current action will take
    *
    * @param time
-   *          number of seconds to wait
+   *          number of seconds from now at which the action ends
+   */
+  private void setTime(int time) {
+    this.setTimeMillis(TimeUnit.SECONDS.toMillis(time));
+  }
+
+  /**
+   * Set the amount of time the current action will take, exactly
+   *
+   * @param lMillis
+   *          number of milliseconds from now at which the action ends
+   */
+  public void setTimeMillis(long lMillis) {
+    this.lDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lMillis);
+  }
+
+  /**
+   * Wait until the current action's time is up, without blocking.
+   *
    * @param tc
    *          functional interface that returns true when the timer should stop
    *          counting down
+   * @param next
+   *          what to do once the time is up
    */
-  public void wait(int time, TimeChecker tc) {
-    this.dTime = time;
-    while (this.dTime > 0 && (tc == null || !tc.canMoveOn())) {
-      try {
-        Thread.sleep(1000);
-      }
-      catch (InterruptedException e) {
-        e.printStackTrace();
-      }
-      this.dTime--;
-      this.display.refresh();
+  public void wait(TimeChecker tc, Runnable next) {
+    synchronized (this) {
+      if (this.stopped)
+        return; // Stopped while the step before was running
+      this.checker = tc;
+      this.next = next;
+      this.nRecorded = this.getTimeStep();
+      this.ticker = PhaseScheduler.scheduleAtFixedRate(this::tick, 1, 1,
+          TimeUnit.SECONDS);
+      this.timeout = PhaseScheduler.schedule(this::endWait,
+          Math.max(0, this.lDeadline - System.nanoTime()),
+          TimeUnit.NANOSECONDS, this.game::fail);
     }
-    this.dTime = 0;
+    this.game.checkpoint();
+    this.update();
+  }
 
-    try {
-      Thread.sleep(Round.nExtraWaitTime);
+  /**
+   * Refresh the countdown, and every few seconds journal the time left so a
+   * resumed phase carries on close to where it was, even if nobody acted. The
+   * time is journaled once every time it drops past a multiple of TIME_RECORD
+   * seconds, however late the ticks run.
+   */
+  private void tick() {
+    this.display.refresh();
+    long nStep = this.getTimeStep();
+    if (nStep < this.nRecorded) {
+      this.nRecorded = nStep;
+      this.journal(new JSONObject().put("a", "time"));
     }
-    catch (InterruptedException e) {
-      e.printStackTrace();
+  }
+
+  /**
+   * Get the time left in whole steps of TIME_RECORD seconds, rounded up
+   *
+   * @return the number of steps left, 0 once the time is up
+   */
+  private long getTimeStep() {
+    long left = this.lDeadline - System.nanoTime();
+    if (left <= 0)
+      return 0;
+    return (left - 1) / TimeUnit.SECONDS.toNanos(Round.TIME_RECORD) + 1;
+  }
+
+  /**
+   * Check whether the current action can end early(e.g. everyone has already
+   * answered), and if so end it right away.
+   */
+  public void update() {
+    TimeChecker tc;
+    synchronized (this) {
+      tc = this.next == null ? null : this.checker;
     }
+    if (tc != null && tc.canMoveOn())
+      this.endWait();
+  }
 
-    for (Player p : this.players) {
-      p.getSocket().sendText(new JSONObject().put("action", "time"));
+  /**
+   * End the current action, and move on after the extra wait time
+   */
+  private void endWait() {
+    Runnable next;
+    synchronized (this) {
+      if (this.next == null)
+        return;
+      next = this.next;
+      this.next = null;
+      this.checker = null;
+      this.timeout.cancel(false);
+      this.ticker.cancel(false);
+      this.lDeadline = 0;
     }
-    for (Player p : this.spectators) {
-      p.getSocket().sendText(new JSONObject().put("action", "time"));
+    this.display.refresh();
+
+    PhaseScheduler.schedule(() -> {
+      if (this.isStopped())
+        return;
+      this.broadcaster.sendAll(Frame.TIME);
+      next.run();
+    }, this.game.getExtraWaitTime(), TimeUnit.MILLISECONDS, this.game::fail);
+  }
+
+  /**
+   * Stop the round where it is: the current action is dropped and nothing
+   * after it is run, e.g. because the game failed or was closed
+   */
+  public void stop() {
+    synchronized (this) {
+      this.stopped = true;
+      this.next = null;
+      this.checker = null;
+      if (this.timeout != null)
+        this.timeout.cancel(false);
+      if (this.ticker != null)
+        this.ticker.cancel(false);
     }
   }
 
+  /**
+   * Check whether or not the round was stopped, under the lock stop() takes
+   *
+   * @return true if nothing more should be run
+   */
+  private synchronized boolean isStopped() {
+    return this.stopped;
+  }
+
   /**
    * Calculate the amount of time needed to answer the questions and wait for
    * that long.
+   *
+   * @param next
+   *          what to do once everyone has answered or the time is up
    */
-  public void answer() {
+  public void answer(Runnable next) {
+    if (this.isStopped())
+      return;
+    this.setTime(Question.getAnswerTime() * this.game.getNumAnswers());
+    this.answer(this.getTime(), next);
+  }
+
+  /**
+   * Wait for the answers until the deadline that is already set
+   *
+   * @param time
+   *          the number of seconds left to answer, sent to the players
+   * @param next
+   *          what to do once everyone has answered or the time is up
+   */
+  private void answer(int time, Runnable next) {
+    if (this.isStopped())
+      return;
+    this.setPhase(Phase.ANSWERING);
     this.display.changeState("Answering");
-    this.dTime = Question.getAnswerTime() * Question.getNumAnswers();
     for (Player p : this.players) {
-      if (p.getAnswers().size() > 0)
-        p.getAnswers().get(0).send(this.dTime);
-    }
-    for (Player p : this.spectators) {
-      p.getSocket().sendText(this.display.getJson());
+      if (p.getAnswers().size() > 0) {
+        p.getAnswers().get(0).send(time);
+        this.logPrompt(p.getAnswers().get(0));
+      }
     }
-    this.wait(this.dTime, () -> {
+    this.broadcaster.sendSpectators(this.display.getFrame());
+    this.wait(() -> {
       for (Player p : this.players)
-        if (p.getAnswers().size() > 0)
+        if (p.getAnswers().size() > 0 && this.isWaitingOn(p))
           return false;
       return true;
-    });
+    }, next);
   }
 
   /**
@@ -281,79 +678,218 @@ public class Round {
    * long.
    *
    * Also display the current questions that is being voted on.
+   *
+   * @param next
+   *          what to do once every question has been voted on
    */
-  public void vote() {
-    for (Question question : this.questions) {
-      this.display.changeState("Voting");
+  public void vote(Runnable next) {
+    this.vote(0, false, next);
+  }
 
-      this.question = question;
-      this.dTime = Question.getVoteTime() * this.question.getAnswers().size();
-      if (this.question.canVote()) {
+  /**
+   * Carry on a restored round from the phase it was in, with the time that was
+   * left. Results that were being displayed are not displayed again.
+   *
+   * @param next
+   *          what to do once every question has been voted on
+   */
+  public void resume(Runnable next) {
+    if (this.isStopped())
+      return;
+    int nQuestion = this.questions.indexOf(this.question);
+    switch (this.phase) {
+      case WAITING:
+        this.answer(() -> this.vote(next));
+        break;
+      case ANSWERING:
+        this.answer(this.getTime(), () -> this.vote(next));
+        break;
+      case VOTING:
+        this.vote(nQuestion, true, next);
+        break;
+      case QUESTION_RESULTS:
+        this.question = null;
+        this.vote(nQuestion + 1, false, next);
+        break;
+      case ROUND_RESULTS:
+        next.run();
+        break;
+    }
+  }
+
+  /**
+   * Vote on one question, then move on to the one after it.
+   *
+   * @param nQuestion
+   *          index of the question to vote on
+   * @param bResume
+   *          true to carry on a vote that was restored, with the votes and
+   *          time left it had
+   * @param next
+   *          what to do once every question has been voted on
+   */
+  private void vote(int nQuestion, boolean bResume, Runnable next) {
+    if (this.isStopped())
+      return;
+    if (nQuestion >= this.questions.size()) {
+      next.run();
+      return;
+    }
+    Question question = this.questions.get(nQuestion);
+    Runnable results = () -> {
+      this.spectators.open(null);
+      this.displayResults(() -> {
+        this.question = null;
+        this.vote(nQuestion + 1, false, next);
+      });
+    };
+
+    this.question = question;
+    this.setPhase(Phase.VOTING);
+    this.display.changeState("Voting");
+
+    if (!bResume)
+      this.setTime(Question.getVoteTime() * this.question.getAnswers().size());
+    int time = this.getTime();
+    if (this.question.canVote()) {
+      if (bResume)
+        this.spectators.open(question);
+      else
         this.setVotes();
-        for (Player p : this.players) {
-          JSONObject jsonOut = new JSONObject();
-          jsonOut.put("action", "vote");
-          jsonOut.put("time", this.dTime);
-          jsonOut.put("question", question.getQuestion());
-          jsonOut.put("votes", p.getVotes());
-          if (p.getVotes() > 0) {
-            JSONArray jSONArray = new JSONArray();
-            for (Answer tmp : question.getAnswers()) {
-              if (tmp.getPlayer() != p && !tmp.getAnswer().isEmpty())
-                jSONArray.put(new JSONObject().put("answer", tmp.getAnswer())
-                    .put("aid", tmp.getID()));
-            }
-            jsonOut.put("answers", jSONArray);
-          }
-          p.getSocket().sendText(jsonOut);
-        }
-        for (Player p : this.spectators) {
-          if (p.getVotes() > 0) {
-            JSONObject jsonOut = new JSONObject();
-            jsonOut.put("action", "vote");
-            jsonOut.put("time", this.getTime());
-            jsonOut.put("question", question.getQuestion());
-            jsonOut.put("votes", p.getVotes());
-            JSONArray jSONArray = new JSONArray();
-            for (Answer tmp : question.getAnswers()) {
-              if (tmp.getPlayer() != p && !tmp.getAnswer().isEmpty())
-                jSONArray.put(new JSONObject().put("answer", tmp.getAnswer())
-                    .put("aid", tmp.getID()));
-            }
-            jsonOut.put("answers", jSONArray);
-            p.getSocket().sendText(jsonOut);
-          }
-        }
-        this.wait(this.dTime, () -> {
-          for (Player p : this.players)
-            if (p.getVotes() > 0)
-              return false;
-          return true;
-        });
+      for (Player p : this.players) {
+        if (p.getSocket() != null)
+          p.getSocket().send(question.getBallot(p, p.getVotes(), time));
       }
-      this.displayResults();
-      this.question = null;
+      this.spectators.sendVoters(question.getBallot(null, 1, time));
+      this.broadcaster.sendBallots(question, time);
+      this.wait(() -> {
+        for (Player p : this.players)
+          if (p.getVotes() > 0 && this.isWaitingOn(p))
+            return false;
+        return true;
+      }, results);
+    }
+    else {
+      results.run();
     }
   }
 
   /**
-   * Display the result for the current question and move on after three seconds
+   * Display the result for the current question and move on after the display
+   * time is up
    *
    * If current questions is null, display the results for this round
+   *
+   * @param next
+   *          what to do once the results have been displayed
    */
-  public void displayResults() {
-    this.dTime = 12;
+  public void displayResults(Runnable next) {
+    if (this.isStopped())
+      return;
+    this.setTime(12);
     if (this.question != null) {
+      this.setPhase(Phase.QUESTION_RESULTS);
       this.display.changeState("Question Results");
+      EventLog.record(this.strRoom, "audience", "question",
+          this.question.getID(), "count", this.question.getAudience());
+      QuestionStats.record(this.question);
     }
     else {
+      this.setPhase(Phase.ROUND_RESULTS);
       this.display.changeState("Round Results");
     }
-    for (Player p : this.players)
-      p.getSocket().sendText(this.display.getJson());
-    for (Player p : this.spectators)
-      p.getSocket().sendText(this.display.getJson());
-    this.wait(this.dTime, null);
+    this.broadcaster.sendInfo();
+    this.wait(null, next);
+  }
+
+  /**
+   * Move to another phase, recording it in the event log
+   *
+   * @param phase
+   *          the new phase
+   */
+  private void setPhase(Phase phase) {
+    this.phase = phase;
+    if (this.question != null)
+      EventLog.record(this.strRoom, "phase", "round", this.strRoundName,
+          "phase", phase.name(), "question", this.question.getID());
+    else
+      EventLog.record(this.strRoom, "phase", "round", this.strRoundName,
+          "phase", phase.name());
+  }
+
+  /**
+   * Record in the event log that a player was asked to answer
+   *
+   * @param answer
+   *          the answer the player was asked for
+   */
+  public void logPrompt(Answer answer) {
+    EventLog.record(this.strRoom, "prompt", "player",
+        answer.getPlayer().getID(), "answer", answer.getID());
+  }
+
+  /**
+   * Record in the event log that an answer came in
+   *
+   * @param answer
+   *          the answer received
+   */
+  public void logAnswer(Answer answer) {
+    EventLog.record(this.strRoom, "answer", "player",
+        answer.getPlayer().getID(), "answer", answer.getID(), "length",
+        answer.getAnswer().length());
+    this.journal(new JSONObject().put("a", "answer").put("aid", answer.getID())
+        .put("text", answer.getAnswer()));
+  }
+
+  /**
+   * Record in the event log that a player voted
+   *
+   * @param p
+   *          the player that voted
+   * @param answer
+   *          the answer voted for
+   * @param nVotes
+   *          the number of votes cast, nothing is recorded if 0
+   */
+  public void logVote(Player p, Answer answer, int nVotes) {
+    if (nVotes <= 0)
+      return;
+    EventLog.record(this.strRoom, "vote", "player", p.getID(), "answer",
+        answer.getID(), "votes", nVotes, "left", p.getVotes());
+    this.journal(new JSONObject().put("a", "vote").put("pid", p.getID())
+        .put("aid", answer.getID()).put("n", nVotes)
+        .put("votes", p.getVotes()));
+  }
+
+  /**
+   * Record that a spectator voted, spectators' votes are only counted(see
+   * {@link Question#getAudience()})
+   *
+   * @param answer
+   *          the answer voted for
+   * @param nVotes
+   *          the number of votes cast, nothing is recorded if 0
+   */
+  public void logAudience(Answer answer, int nVotes) {
+    if (nVotes <= 0)
+      return;
+    this.journal(new JSONObject().put("a", "audience")
+        .put("aid", answer.getID()).put("count", answer.getAudienceVotes()));
+  }
+
+  /**
+   * Record a change in the game's journal, with the time left for the current
+   * action
+   *
+   * @param record
+   *          the change, see {@link Game#replay(JSONObject)}
+   */
+  private void journal(JSONObject record) {
+    GameJournal journal = this.game.getJournal();
+    if (journal != null)
+      journal.record(record.put("left", this.getTimeMillis()));
   }
 
   /**
@@ -412,6 +948,10 @@ public class Round {
           }
           writer.writeCharacters("\n              ");
           writer.writeEndElement();
+          writer.writeCharacters("\n              ");
+          writer.writeStartElement("audience");
+          writer.writeCharacters(String.valueOf(a.getAudienceVotes()));
+          writer.writeEndElement();
           writer.writeCharacters("\n            ");
           writer.writeEndElement();
         }
@@ -444,36 +984,27 @@ public class Round {
           break;
       }
     }
-    for (Player p : this.spectators) {
-      p.setVotes(1);
-    }
+    this.spectators.open(this.getQuestion());
   }
 
   /**
    * Get the display
    *
-   * @return the GamePane that displays stuff
+   * @return what the game is showing
    */
-  public GamePane getDisplay() {
+  public GameDisplay getDisplay() {
     return this.display;
   }
 
   /**
-   * Get the extra wait time
-   *
-   * @return the Extra Wait Time
-   */
-  public static int getExtraWaitTime() {
-    return nExtraWaitTime;
-  }
-
-  /**
-   * Set the extra wait time
+   * Check whether a phase should wait on a player
    *
-   * @param nExtraWaitTime
-   *          the extra wait time to set
+   * @param p
+   *          the player
+   * @return false if the player lost their connection and the game does not
+   *         wait on absent players
    */
-  public static void setExtraWaitTime(int nExtraWaitTime) {
-    Round.nExtraWaitTime = nExtraWaitTime;
+  private boolean isWaitingOn(Player p) {
+    return this.game.isWaitAbsent() || p.isConnected();
   }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+/**
+ * Spectator
+ *
+ * Someone watching a game without playing. A spectator is only a handle: its
+ * id, the socket it is sent to on and the tier it is in. Spectators share
+ * their name and colour, never get answers or a session to resume and are
+ * only sent to through their game's {@link SpectatorTier}. They get one vote
+ * for each question the tier opens, recorded on the question itself rather
+ * than on the spectator.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class Spectator extends GameObject {
+  /**
+   * Name shown for spectators
+   */
+  public static final String             NAME  = "Spectator";
+  /**
+   * Colour shown for spectators
+   */
+  public static final String             COLOR = "#555555";
+
+  /**
+   * The tier the spectator is in
+   */
+  private final SpectatorTier            tier;
+  /**
+   * WebSocket the spectator watches on, null if watching over HTTP
+   */
+  private volatile QinqWebSocketAddapter socket;
+
+  /**
+   * Create a spectator
+   *
+   * @param nId
+   *          id of the spectator, negative
+   * @param tier
+   *          the tier the spectator is in
+   */
+  public Spectator(int nId, SpectatorTier tier) {
+    super(nId);
+    this.tier = tier;
+  }
+
+  /**
+   * Check whether or not the spectator can vote on a question
+   *
+   * @param q
+   *          the question
+   * @return true if voting on it is open and the spectator has not voted yet
+   */
+  public boolean canVote(Question q) {
+    return q != null && this.tier.getQuestion() == q
+        && !q.hasAudience(this.getIndex());
+  }
+
+  /**
+   * Get the number of votes the spectator has left on the open question
+   *
+   * @return 1 if the spectator can still vote, 0 otherwise
+   */
+  public int getVotes() {
+    return this.canVote(this.tier.getQuestion()) ? 1 : 0;
+  }
+
+  /**
+   * Get the position of the spectator in its tier, spectator ids are dense so
+   * this goes 0, 1, 2...
+   *
+   * @return the index of the spectator
+   */
+  public int getIndex() {
+    return this.tier.indexOf(this.getID());
+  }
+
+  /**
+   * Get the WebSocket
+   *
+   * @return the socket, or null if there is none
+   */
+  public QinqWebSocketAddapter getSocket() {
+    return this.socket;
+  }
+
+  /**
+   * Set the WebSocket
+   *
+   * @param socket
+   *          the socket to set
+   */
+  public void setSocket(QinqWebSocketAddapter socket) {
+    this.socket = socket;
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * SpectatorTier
+ *
+ * The spectators of one game. Spectator ids are dense, so they are kept in an
+ * array indexed by {@link Spectator#getIndex()}. A tier is made for every game
+ * and the ids start again with it, so the array only grows as large as the
+ * audience of one game. Frames are sent to them in chunks on threads of their
+ * own, so a large audience does not hold up the
+ * players or the round timer. A chunk is always sent to on the same thread,
+ * so every spectator gets frames in the order they were sent.
+ *
+ * <p>
+ * The array only ever grows and slots are only ever cleared, so a sender can
+ * walk the array it read without holding the lock.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class SpectatorTier {
+  /**
+   * Spectators by index, null where a spectator left
+   */
+  private Spectator[]              spectators;
+  /**
+   * Number of slots used in the array
+   */
+  private int                      nSlots;
+  /**
+   * Number of spectators still in the tier
+   */
+  private int                      nSize;
+  /**
+   * Hands out the spectators' ids
+   */
+  private IdAllocator              ids;
+  /**
+   * The question spectators can currently vote on, null if none
+   */
+  private volatile Question        question;
+  /**
+   * Threads frames are sent to spectators on, shared by every game
+   */
+  private static ExecutorService[] lanes;
+  /**
+   * Number of threads sending to spectators
+   */
+  private static int               nThreads =
+      Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+  /**
+   * Number of spectators sent to by each task
+   */
+  private static int               nChunk   = 256;
+
+  /**
+   * Create an empty tier
+   *
+   * @param ids
+   *          hands out the spectators' ids
+   */
+  public SpectatorTier(IdAllocator ids) {
+    this.spectators = new Spectator[16];
+    this.nSlots = 0;
+    this.nSize = 0;
+    this.ids = ids;
+  }
+
+  /**
+   * Add a new spectator
+   *
+   * @return the new spectator
+   */
+  public synchronized Spectator add() {
+    Spectator s = new Spectator(this.ids.nextSpectatorId(), this);
+    int nIndex = s.getIndex();
+    if (nIndex >= this.spectators.length)
+      this.spectators = Arrays.copyOf(this.spectators,
+          Math.max(nIndex + 1, this.spectators.length * 2));
+    this.spectators[nIndex] = s;
+    this.nSlots = Math.max(this.nSlots, nIndex + 1);
+    this.nSize++;
+    return s;
+  }
+
+  /**
+   * Remove a spectator
+   *
+   * @param s
+   *          the spectator to remove
+   * @return true if the spectator was in the tier
+   */
+  public synchronized boolean remove(Spectator s) {
+    int nIndex = this.indexOf(s.getID());
+    if (nIndex < 0 || nIndex >= this.nSlots || this.spectators[nIndex] != s)
+      return false;
+    this.spectators[nIndex] = null;
+    this.nSize--;
+    return true;
+  }
+
+  /**
+   * Get a spectator by id
+   *
+   * @param id
+   *          the spectator's id
+   * @return the spectator, or null if there is none
+   */
+  public synchronized Spectator get(int id) {
+    int nIndex = this.indexOf(id);
+    if (nIndex < 0 || nIndex >= this.nSlots)
+      return null;
+    return this.spectators[nIndex];
+  }
+
+  /**
+   * Get the position of a spectator in the tier
+   *
+   * @param id
+   *          the spectator's id
+   * @return the index of the spectator, negative if the id is not a
+   *         spectator's
+   */
+  public int indexOf(int id) {
+    return -id - 1;
+  }
+
+  /**
+   * Get the number of spectators
+   *
+   * @return the number of spectators
+   */
+  public synchronized int size() {
+    return this.nSize;
+  }
+
+  /**
+   * Do something for every spectator, on the calling thread
+   *
+   * @param action
+   *          what to do
+   */
+  public void forEach(Consumer<Spectator> action) {
+    Spectator[] spectators;
+    int nSlots;
+    synchronized (this) {
+      spectators = this.spectators;
+      nSlots = this.nSlots;
+    }
+    for (int i = 0; i < nSlots; i++)
+      if (spectators[i] != null)
+        action.accept(spectators[i]);
+  }
+
+  /**
+   * Let every spectator vote once on a question, without touching each
+   * spectator
+   *
+   * @param question
+   *          the question to vote on, null to stop voting
+   */
+  public void open(Question question) {
+    this.question = question;
+  }
+
+  /**
+   * Get the question spectators can currently vote on
+   *
+   * @return the question, or null if there is none
+   */
+  public Question getQuestion() {
+    return this.question;
+  }
+
+  /**
+   * Send a frame to every spectator, without waiting for it to be sent
+   *
+   * @param frame
+   *          the frame to send
+   */
+  public void send(Frame frame) {
+    this.fanOut(frame, false);
+  }
+
+  /**
+   * Send a frame to every spectator with votes left(e.g. a ballot)
+   *
+   * @param frame
+   *          the frame to send
+   */
+  public void sendVoters(Frame frame) {
+    this.fanOut(frame, true);
+  }
+
+  /**
+   * Split the spectators into chunks and send to each chunk on the pool
+   *
+   * @param frame
+   *          the frame to send
+   * @param bVoters
+   *          whether or not to skip spectators without votes
+   */
+  private void fanOut(Frame frame, boolean bVoters) {
+    Spectator[] spectators;
+    int nSlots;
+    synchronized (this) {
+      spectators = this.spectators;
+      nSlots = this.nSlots;
+    }
+    int nChunk = Math.max(1, SpectatorTier.nChunk);
+    ExecutorService[] lanes = SpectatorTier.getLanes();
+    for (int nStart = 0; nStart < nSlots; nStart += nChunk) {
+      int nFrom = nStart;
+      int nTo = Math.min(nSlots, nStart + nChunk);
+      lanes[(nStart / nChunk) % lanes.length].execute(() -> {
+        for (int i = nFrom; i < nTo; i++) {
+          Spectator s = spectators[i];
+          try {
+            if (s != null && s.getSocket() != null
+                && (!bVoters || s.getVotes() > 0))
+              s.getSocket().send(frame);
+          }
+          catch (RuntimeException e) { // Don't let one spectator stop the rest
+            e.printStackTrace();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Get the shared threads, creating them if needed
+   *
+   * @return single threaded executors frames are sent to spectators on
+   */
+  private static synchronized ExecutorService[] getLanes() {
+    if (SpectatorTier.lanes == null) {
+      AtomicInteger count = new AtomicInteger();
+      ThreadFactory factory = task -> {
+        Thread thread =
+            new Thread(task, "qinq-spectators-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      SpectatorTier.lanes =
+          new ExecutorService[Math.max(1, SpectatorTier.nThreads)];
+      for (int i = 0; i < SpectatorTier.lanes.length; i++)
+        SpectatorTier.lanes[i] = Executors.newSingleThreadExecutor(factory);
+    }
+    return SpectatorTier.lanes;
+  }
+
+  /**
+   * Get the number of threads sending to spectators
+   *
+   * @return the number of threads
+   */
+  public static int getThreads() {
+    return SpectatorTier.nThreads;
+  }
+
+  /**
+   * Set the number of threads sending to spectators, only has an effect
+   * before the first frame is sent.
+   *
+   * @param nThreads
+   *          the number of threads
+   */
+  public static void setThreads(int nThreads) {
+    SpectatorTier.nThreads = nThreads;
+  }
+
+  /**
+   * Get the number of spectators sent to by each task
+   *
+   * @return the chunk size
+   */
+  public static int getChunk() {
+    return SpectatorTier.nChunk;
+  }
+
+  /**
+   * Set the number of spectators sent to by each task, only change it between
+   * games
+   *
+   * @param nChunk
+   *          the chunk size
+   */
+  public static void setChunk(int nChunk) {
+    SpectatorTier.nChunk = nChunk;
+  }
+}
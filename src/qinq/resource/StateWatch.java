@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StateWatch
+ *
+ * Version of the state of a game, incremented every time something is sent
+ * out to the players. Clients that can not be pushed to(e.g. HTTP long-polls)
+ * wait here for the version to move past the one they last saw.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class StateWatch {
+  /**
+   * Current version of the state
+   */
+  private long           nVersion;
+  /**
+   * Run once when the version changes
+   */
+  private List<Runnable> waiters;
+
+  /**
+   * Create a watch at version 0 with no one waiting
+   */
+  public StateWatch() {
+    this.nVersion = 0;
+    this.waiters = new ArrayList<Runnable>();
+  }
+
+  /**
+   * Get the current version of the state
+   *
+   * @return the version
+   */
+  public synchronized long getVersion() {
+    return this.nVersion;
+  }
+
+  /**
+   * Move to the next version and wake up everyone waiting
+   *
+   * @return the new version
+   */
+  public long advance() {
+    List<Runnable> waiters;
+    long nVersion;
+    synchronized (this) {
+      nVersion = ++this.nVersion;
+      if (this.waiters.isEmpty())
+        return nVersion;
+      waiters = this.waiters;
+      this.waiters = new ArrayList<Runnable>();
+    }
+    for (Runnable r : waiters)
+      r.run();
+    return nVersion;
+  }
+
+  /**
+   * Wait for the version to change
+   *
+   * @param nSeen
+   *          the version the caller already has
+   * @param onChange
+   *          run once, on the thread that changes the version
+   * @return false if the version is already different, onChange is not run
+   */
+  public synchronized boolean await(long nSeen, Runnable onChange) {
+    if (nSeen != this.nVersion)
+      return false;
+    this.waiters.add(onChange);
+    return true;
+  }
+
+  /**
+   * Stop waiting(e.g. on a timeout)
+   *
+   * @param onChange
+   *          what was passed to {@link #await(long, Runnable)}
+   */
+  public synchronized void cancel(Runnable onChange) {
+    this.waiters.remove(onChange);
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+
+/**
+ * ThresholdDeflateExtension
+ *
+ * permessage-deflate that sends small messages without compressing them,
+ * deflating a few bytes costs more CPU than it saves on the wire.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class ThresholdDeflateExtension extends PerMessageDeflateExtension {
+  @Override
+  public void outgoingFrame(Frame frame, WriteCallback callback,
+      BatchMode batchMode) {
+    // Only whole data messages can skip compression, the rest of a message
+    // that was started compressed has to stay compressed
+    if (frame.getType().isData() && frame.getType() != Frame.Type.CONTINUATION
+        && frame.isFin()
+        && frame.getPayloadLength() < Compression.getThreshold())
+      this.nextOutgoingFrame(frame, callback, batchMode);
+    else
+      super.outgoingFrame(frame, callback, batchMode);
+  }
+}
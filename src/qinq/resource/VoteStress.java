@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * VoteStress
+ *
+ * Has many threads vote for one answer at once on behalf of thousands of
+ * voters, every thread trying to spend more votes than each voter has. Checks
+ * that no vote is lost or spent twice: the answer must end up with exactly
+ * the votes handed out, the same number in its total and in its map, and
+ * every voter with none left. Exits with 1 if a run fails.
+ *
+ * <pre>
+ * java -cp qinq.jar qinq.resource.VoteStress [voters] [threads] [votes] [runs]
+ * </pre>
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class VoteStress {
+  public static void main(String[] args) throws InterruptedException {
+    int nVoters = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int nThreads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int nVotes = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int nRuns = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    boolean bFailed = false;
+    for (int r = 0; r < nRuns; r++) {
+      long lStart = System.nanoTime();
+      String strError = VoteStress.run(nVoters, nThreads, nVotes);
+      System.out.printf("run %d: %s in %d ms%n", r + 1,
+          strError == null ? "ok" : strError,
+          (System.nanoTime() - lStart) / 1000000);
+      bFailed |= strError != null;
+    }
+    if (bFailed)
+      System.exit(1);
+  }
+
+  /**
+   * Vote for one answer from every thread at once
+   *
+   * @param nVoters
+   *          how many players vote
+   * @param nThreads
+   *          how many threads vote at once, each for every voter
+   * @param nVotes
+   *          how many votes each voter has
+   * @return what went wrong, or null if every vote was counted exactly once
+   * @throws InterruptedException
+   *           if interrupted while waiting for the threads
+   */
+  private static String run(int nVoters, int nThreads, int nVotes)
+      throws InterruptedException {
+    IdAllocator ids = new IdAllocator();
+    Player author = new Player(ids.nextPlayerId(), "AUTHOR", "stress");
+    Answer answer = new Question(ids, "Stress", author).getAnswers().get(0);
+    List<Player> voters = new ArrayList<Player>(nVoters);
+    for (int i = 0; i < nVoters; i++) {
+      Player p = new Player(ids.nextPlayerId(), "V" + i, "stress");
+      p.setVotes(nVotes);
+      voters.add(p);
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>(nThreads);
+    for (int t = 0; t < nThreads; t++) {
+      int nFirst = t * nVoters / nThreads; // Threads start at different voters
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < nVoters; i++) {
+          Player p = voters.get((nFirst + i) % nVoters);
+          for (int v = 0; v <= nVotes; v++) // One more than it has
+            answer.vote(p);
+        }
+      }, "qinq-vote-" + t);
+      threads.add(thread);
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads)
+      thread.join();
+
+    long lExpected = (long) nVoters * nVotes;
+    long lMapped = 0;
+    for (Map.Entry<Player, Integer> vote : answer.getVotes().entrySet())
+      lMapped += vote.getValue();
+    if (answer.getNumVotes() != lExpected)
+      return String.format("%d votes counted, expected %d",
+          answer.getNumVotes(), lExpected);
+    if (lMapped != lExpected)
+      return String.format("%d votes mapped, expected %d", lMapped, lExpected);
+    for (Player p : voters)
+      if (p.getVotes() != 0)
+        return String.format("%s has %d votes left", p.getName(),
+            p.getVotes());
+    return null;
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2016, Andriy Zasypkin.
+ *
+ * This file is part of Qinq.
+ *
+ * Qinq(or QINQ) is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Qinq in distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Qinq. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package qinq.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * WireCodec
+ *
+ * Compact binary encoding of the messages sent between the game and the web
+ * interface, used instead of JSON when the client asks for the
+ * {@value #PROTOCOL_BINARY} subprotocol. Must be kept in sync with
+ * html/js/script.js.
+ *
+ * <p>
+ * Every message starts with a one byte type. Numbers are unsigned varints
+ * (zig-zag encoded where they can be negative), strings are a varint byte
+ * length followed by UTF-8, and colours are three bytes(#rrggbb). Any message
+ * the codec does not know is sent as type 0 followed by its JSON text.
+ *
+ * @author az
+ * @version 1.0, 2016-06-20
+ */
+public class WireCodec {
+  /**
+   * Subprotocol for the binary encoding
+   */
+  public static final String PROTOCOL_BINARY = "qinq.bin";
+  /**
+   * Subprotocol for the JSON encoding
+   */
+  public static final String PROTOCOL_JSON   = "qinq.json";
+
+  private static final int   JSON            = 0;
+  private static final int   CREATING        = 1;
+  private static final int   ANSWER          = 2;
+  private static final int   VOTE            = 3;
+  private static final int   VOTING          = 4;
+  private static final int   INFO            = 5;
+  private static final int   TIME            = 6;
+  private static final int   END             = 7;
+  private static final int   KICK            = 8;
+  private static final int   CREATE_USER     = 16;
+  private static final int   SEND_ANSWER     = 17;
+  private static final int   CAST_VOTE       = 18;
+
+  /**
+   * Kinds of info messages, index is the type sent
+   */
+  private static final String[] INFO_TYPES =
+      { "none", "answering", "round", "question" };
+
+  /**
+   * Encode a message
+   *
+   * @param json
+   *          the message to encode
+   * @return the encoded message
+   */
+  public static byte[] encode(JSONObject json) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      switch (json.optString("action", "")) {
+        case "creating":
+          out.write(WireCodec.CREATING);
+          if (json.getString("created").equals("true")) {
+            out.write(1);
+            WireCodec.writeSigned(out, json.getInt("id"));
+            WireCodec.writeString(out, json.getString("name"));
+            WireCodec.writeColor(out, json.getString("color"));
+            WireCodec.writeString(out, json.optString("token", ""));
+            WireCodec.writeVarint(out, json.optInt("seq", 0));
+          }
+          else
+            out.write(0);
+          break;
+        case "answer":
+          out.write(WireCodec.ANSWER);
+          WireCodec.writeVarint(out, json.getInt("time"));
+          WireCodec.writeVarint(out, json.getInt("aid"));
+          WireCodec.writeString(out, json.getString("question"));
+          break;
+        case "vote":
+          out.write(WireCodec.VOTE);
+          WireCodec.writeVarint(out, json.getInt("time"));
+          WireCodec.writeString(out, json.getString("question"));
+          WireCodec.writeVarint(out, json.getInt("votes"));
+          if (json.has("answers")) {
+            JSONArray answers = json.getJSONArray("answers");
+            WireCodec.writeVarint(out, answers.length() + 1);
+            for (int i = 0; i < answers.length(); i++) {
+              JSONObject answer = answers.getJSONObject(i);
+              WireCodec.writeVarint(out, answer.getInt("aid"));
+              WireCodec.writeString(out, answer.getString("answer"));
+            }
+          }
+          else
+            WireCodec.writeVarint(out, 0);
+          break;
+        case "voting":
+          out.write(WireCodec.VOTING);
+          WireCodec.writeVarint(out, json.getInt("aid"));
+          WireCodec.writeVarint(out, json.getInt("voted"));
+          WireCodec.writeVarint(out, json.getInt("left"));
+          break;
+        case "info":
+          if (!WireCodec.encodeInfo(out, json))
+            return WireCodec.encodeJson(json);
+          break;
+        case "time":
+          out.write(WireCodec.TIME);
+          break;
+        case "end":
+          out.write(WireCodec.END);
+          break;
+        case "kick":
+          out.write(WireCodec.KICK);
+          break;
+        default:
+          return WireCodec.encodeJson(json);
+      }
+    }
+    catch (JSONException | NumberFormatException e) {
+      // Not in the expected shape, send as is
+      return WireCodec.encodeJson(json);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode a message sent by a client
+   *
+   * @param payload
+   *          buffer containing the message
+   * @param offset
+   *          where the message starts
+   * @param len
+   *          length of the message
+   * @return the decoded message, in the same form as the JSON encoding
+   * @throws JSONException
+   *           if the message is not valid
+   */
+  public static JSONObject decode(byte[] payload, int offset, int len) {
+    ByteBuffer in = ByteBuffer.wrap(payload, offset, len);
+    try {
+      JSONObject json = new JSONObject();
+      switch (in.get() & 0xff) {
+        case WireCodec.JSON:
+          return new JSONObject(new String(payload, offset + 1, len - 1,
+              StandardCharsets.UTF_8));
+        case WireCodec.CREATE_USER:
+          json.put("action", "create user");
+          json.put("name", WireCodec.readString(in));
+          break;
+        case WireCodec.SEND_ANSWER:
+          json.put("action", "send answer");
+          json.put("id", String.valueOf(WireCodec.readVarint(in)));
+          json.put("answer", WireCodec.readString(in));
+          break;
+        case WireCodec.CAST_VOTE:
+          json.put("action", "vote");
+          json.put("id", String.valueOf(WireCodec.readSigned(in)));
+          json.put("aid", String.valueOf(WireCodec.readVarint(in)));
+          break;
+        default:
+          throw new JSONException("Unknown message type");
+      }
+      return json;
+    }
+    catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new JSONException("Truncated message");
+    }
+  }
+
+  /**
+   * Encode an info message
+   *
+   * @param out
+   *          where to write the message
+   * @param json
+   *          the message
+   * @return false if this kind of info is not known
+   */
+  private static boolean encodeInfo(ByteArrayOutputStream out,
+      JSONObject json) {
+    int type = -1;
+    for (int i = 0; i < WireCodec.INFO_TYPES.length; i++)
+      if (WireCodec.INFO_TYPES[i].equals(json.getString("info")))
+        type = i;
+    if (type < 0)
+      return false;
+
+    out.write(WireCodec.INFO);
+    out.write(type);
+    WireCodec.writeVarint(out, json.has("time") ? json.getInt("time") + 1 : 0);
+    switch (WireCodec.INFO_TYPES[type]) {
+      case "answering":
+      case "round":
+        JSONArray players = json.getJSONArray("players");
+        WireCodec.writeVarint(out, players.length());
+        for (int i = 0; i < players.length(); i++) {
+          JSONObject player = players.getJSONObject(i);
+          WireCodec.writeString(out, player.getString("name"));
+          WireCodec.writeColor(out, player.getString("color"));
+        }
+        break;
+      case "question":
+        WireCodec.writeString(out, json.getString("question"));
+        JSONArray answers = json.getJSONArray("answers");
+        WireCodec.writeVarint(out, answers.length());
+        for (int i = 0; i < answers.length(); i++) {
+          JSONObject answer = answers.getJSONObject(i);
+          JSONObject player = answer.getJSONObject("player");
+          WireCodec.writeString(out, player.getString("name"));
+          WireCodec.writeColor(out, player.getString("color"));
+          WireCodec.writeString(out, answer.getString("answer"));
+          WireCodec.writeString(out, answer.getString("score"));
+          JSONArray votes = answer.getJSONArray("votes");
+          WireCodec.writeVarint(out, votes.length());
+          for (int j = 0; j < votes.length(); j++) {
+            JSONObject vote = votes.getJSONObject(j);
+            WireCodec.writeString(out, vote.getString("value"));
+            WireCodec.writeColor(out, vote.getString("color"));
+          }
+        }
+        break;
+    }
+    return true;
+  }
+
+  /**
+   * Encode a message as JSON text, for messages the codec does not know
+   *
+   * @param json
+   *          the message
+   * @return type 0 followed by the JSON text
+   */
+  private static byte[] encodeJson(JSONObject json) {
+    byte[] text = json.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] out = new byte[text.length + 1];
+    out[0] = WireCodec.JSON;
+    System.arraycopy(text, 0, out, 1, text.length);
+    return out;
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static void writeSigned(ByteArrayOutputStream out, int value) {
+    WireCodec.writeVarint(out, (value << 1) ^ (value >> 31));
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    WireCodec.writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeColor(ByteArrayOutputStream out, String color) {
+    if (color.length() != 7 || color.charAt(0) != '#')
+      throw new JSONException("Not a #rrggbb colour: " + color);
+    int rgb = Integer.parseInt(color.substring(1), 16);
+    out.write(rgb >> 16);
+    out.write(rgb >> 8);
+    out.write(rgb);
+  }
+
+  private static int readVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.get() & 0xff;
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IllegalArgumentException("Varint too long");
+  }
+
+  private static int readSigned(ByteBuffer in) {
+    int value = WireCodec.readVarint(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static String readString(ByteBuffer in) {
+    int len = WireCodec.readVarint(in);
+    if (len < 0 || len > in.remaining())
+      throw new IllegalArgumentException("String too long");
+    String value = new String(in.array(), in.arrayOffset() + in.position(),
+        len, StandardCharsets.UTF_8);
+    in.position(in.position() + len);
+    return value;
+  }
+}